@@ -14,6 +14,7 @@ import android.view.View.*
 import android.view.WindowManager
 import android.view.animation.Animation
 import android.view.animation.AnimationUtils
+import android.widget.EditText
 import android.widget.SeekBar
 import androidx.appcompat.app.AlertDialog
 import androidx.core.content.ContextCompat
@@ -45,11 +46,13 @@ import com.novel.read.utlis.ScreenUtils
 import com.novel.read.utlis.SpUtil
 import com.novel.read.utlis.SystemBarUtils
 import com.novel.read.widget.dialog.ReadSettingDialog
+import com.novel.read.widget.page.BookSearchHit
 import com.novel.read.widget.page.PageLoader
 import com.novel.read.widget.page.PageView
 import com.novel.read.widget.page.ReadSettingManager
 import com.novel.read.widget.page.TxtChapter
 import com.squareup.otto.Subscribe
+import io.reactivex.disposables.Disposable
 import kotlinx.android.synthetic.main.activity_read.*
 import kotlinx.android.synthetic.main.layout_download.*
 import kotlinx.android.synthetic.main.layout_light.*
@@ -74,6 +77,7 @@ class NovelReadActivity : NovelBaseActivity(), DownloadService.OnDownloadListene
     private var mBottomOutAnim: Animation? = null
 
     private var mSettingDialog: ReadSettingDialog? = null
+    private var mSearchDisposable: Disposable? = null
     private var isCollected = false // isFromSDCard
     private var isNightMode = false
     private var isFullScreen = false
@@ -283,6 +287,11 @@ class NovelReadActivity : NovelBaseActivity(), DownloadService.OnDownloadListene
             toggleNightMode()
         }
 
+        read_tv_search.setOnClickListener {
+            toggleMenu(true)
+            showSearchDialog()
+        }
+
         read_tv_brief.setOnClickListener {
             val intent = Intent(this, NovelBookDetailActivity::class.java)
             intent.putExtra(Constant.Bundle.BookId, Integer.valueOf(mBookId))
@@ -384,6 +393,46 @@ class NovelReadActivity : NovelBaseActivity(), DownloadService.OnDownloadListene
         builder.show()
     }
 
+    /**
+     * 书内搜索：输入关键字，在结果列表中选择后跳转到所在的页
+     */
+    private fun showSearchDialog() {
+        val editText = EditText(this)
+        editText.setSingleLine()
+        editText.hint = getString(R.string.search_hint)
+        AlertDialog.Builder(this)
+            .setTitle(getString(R.string.search))
+            .setView(editText)
+            .setPositiveButton(getString(R.string.sure)) { _, _ ->
+                val keyword = editText.text.toString()
+                if (keyword.isNotBlank()) {
+                    searchBook(keyword)
+                }
+            }
+            .setNegativeButton(getString(R.string.cancel), null)
+            .show()
+    }
+
+    private fun searchBook(keyword: String) {
+        mSearchDisposable?.dispose()
+        mSearchDisposable = mPageLoader.searchBook(keyword)
+            .subscribe({ hits -> showSearchResult(hits) }, { it.printStackTrace() })
+    }
+
+    private fun showSearchResult(hits: List<BookSearchHit>) {
+        if (hits.isEmpty()) {
+            showToast(getString(R.string.search_empty))
+            return
+        }
+        val items = Array(hits.size) { "${hits[it].chapterTitle}\n${hits[it].snippet}" }
+        AlertDialog.Builder(this)
+            .setTitle(getString(R.string.search_result, hits.size))
+            .setItems(items) { _, which ->
+                mPageLoader.skipToSearchHit(hits[which])
+            }
+            .show()
+    }
+
     private fun downLoadCache(beans: List<BookChapterBean>, size: Int) {
         val task = DownloadTaskBean()
         task.taskName = mCollBook!!.title
@@ -591,6 +640,7 @@ class NovelReadActivity : NovelBaseActivity(), DownloadService.OnDownloadListene
     override fun onDestroy() {
         super.onDestroy()
         EventManager.instance.unregisterSubscriber(this)
+        mSearchDisposable?.dispose()
         mPageLoader.closeBook()
 //        mPageLoader = null
         unbindService(mConn)
@@ -614,7 +664,7 @@ class NovelReadActivity : NovelBaseActivity(), DownloadService.OnDownloadListene
     override fun onDownloadChange(pos: Int, status: Int, msg: String) {
         Log.e(TAG, "onDownloadChange: $pos $status $msg")
 
-        if (msg == getString(R.string.download_success) || msg == getString(R.string.download_error)) {
+        if (status == DownloadTaskBean.STATUS_FINISH || status == DownloadTaskBean.STATUS_ERROR) {
             //下载成功或失败后隐藏下载视图
             if (ll_download != null) {
                 ll_download.visibility = GONE
@@ -13,6 +13,7 @@ import com.novel.read.constants.Constant
 import com.novel.read.event.UpdateBookEvent
 import com.novel.read.event.VersionEvent
 import com.novel.read.http.AccountManager
+import com.novel.read.model.db.dbManage.BookCacheManager
 import com.novel.read.model.protocol.VersionResp
 import com.novel.read.utlis.CleanCacheUtils
 import com.novel.read.utlis.LocalManageUtil
@@ -46,11 +47,13 @@ class NovelSettingActivity : NovelBaseActivity(), View.OnClickListener {
         } catch (e: Exception) {
             e.printStackTrace()
         }
+        showCacheLimit()
         toolbar.setNavigationOnClickListener { finish() }
         AccountManager.getInstance().checkVersion(VersionUtil.getPackageCode(this))
 
         ll_choose_language.setOnClickListener(this)
         ll_clear_cache.setOnClickListener(this)
+        ll_cache_limit.setOnClickListener(this)
         tv_check.setOnClickListener(this)
     }
 
@@ -85,6 +88,7 @@ class NovelSettingActivity : NovelBaseActivity(), View.OnClickListener {
                             runOnUiThread {
                                 EventManager.instance.postEvent(UpdateBookEvent())
                                 tv_cache_num.text = finalCacheSize
+                                showCacheLimit()
                             }
                         }.start()
                         dialog.dismiss()
@@ -92,6 +96,7 @@ class NovelSettingActivity : NovelBaseActivity(), View.OnClickListener {
                     .setNegativeButton(getString(R.string.cancel)) { dialog, which -> dialog.dismiss() }
                     .create().show()
             }
+            R.id.ll_cache_limit -> showCacheLimitDialog()
             R.id.tv_check ->
                 //版本大小不为空 去更新。
                 updateApk(resp!!)
@@ -120,6 +125,36 @@ class NovelSettingActivity : NovelBaseActivity(), View.OnClickListener {
             .create().show()
     }
 
+    /**
+     * 显示章节缓存的占用和上限
+     */
+    private fun showCacheLimit() {
+        Thread {
+            //第一次获取时需要扫描一次缓存目录
+            val usage = CleanCacheUtils.getFormatSize(BookCacheManager.getInstance().usage.toDouble())
+            val limit = BookCacheManager.getInstance().limit
+            runOnUiThread {
+                tv_cache_limit.text =
+                    "$usage / " + if (limit == 0) getString(R.string.no_limit) else "${limit}MB"
+            }
+        }.start()
+    }
+
+    private fun showCacheLimitDialog() {
+        val limit = BookCacheManager.getInstance().limit
+        val items = Array(CACHE_LIMITS.size) { i ->
+            if (CACHE_LIMITS[i] == 0) getString(R.string.no_limit) else "${CACHE_LIMITS[i]}MB"
+        }
+        AlertDialog.Builder(this)
+            .setTitle(getString(R.string.chapter_cache_limit))
+            .setSingleChoiceItems(items, Math.max(0, CACHE_LIMITS.indexOf(limit))) { dialog, which ->
+                BookCacheManager.getInstance().setLimit(CACHE_LIMITS[which])
+                showCacheLimit()
+                dialog.dismiss()
+            }
+            .create().show()
+    }
+
     private fun selectLanguage(select: Int) {
         LocalManageUtil.saveSelectLanguage(this, select)
         NovelMainActivity.reStart(this)
@@ -156,4 +191,9 @@ class NovelSettingActivity : NovelBaseActivity(), View.OnClickListener {
         super.onDestroy()
         EventManager.instance.unregisterSubscriber(this)
     }
+
+    companion object {
+        //可以选择的章节缓存上限 (MB)，0 表示不限制
+        private val CACHE_LIMITS = intArrayOf(0, 200, 500, 1024, 2048)
+    }
 }
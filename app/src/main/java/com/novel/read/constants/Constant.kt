@@ -37,6 +37,9 @@ object Constant {
     const val Type = "Type"
     const val DateType = "DateType"
     const val BookGuide = "BookGuide"  //图书引导是否提示过
+    const val ChapterCompress = "ChapterCompress"  //缓存的章节是否压缩
+    const val ChapterCacheLimit = "ChapterCacheLimit"  //章节缓存的上限 (MB)，0 表示不限制
+    const val DownloadConcurrency = "DownloadConcurrency"  //缓存书籍时同时请求的章节数
 
     const val FORMAT_BOOK_DATE = "yyyy-MM-dd HH:mm:ss"
     const val FORMAT_TIME = "HH:mm"
@@ -56,6 +59,11 @@ object Constant {
     var BOOK_CACHE_PATH: String = (FileUtils.getCachePath() + File.separator
             + "book_cache" + File.separator)
 
+    //分页索引的缓存路径
+    @kotlin.jvm.JvmField
+    var PAGE_INDEX_PATH: String = (FileUtils.getCachePath() + File.separator
+            + "page_index" + File.separator)
+
     @kotlin.jvm.JvmField
     val tagColors = intArrayOf(
         Color.parseColor("#90C5F0"),
@@ -28,14 +28,15 @@ import com.novel.read.model.protocol.RankByUpdateResp
 import com.novel.read.model.protocol.RecommendListResp
 import com.novel.read.utlis.PhoneUtils
 import com.novel.read.widget.page.TxtChapter
+import com.novel.read.widget.page.Void
 
 import org.reactivestreams.Subscriber
 import org.reactivestreams.Subscription
 
 import java.util.ArrayDeque
-import java.util.ArrayList
 import java.util.HashMap
 
+import io.reactivex.Flowable
 import io.reactivex.Single
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.schedulers.Schedulers
@@ -188,27 +189,31 @@ class AccountManager private constructor() {
     }
 
     fun getBookArticleDetail(bookId: String?, bookChapters: List<TxtChapter>) {
-        val size = bookChapters.size
         //取消上次的任务，防止多次加载
         if (mChapterSub != null) {
             mChapterSub!!.cancel()
         }
-        val chapterInfos = ArrayList<Single<ChapterInfoBean>>(bookChapters.size)
         val titles = ArrayDeque<String>(bookChapters.size)
-
-        // 将要下载章节，转换成网络请求。
-        for (i in 0 until size) {
-            val bookChapter = bookChapters[i]
-            // 网络中获取数据
-            val chapterInfoSingle = getChapterInfo(bookChapter.chapterId)
-            chapterInfos.add(chapterInfoSingle)
+        for (bookChapter in bookChapters) {
             titles.add(bookChapter.title)
         }
 
-        Single.concat(chapterInfos)
-            .subscribeOn(Schedulers.io())
+        // 同时请求多个章节，请求完成后立即交给写入线程存储，不等待之前的章节提交，
+        // 写入线程可以将多个章节合并提交；存储完成后才算加载完成，按照章节的顺序回调
+        Flowable.fromIterable(bookChapters)
+            .concatMapEagerDelayError({ bookChapter ->
+                getChapterInfo(bookChapter.chapterId)
+                    .subscribeOn(Schedulers.io())
+                    .flatMap { bean ->
+                        // 写入队列已满时会等待，不占用网络请求的线程
+                        BookRepository.getInstance()
+                            .saveChapterInfoInRx(bookId, bookChapter.title, bean.body)
+                            .subscribeOn(Schedulers.io())
+                    }
+                    .toFlowable()
+            }, CHAPTER_CONCURRENCY, 1, false)
             .observeOn(AndroidSchedulers.mainThread())
-            .subscribe(object : Subscriber<ChapterInfoBean> {
+            .subscribe(object : Subscriber<Void> {
                 internal var title = titles.poll()
 
                 override fun onSubscribe(s: Subscription) {
@@ -216,13 +221,9 @@ class AccountManager private constructor() {
                     mChapterSub = s
                 }
 
-                override fun onNext(chapterInfoBean: ChapterInfoBean) {
-                    //存储数据
-                    BookRepository.getInstance().saveChapterInfo(
-                        bookId, title, chapterInfoBean.body
-                    )
+                override fun onNext(value: Void) {
+                    //章节已经存储
                     EventManager.instance.postEvent(FinishChapterEvent())
-                    //将获取到的数据进行存储
                     title = titles.poll()
                 }
 
@@ -288,6 +289,8 @@ class AccountManager private constructor() {
     }
 
     companion object {
+        //同时请求的章节数
+        private const val CHAPTER_CONCURRENCY = 4
 
         private var instance: AccountManager? = null
 
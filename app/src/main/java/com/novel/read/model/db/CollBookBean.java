@@ -50,6 +50,9 @@ public class CollBookBean extends LitePalSupport implements Serializable {
     private boolean isLocal = false;
     private boolean isSelect = false;
     private int include_image;
+    //本地书籍分章时的文件长度以及校验值
+    private long indexedLength;
+    private long indexedHash;
 
     public boolean isSelect() {
         return isSelect;
@@ -182,6 +185,22 @@ public class CollBookBean extends LitePalSupport implements Serializable {
         this.include_image = include_image;
     }
 
+    public long getIndexedLength() {
+        return indexedLength;
+    }
+
+    public void setIndexedLength(long indexedLength) {
+        this.indexedLength = indexedLength;
+    }
+
+    public long getIndexedHash() {
+        return indexedHash;
+    }
+
+    public void setIndexedHash(long indexedHash) {
+        this.indexedHash = indexedHash;
+    }
+
     public List<BookChapterBean> getBookChapters() {
         if (bookChapterList == null) {
             return new ArrayList<>();
@@ -16,6 +16,13 @@ public class DownloadTaskBean extends LitePalSupport {
     public static final int STATUS_ERROR = 4;
     public static final int STATUS_FINISH = 5;
 
+    //下载错误的类型 (STATUS_ERROR)
+    public static final int ERROR_NONE = 0;
+    public static final int ERROR_NETWORK = 1; //网络错误，重试之后仍然失败
+    public static final int ERROR_SERVER = 2; //服务器返回错误或者无法解析
+    public static final int ERROR_EMPTY = 3; //章节内容为空
+    public static final int ERROR_STORAGE = 4; //章节写入失败
+
     //任务名称 -> 名称唯一不重复
     private String taskName;
     //所属的bookId(外健)
@@ -29,6 +36,8 @@ public class DownloadTaskBean extends LitePalSupport {
     //状态:正在下载、下载完成、暂停、等待、下载错误。
 
     private volatile int status = STATUS_WAIT;
+    //下载错误的类型
+    private int errorType = ERROR_NONE;
     //总大小 -> (完成之后才会赋值)
     private long size = 0;
     private CollBookBean collBookBean;
@@ -123,6 +132,14 @@ public class DownloadTaskBean extends LitePalSupport {
         this.status = status;
     }
 
+    public int getErrorType() {
+        return errorType;
+    }
+
+    public void setErrorType(int errorType) {
+        this.errorType = errorType;
+    }
+
     public long getSize() {
         return size;
     }
@@ -0,0 +1,279 @@
+package com.novel.read.model.db.dbManage;
+
+import android.util.Log;
+
+import com.novel.read.constants.Constant;
+import com.novel.read.model.db.BookChapterBean;
+import com.novel.read.model.db.BookRecordBean;
+import com.novel.read.model.db.CollBookBean;
+import com.novel.read.model.db.DownloadTaskBean;
+import com.novel.read.utlis.SpUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by zlj
+ * 网络书籍章节缓存占用的磁盘空间。
+ * <p>
+ * 每本书占用的空间由 {@link ChapterStore} 在每次提交后报告，只在第一次使用时扫描一次缓存目录，
+ * 之后可以随时获取当前的占用，不需要遍历目录。
+ * <p>
+ * 超过用户设置的上限时在后台淘汰，直到低于上限的 90%：按照最后阅读的时间从早到晚，先删除每本书中
+ * 远落后于阅读记录的章节，再删除阅读记录之前的所有章节；仍然超过时只删除已经不在书架上的书籍。
+ * 阅读记录所在的章节和之后的章节不会被淘汰。
+ * <p>
+ * 正在阅读 ({@link #acquire(String)})、正在下载或者还有章节等待写入的书籍不会被淘汰。
+ */
+public final class BookCacheManager {
+    private static final String TAG = "BookCacheManager";
+    //阅读记录之前保留的章节数
+    private static final int KEEP_BEHIND_COUNT = 5;
+    //淘汰到上限的比例，避免每次写入都要淘汰
+    private static final float TRIM_RATIO = 0.9f;
+
+    private static volatile BookCacheManager sInstance;
+
+    //书籍 id -> 占用的字节数，第一次使用时扫描缓存目录
+    private Map<String, Long> mBookSizes;
+    private long mTotalSize;
+    private boolean isTrimming = false;
+    //正在阅读或者下载的书籍 -> 使用的次数
+    private final Map<String, Integer> mActiveBooks = new HashMap<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private BookCacheManager() {
+    }
+
+    public static BookCacheManager getInstance() {
+        if (sInstance == null) {
+            synchronized (BookCacheManager.class) {
+                if (sInstance == null) {
+                    sInstance = new BookCacheManager();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 所有书籍的章节缓存占用的字节数
+     */
+    public synchronized long getUsage() {
+        loadSizes();
+        return mTotalSize;
+    }
+
+    public synchronized long getBookSize(String bookId) {
+        loadSizes();
+        Long size = mBookSizes.get(bookId);
+        return size == null ? 0 : size;
+    }
+
+    /**
+     * @return 用户设置的上限 (MB)，0 表示不限制
+     */
+    public int getLimit() {
+        return SpUtil.getIntValue(Constant.ChapterCacheLimit, 0);
+    }
+
+    public synchronized void setLimit(int limit) {
+        SpUtil.setIntValue(Constant.ChapterCacheLimit, limit);
+        checkLimit();
+    }
+
+    /**
+     * 开始阅读或者下载书籍时调用，结束时调用 {@link #release(String)}，使用中的书籍不会被淘汰
+     */
+    public synchronized void acquire(String bookId) {
+        Integer count = mActiveBooks.get(bookId);
+        mActiveBooks.put(bookId, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void release(String bookId) {
+        Integer count = mActiveBooks.get(bookId);
+        if (count == null || count <= 1) {
+            mActiveBooks.remove(bookId);
+        } else {
+            mActiveBooks.put(bookId, count - 1);
+        }
+    }
+
+    /**
+     * 清空所有缓存之前调用，关闭打开的章节存储并重新计算
+     */
+    public void clear() {
+        // 关闭时会报告大小，不能持有锁
+        ChapterStore.closeAll();
+        synchronized (this) {
+            mBookSizes = null;
+            mTotalSize = 0;
+        }
+    }
+
+    /**
+     * 由 {@link ChapterStore} 报告书籍当前占用的字节数
+     */
+    synchronized void setBookSize(String bookId, long size) {
+        loadSizes();
+        Long old = size > 0 ? mBookSizes.put(bookId, size) : mBookSizes.remove(bookId);
+        mTotalSize += size - (old == null ? 0 : old);
+        checkLimit();
+    }
+
+    private void loadSizes() {
+        if (mBookSizes != null) {
+            return;
+        }
+        mBookSizes = new HashMap<>();
+        mTotalSize = 0;
+        File[] dirs = new File(Constant.BOOK_CACHE_PATH).listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            long size = 0;
+            for (File file : files) {
+                size += file.length();
+            }
+            if (size > 0) {
+                mBookSizes.put(dir.getName(), size);
+                mTotalSize += size;
+            }
+        }
+    }
+
+    private void checkLimit() {
+        long limit = getLimit() * 1024L * 1024L;
+        if (limit > 0 && mTotalSize > limit && !isTrimming) {
+            isTrimming = true;
+            mExecutor.execute(() -> trim((long) (limit * TRIM_RATIO)));
+        }
+    }
+
+    /******************************淘汰**********************************/
+
+    private void trim(long target) {
+        try {
+            List<String> bookIds = getBooksByLastRead();
+            Set<String> downloading = getDownloadingBooks();
+            // 先删除远落后于阅读记录的章节，再删除阅读记录之前的所有章节
+            for (int keep : new int[]{KEEP_BEHIND_COUNT, 0}) {
+                for (String bookId : bookIds) {
+                    if (getUsage() <= target) {
+                        return;
+                    }
+                    if (!isActive(bookId, downloading)) {
+                        trimBehind(bookId, keep);
+                    }
+                }
+            }
+            // 删除整本书的缓存，只删除已经不在书架上的书籍
+            for (String bookId : bookIds) {
+                if (getUsage() <= target) {
+                    return;
+                }
+                if (!isActive(bookId, downloading) && BookRepository.getInstance().getCollBook(bookId) == null) {
+                    ChapterWriter.getInstance().execute(() -> ChapterStore.delete(bookId)).blockingGet();
+                }
+            }
+            Log.w(TAG, "trim: usage " + getUsage() + " still above " + target);
+        } catch (Exception e) {
+            Log.e(TAG, "trim: " + e);
+        } finally {
+            synchronized (this) {
+                isTrimming = false;
+            }
+        }
+    }
+
+    private boolean isActive(String bookId, Set<String> downloading) {
+        synchronized (this) {
+            if (mActiveBooks.containsKey(bookId)) {
+                return true;
+            }
+        }
+        return downloading.contains(bookId) || ChapterWriter.getInstance().isWriting(bookId);
+    }
+
+    /**
+     * 正在下载或者等待下载的书籍
+     */
+    private Set<String> getDownloadingBooks() {
+        Set<String> bookIds = new HashSet<>();
+        for (DownloadTaskBean task : BookRepository.getInstance().getDownloadTaskList()) {
+            if (task.getStatus() == DownloadTaskBean.STATUS_LOADING
+                    || task.getStatus() == DownloadTaskBean.STATUS_WAIT) {
+                bookIds.add(task.getBookId());
+            }
+        }
+        return bookIds;
+    }
+
+    /**
+     * 有缓存的书籍，按照最后阅读的时间从早到晚排列，不在书架上的书籍排在最前面
+     */
+    private List<String> getBooksByLastRead() {
+        List<String> bookIds;
+        synchronized (this) {
+            loadSizes();
+            bookIds = new ArrayList<>(mBookSizes.keySet());
+        }
+        Map<String, Long> lastReads = new HashMap<>();
+        for (String bookId : bookIds) {
+            long lastRead = 0;
+            CollBookBean bean = BookRepository.getInstance().getCollBook(bookId);
+            if (bean != null) {
+                try {
+                    lastRead = Long.parseLong(bean.getLastRead());
+                } catch (NumberFormatException e) {
+                    lastRead = 0;
+                }
+            }
+            lastReads.put(bookId, lastRead);
+        }
+        Collections.sort(bookIds, (o1, o2) -> Long.compare(lastReads.get(o1), lastReads.get(o2)));
+        return bookIds;
+    }
+
+    /**
+     * 删除阅读记录之前的章节，阅读记录所在的章节和之后的章节不删除
+     *
+     * @param keep : 阅读记录之前保留的章节数
+     */
+    private void trimBehind(String bookId, int keep) {
+        BookRecordBean record = BookRepository.getInstance().getBookRecord(bookId);
+        if (record == null) {
+            return;
+        }
+        List<BookChapterBean> chapters = BookRepository.getInstance().getBookChaptersInRx(bookId);
+        int end = Math.min(record.getChapter() - keep, chapters.size());
+        if (end <= 0) {
+            return;
+        }
+        List<String> titles = new ArrayList<>(end);
+        for (int i = 0; i < end; ++i) {
+            titles.add(chapters.get(i).getTitle());
+        }
+        // 在写入线程中删除，不和下载的章节同时写入
+        ChapterWriter.getInstance().execute(() -> {
+            ChapterStore store = ChapterStore.get(bookId);
+            if (store.remove(titles) > 0) {
+                // 压缩后才释放空间
+                store.compact();
+            }
+        }).blockingGet();
+    }
+}
@@ -1,12 +1,6 @@
 package com.novel.read.model.db.dbManage;
 
-import com.novel.read.constants.Constant;
-import com.novel.read.utlis.FileUtils;
-
-import java.io.File;
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
 
 public class BookManager {
     private static final String TAG = "BookManager";
@@ -14,7 +8,8 @@ public class BookManager {
     private String bookId;
     private long chapterLen;
     private long position;
-    private Map<String, Cache> cacheMap = new HashMap<>();
+    //当前章节的内容，原文由 ChapterCache 缓存
+    private char[] content;
     private static volatile BookManager sInstance;
 
     public static BookManager getInstance(){
@@ -33,10 +28,8 @@ public class BookManager {
     }
 
     public boolean openChapter(String bookId, String chapterName, long position){
-        //如果文件不存在，则打开失败
-        File file = new File(Constant.BOOK_CACHE_PATH + bookId
-                + File.separator + chapterName + FileUtils.SUFFIX_NB);
-        if (!file.exists()){
+        //如果章节不存在，则打开失败
+        if (!isChapterCached(bookId, chapterName)){
             return false;
         }
         this.bookId = bookId;
@@ -47,22 +40,8 @@ public class BookManager {
     }
 
     private void createCache(){
-        //创建Cache
-        if (!cacheMap.containsKey(chapterName)){
-            Cache cache = new Cache();
-            File file = getBookFile(bookId, chapterName);
-            //TODO:数据加载默认utf-8(以后会增加判断),FileUtils采用Reader获取数据的，可能用byte会更好一点
-            char[] array = FileUtils.getFileContent(file).toCharArray();
-            WeakReference<char[]> charReference = new WeakReference<>(array);
-            cache.size = array.length;
-            cache.data = charReference;
-            cacheMap.put(chapterName, cache);
-
-            chapterLen = cache.size;
-        }
-        else {
-            chapterLen = cacheMap.get(chapterName).getSize();
-        }
+        content = readContent(bookId, chapterName);
+        chapterLen = content.length;
     }
 
     public void setPosition(long position){
@@ -142,17 +121,10 @@ public class BookManager {
 
     //获取章节的内容
     public char[] getContent() {
-        if (cacheMap.size() == 0){
+        if (content == null){
             return new char[1];
         }
-        char[] block = cacheMap.get(chapterName).getData().get();
-        if (block == null) {
-            File file = getBookFile(bookId, chapterName);
-            block = FileUtils.getFileContent(file).toCharArray();
-            Cache cache = cacheMap.get(chapterName);
-            cache.data = new WeakReference<char[]>(block);
-        }
-        return block;
+        return content;
     }
 
     public long getChapterLen(){
@@ -160,25 +132,32 @@ public class BookManager {
     }
 
     public void clear(){
-        cacheMap.clear();
+        content = null;
         position = 0;
         chapterLen = 0;
     }
 
-    /**
-     * 创建或获取存储文件
-     * @param folderName 文件夹
-     * @param fileName 文件
-     * @return 文件
-     */
-    public static File getBookFile(String folderName, String fileName){
-        return FileUtils.getFile(Constant.BOOK_CACHE_PATH + folderName
-                + File.separator + fileName + FileUtils.SUFFIX_NB);
+    //读取章节的内容，每个段落前加上缩进
+    private static char[] readContent(String bookId, String chapterName){
+        StringBuilder sb = new StringBuilder();
+        try {
+            String content = ChapterStore.get(bookId).read(chapterName);
+            if (content != null){
+                for (String str : content.split("\r?\n")){
+                    //过滤空语句
+                    if (!str.equals("")){
+                        sb.append("    ").append(str).append("\n");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return sb.toString().toCharArray();
     }
 
     public static long getBookSize(String folderName){
-        return FileUtils.getDirSize(FileUtils
-                .getFolder(Constant.BOOK_CACHE_PATH + folderName));
+        return BookCacheManager.getInstance().getBookSize(folderName);
     }
 
     /**
@@ -189,29 +168,6 @@ public class BookManager {
      * @return 是否被缓存过
      */
     public static boolean isChapterCached(String folderName, String fileName){
-        File file = new File(Constant.BOOK_CACHE_PATH + folderName
-                + File.separator + fileName + FileUtils.SUFFIX_NB);
-        return file.exists();
-    }
-
-    public class Cache {
-        private long size;
-        private WeakReference<char[]> data;
-
-        public WeakReference<char[]> getData() {
-            return data;
-        }
-
-        public void setData(WeakReference<char[]> data) {
-            this.data = data;
-        }
-
-        public long getSize() {
-            return size;
-        }
-
-        public void setSize(long size) {
-            this.size = size;
-        }
+        return ChapterStore.get(folderName).contains(fileName);
     }
 }
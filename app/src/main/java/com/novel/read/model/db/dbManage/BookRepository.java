@@ -11,22 +11,13 @@ import com.novel.read.model.db.ChapterInfoBean;
 import com.novel.read.model.db.CollBookBean;
 import com.novel.read.model.db.DownloadTaskBean;
 import com.novel.read.utlis.FileUtils;
-import com.novel.read.utlis.IOUtils;
 import com.novel.read.utlis.SpUtil;
 import com.novel.read.widget.page.Void;
 
 import org.litepal.LitePal;
 import org.litepal.crud.callback.SaveCallback;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -128,25 +119,52 @@ public class BookRepository {
     }
 
     /**
-     * 存储章节
+     * 本地书籍追加了章节：更新原来最后一章的结束位置，只存储新增的章节
+     *
+     * @param appendFrom:原来的最后一章在章节列表中的位置
+     */
+    public void appendBookChaptersWithAsync(CollBookBean collBookBean, int appendFrom) {
+        ContentValues values = new ContentValues();
+        values.put("updated", collBookBean.getUpdated());
+        values.put("indexedLength", collBookBean.getIndexedLength());
+        values.put("indexedHash", collBookBean.getIndexedHash());
+        LitePal.updateAll(CollBookBean.class, values, "bookId=?", collBookBean.getId());
+
+        List<BookChapterBean> chapters = collBookBean.getBookChapters();
+        BookChapterBean lastChapter = chapters.get(appendFrom);
+        ContentValues chapterValues = new ContentValues();
+        chapterValues.put("end", lastChapter.getEnd());
+        LitePal.updateAll(BookChapterBean.class, chapterValues, "chapterId=?", lastChapter.getId());
+
+        List<BookChapterBean> newChapters = new ArrayList<>(chapters.subList(appendFrom + 1, chapters.size()));
+        for (BookChapterBean chapter : newChapters) {
+            chapter.setCollBookBean(collBookBean);
+        }
+        LitePal.saveAllAsync(newChapters).listen(new SaveCallback() {
+            @Override
+            public void onFinish(boolean success) {
+                Log.e(TAG, "appendBookChaptersWithAsync: " + success);
+            }
+        });
+    }
+
+    /**
+     * 存储章节：放入写入队列，在写入线程中处理和保存，章节提交后完成。
+     * 队列已满时订阅会等待，不要在主线程订阅
      *
      * @param folderName
      * @param fileName
      * @param content
      */
-    public void saveChapterInfo(String folderName, String fileName, String content) {
-        String str = content.replaceAll("\\\\n\\\\n", "\n");
-        File file = BookManager.getBookFile(folderName, fileName);
-        //获取流并存储
-        Writer writer = null;
-        try {
-            writer = new BufferedWriter(new FileWriter(file));
-            writer.write(str);
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-            IOUtils.INSTANCE.close(writer);
-        }
+    public Single<Void> saveChapterInfoInRx(String folderName, String fileName, String content) {
+        return ChapterWriter.getInstance().write(folderName, fileName, content);
+    }
+
+    /**
+     * 将旧版本的章节文件 (每个章节一个文件) 导入章节存储，在写入线程中执行，不阻塞读取
+     */
+    public Single<Void> migrateChaptersInRx(String bookId) {
+        return ChapterWriter.getInstance().execute(() -> ChapterStore.get(bookId).migrate());
     }
 
     public void saveBookRecord(BookRecordBean bean) {
@@ -202,29 +220,17 @@ public class BookRepository {
 
     //TODO:需要进行获取编码并转换的问题
     public ChapterInfoBean getChapterInfoBean(String folderName, String fileName) {
-        File file = new File(Constant.BOOK_CACHE_PATH + folderName
-                + File.separator + fileName + FileUtils.SUFFIX_NB);
-        if (!file.exists()) return null;
-        Reader reader = null;
-        String str = null;
-        StringBuilder sb = new StringBuilder();
+        String content = null;
         try {
-            reader = new FileReader(file);
-            BufferedReader br = new BufferedReader(reader);
-            while ((str = br.readLine()) != null) {
-                sb.append(str);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            content = ChapterStore.get(folderName).read(fileName);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            IOUtils.INSTANCE.close(reader);
         }
+        if (content == null) return null;
 
         ChapterInfoBean bean = new ChapterInfoBean();
         bean.setTitle(fileName);
-        bean.setBody(sb.toString());
+        bean.setBody(content.replace("\n", "").replace("\r", ""));
         return bean;
     }
 
@@ -262,7 +268,8 @@ public class BookRepository {
 
     //删除书籍
     public void deleteBook(String bookId) {
-        FileUtils.deleteFile(Constant.INSTANCE.BOOK_CACHE_PATH + bookId);
+        ChapterStore.delete(bookId);
+        FileUtils.deleteFile(Constant.INSTANCE.PAGE_INDEX_PATH + bookId);
     }
 
     public void deleteBookRecord(String id) {
@@ -298,6 +305,29 @@ public class BookRepository {
         }
     }
 
+    /**
+     * 下载过程中保存任务的进度，只更新进度和状态，不保存章节列表
+     */
+    public void saveDownloadProgress(DownloadTaskBean bean) {
+        ContentValues values = new ContentValues();
+        values.put("currentChapter", bean.getCurrentChapter());
+        values.put("status", bean.getStatus());
+        values.put("errorType", bean.getErrorType());
+        LitePal.updateAll(DownloadTaskBean.class, values, "bookId=?", bean.getBookId());
+    }
+
+    /**
+     * 下载结束时保存任务的状态和大小，不保存章节列表
+     */
+    public void saveDownloadTaskState(DownloadTaskBean bean) {
+        ContentValues values = new ContentValues();
+        values.put("currentChapter", bean.getCurrentChapter());
+        values.put("status", bean.getStatus());
+        values.put("errorType", bean.getErrorType());
+        values.put("size", bean.getSize());
+        LitePal.updateAll(DownloadTaskBean.class, values, "bookId=?", bean.getBookId());
+    }
+
     /**
      * 获取本地书签
      *
@@ -0,0 +1,103 @@
+package com.novel.read.model.db.dbManage;
+
+import android.util.LruCache;
+
+/**
+ * Created by zlj
+ * 网络书籍章节原文的内存缓存，以书籍 id 和章节名作为 key，按照字符数进行 LRU 淘汰。
+ * <p>
+ * {@link ChapterStore#read(String)} 先查询缓存，读取磁盘后放入缓存；章节重新写入或者删除时移除缓存。
+ * 阅读页的排版、{@link BookRepository#getChapterInfoBean} 和 {@link BookManager} 都通过 ChapterStore 读取，
+ * 共用同一个缓存，最近读过的章节再次打开时不需要读取磁盘。
+ */
+public final class ChapterCache {
+    //默认的缓存大小 (字符数)
+    private static final int DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    private static volatile ChapterCache sInstance;
+
+    private final LruCache<String, String> mCache;
+
+    private ChapterCache() {
+        int maxSize = (int) Math.min(DEFAULT_MAX_SIZE, Runtime.getRuntime().maxMemory() / 64);
+        mCache = new LruCache<String, String>(maxSize) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length();
+            }
+        };
+    }
+
+    public static ChapterCache getInstance() {
+        if (sInstance == null) {
+            synchronized (ChapterCache.class) {
+                if (sInstance == null) {
+                    sInstance = new ChapterCache();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    String get(String bookId, String title) {
+        return mCache.get(getKey(bookId, title));
+    }
+
+    void put(String bookId, String title, String content) {
+        mCache.put(getKey(bookId, title), content);
+    }
+
+    void remove(String bookId, String title) {
+        mCache.remove(getKey(bookId, title));
+    }
+
+    /**
+     * 移除书籍的所有章节
+     */
+    void removeBook(String bookId) {
+        String prefix = bookId + "/";
+        for (String key : mCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    /******************************统计**********************************/
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * @return 缓存的字符数
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return mCache.toString();
+    }
+
+    private static String getKey(String bookId, String title) {
+        return bookId + "/" + title;
+    }
+}
@@ -0,0 +1,1299 @@
+package com.novel.read.model.db.dbManage;
+
+import com.novel.read.constants.Constant;
+import com.novel.read.utlis.FileUtils;
+import com.novel.read.utlis.IOUtils;
+import com.novel.read.utlis.SpUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Created by zlj
+ * 网络书籍的章节存储：每本书的所有章节追加写入同一个数据文件，索引文件记录每个章节 (以章节名作为 key)
+ * 在数据文件中的位置、长度和 CRC。
+ * <p>
+ * 索引文件也是追加写入的日志，打开时按顺序读取，同一个章节以最后一条记录为准。
+ * 重复写入的章节会在数据文件中留下无用的数据，超过一定比例后进行压缩：将有效的数据复制到新一代的数据文件中，
+ * 再用新的索引文件替换旧的索引文件 (替换索引文件之前的任何时刻中断，都不会影响旧的数据)。
+ * <p>
+ * 旧版本每个章节一个 .zlj 文件，打开时仍然可以读取，{@link #migrate()} 将它们导入数据文件后删除。
+ * <p>
+ * 写入分为两步：{@link #write} 追加数据，{@link #commit()} 将数据同步到磁盘后再追加索引记录，
+ * {@link ChapterWriter} 将一批章节写入后只提交一次。提交成功之后章节才可以读取、才算已缓存；
+ * 提交失败时这一批章节都不会生效。
+ * <p>
+ * 读取不使用存储的锁：打开、提交和压缩之后发布不可修改的索引快照，读取时按照快照中的位置读取数据文件，
+ * 不需要等待提交的 fsync。写入、压缩和导入旧版本的章节都在 {@link ChapterWriter} 的线程中执行，
+ * 压缩复制数据时也不持有锁。
+ * <p>
+ * 是否已缓存只查询内存中的索引，不访问文件系统；绑定章节列表后还可以按照章节的序号查询 (BitSet)。
+ * <p>
+ * 开启压缩时 (默认开启)，每个章节单独用 Deflater 压缩，保持按章节随机读取。前几个缓存的章节采样生成
+ * 每本书的预设字典 (chapters.dict)，之后的章节使用字典压缩，人名、地名等重复的内容在短章节中也能压缩。
+ * 每个章节在索引中记录自己的格式，压缩效果不好的章节按原文保存，关闭压缩后以前压缩的章节仍然可以读取。
+ * <p>
+ * 使用字典压缩的章节还记录字典的 id (字典内容的 CRC)。字典文件丢失或者不一致时，这些章节在打开时
+ * 写入删除的记录，明确地当作没有缓存；还有使用字典的章节时不会重新生成字典。
+ */
+public final class ChapterStore {
+    private static final int MAGIC = 0x5A4C4353;
+    //索引的版本：2 增加了压缩格式，3 增加了字典的 id
+    private static final int VERSION = 3;
+    //数据文件头部的标记
+    private static final int DATA_MAGIC = 0x5A4C4344;
+    private static final int DATA_VERSION = 2;
+    private static final int DATA_HEADER_SIZE = 8;
+    private static final int DICT_MAGIC = 0x5A4C4454;
+    private static final int DICT_VERSION = 2;
+    private static final String INDEX_FILE = "chapters.idx";
+    private static final String DICT_FILE = "chapters.dict";
+    private static final String DATA_PREFIX = "chapters.";
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String SUFFIX_TMP = ".tmp";
+    private static final String CHARSET = "UTF-8";
+    //无用的数据超过这个大小，并且超过有效数据时进行压缩
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+    //章节的保存格式
+    private static final byte FORMAT_RAW = 0;
+    private static final byte FORMAT_DEFLATE = 1;
+    private static final byte FORMAT_DEFLATE_DICT = 2;
+    //删除章节的记录
+    private static final byte FORMAT_DELETED = -1;
+    //预设字典的大小，不超过 Deflater 的窗口 (32KB)
+    private static final int DICT_SIZE = 32 * 1024;
+    //从前几个章节中采样生成字典
+    private static final int DICT_SAMPLE_COUNT = 8;
+    //导入旧版本的章节文件时每批提交的数量
+    private static final int MIGRATE_BATCH_SIZE = 64;
+
+    private static final Map<String, ChapterStore> sStores = new HashMap<>();
+    //被关闭的存储绑定的章节列表，重新打开时绑定到新的实例，由 sStores 保护
+    private static final Map<String, List<String>> sBoundTitles = new HashMap<>();
+
+    private final String mBookId;
+    private final File mDir;
+    //数据文件的代数，每次压缩后增加
+    private int mGeneration;
+    private RandomAccessFile mData;
+    //读取数据文件使用单独的文件，读取线程被中断时只会关闭这个文件
+    private RandomAccessFile mReader;
+    private RandomAccessFile mIndex;
+    //章节名 -> 章节在数据文件中的位置，持有锁时访问，读取使用 mSnapshot
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private long mLiveSize;
+    //还没有提交的索引记录
+    private final ByteArrayOutputStream mPendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mPendingIndex = new DataOutputStream(mPendingBytes);
+    //还没有提交的章节，提交之后才放入 mEntries (删除的章节格式为 FORMAT_DELETED)
+    private final Map<String, Entry> mPendingEntries = new LinkedHashMap<>();
+    //删除书籍或者清空缓存之后关闭，不能再写入
+    private volatile boolean isClosed = false;
+    //旧版本的索引不能追加记录，写入之前先通过压缩升级
+    private boolean isOldVersion = false;
+    private boolean isCompactScheduled = false;
+    //还没有导入的旧版本章节
+    private final Set<String> mLegacyTitles = new HashSet<>();
+    //旧版本的章节文件的大小
+    private long mLegacySize;
+    //读取使用的索引快照，打开之前和关闭之后为 null
+    private volatile Snapshot mSnapshot;
+
+    //绑定的章节列表，由 mCachedLock 保护
+    private List<String> mTitles;
+    //绑定的章节列表：章节名 -> 章节的序号，由 mCachedLock 保护
+    private final Map<String, int[]> mPositions = new HashMap<>();
+    //已缓存的章节 (绑定的章节列表中的序号)，由 mCachedLock 保护
+    private final BitSet mCached = new BitSet();
+    private final Object mCachedLock = new Object();
+
+    //预设字典，还没有生成时为 null
+    private Dictionary mDictionary;
+    //字典文件的大小
+    private long mDictSize;
+    //生成字典的采样
+    private ByteArrayOutputStream mDictSamples;
+    private int mDictSampleCount;
+    private Deflater mDeflater;
+
+    private ChapterStore(String bookId) {
+        mBookId = bookId;
+        mDir = new File(Constant.BOOK_CACHE_PATH + bookId);
+    }
+
+    /**
+     * 获取书籍的章节存储，每本书只有一个实例
+     */
+    public static ChapterStore get(String bookId) {
+        ChapterStore store;
+        List<String> titles = null;
+        synchronized (sStores) {
+            store = sStores.get(bookId);
+            if (store == null) {
+                store = new ChapterStore(bookId);
+                sStores.put(bookId, store);
+                titles = sBoundTitles.remove(bookId);
+            }
+        }
+        //替换被关闭的存储时，继续使用原来绑定的章节列表
+        if (titles != null) {
+            store.setChapters(titles);
+        }
+        return store;
+    }
+
+    /**
+     * 删除书籍的所有章节
+     */
+    public static void delete(String bookId) {
+        ChapterStore store;
+        synchronized (sStores) {
+            store = sStores.remove(bookId);
+            keepBoundTitles(store);
+        }
+        if (store != null) {
+            store.close();
+        }
+        ChapterCache.getInstance().removeBook(bookId);
+        FileUtils.deleteFile(Constant.BOOK_CACHE_PATH + bookId);
+        BookCacheManager.getInstance().setBookSize(bookId, 0);
+    }
+
+    /**
+     * 关闭所有书籍的章节存储，删除整个缓存目录之前调用
+     */
+    public static void closeAll() {
+        List<ChapterStore> stores;
+        synchronized (sStores) {
+            stores = new ArrayList<>(sStores.values());
+            sStores.clear();
+            for (ChapterStore store : stores) {
+                keepBoundTitles(store);
+            }
+        }
+        for (ChapterStore store : stores) {
+            store.close();
+        }
+        ChapterCache.getInstance().evictAll();
+    }
+
+    private static void keepBoundTitles(ChapterStore store) {
+        if (store == null) {
+            return;
+        }
+        synchronized (store.mCachedLock) {
+            if (store.mTitles != null) {
+                sBoundTitles.put(store.mBookId, store.mTitles);
+            }
+        }
+    }
+
+    /**
+     * 章节是否已经缓存
+     */
+    public boolean contains(String title) {
+        try {
+            return getSnapshot().contains(title);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 绑定书籍的章节列表，之后可以按照章节的序号查询章节是否已缓存
+     */
+    public void setChapters(List<String> titles) {
+        try {
+            getSnapshot();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (mCachedLock) {
+            mTitles = new ArrayList<>(titles);
+            mPositions.clear();
+            for (int i = 0; i < titles.size(); ++i) {
+                String title = titles.get(i);
+                int[] positions = mPositions.get(title);
+                if (positions == null) {
+                    positions = new int[]{i};
+                } else {
+                    //章节名重复
+                    positions = Arrays.copyOf(positions, positions.length + 1);
+                    positions[positions.length - 1] = i;
+                }
+                mPositions.put(title, positions);
+            }
+            updateCached();
+        }
+    }
+
+    /**
+     * @param pos:章节在 {@link #setChapters(List)} 绑定的列表中的序号
+     */
+    public boolean isCached(int pos) {
+        synchronized (mCachedLock) {
+            return mCached.get(pos);
+        }
+    }
+
+    /**
+     * 不绑定章节列表，一次性查询列表中已缓存的章节
+     *
+     * @return 已缓存章节的序号
+     */
+    public BitSet getCachedChapters(List<String> titles) {
+        BitSet cached = new BitSet(titles.size());
+        Snapshot snapshot;
+        try {
+            snapshot = getSnapshot();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return cached;
+        }
+        for (int i = 0; i < titles.size(); ++i) {
+            if (snapshot.contains(titles.get(i))) {
+                cached.set(i);
+            }
+        }
+        return cached;
+    }
+
+    //按照当前的快照重新计算，持有 mCachedLock 时调用
+    private void updateCached() {
+        mCached.clear();
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            return;
+        }
+        for (Map.Entry<String, int[]> entry : mPositions.entrySet()) {
+            if (snapshot.contains(entry.getKey())) {
+                for (int pos : entry.getValue()) {
+                    mCached.set(pos);
+                }
+            }
+        }
+    }
+
+    //发布快照之后更新改变的章节
+    private void updateCached(Collection<String> titles) {
+        synchronized (mCachedLock) {
+            Snapshot snapshot = mSnapshot;
+            for (String title : titles) {
+                int[] positions = mPositions.get(title);
+                if (positions != null) {
+                    boolean isCached = snapshot != null && snapshot.contains(title);
+                    for (int pos : positions) {
+                        mCached.set(pos, isCached);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取章节的内容，不等待写入和压缩
+     *
+     * @return 章节没有缓存或者数据损坏时返回 null
+     */
+    public String read(String title) throws IOException {
+        if (isClosed) {
+            // 书籍删除或者缓存清空之后，读取新的存储
+            return get(mBookId).read(title);
+        }
+        // 最近读过的章节不需要读取磁盘
+        String content = ChapterCache.getInstance().get(mBookId, title);
+        if (content != null) {
+            return content;
+        }
+        for (int retry = 0; ; ++retry) {
+            Snapshot snapshot = getSnapshot();
+            try {
+                content = readFile(snapshot, title);
+            } catch (IOException e) {
+                // 数据文件被压缩替换、旧版本的文件已经导入，或者读取文件被中断关闭，按照新的快照重新读取
+                if (retry > 0 || isClosed || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                reopenReader(snapshot);
+                continue;
+            }
+            if (content != null) {
+                ChapterCache.getInstance().put(mBookId, title, content);
+                // 读取期间发布了新的快照，章节可能已经改变
+                if (mSnapshot != snapshot) {
+                    ChapterCache.getInstance().remove(mBookId, title);
+                }
+            }
+            return content;
+        }
+    }
+
+    private String readFile(Snapshot snapshot, String title) throws IOException {
+        Entry entry = snapshot.entries.get(title);
+        if (entry == null) {
+            // 旧版本的章节文件，导入之前直接读取
+            return snapshot.legacyTitles.contains(title) ? readLegacyFile(getLegacyFile(title)) : null;
+        }
+        byte[] bytes = decode(readStored(snapshot.data, entry), entry, snapshot.dictionary);
+        if (bytes == null) {
+            // 数据损坏，当作没有缓存，在写入线程中删除
+            ChapterWriter.getInstance().post(() -> removeCorrupted(title, entry));
+            return null;
+        }
+        return new String(bytes, CHARSET);
+    }
+
+    //读取线程被中断时 FileChannel 会关闭，重新打开读取的文件
+    private synchronized void reopenReader(Snapshot snapshot) throws IOException {
+        if (mSnapshot != snapshot || mData == null || mReader.getChannel().isOpen()) {
+            return;
+        }
+        IOUtils.INSTANCE.close(mReader);
+        mReader = new RandomAccessFile(dataFile(mGeneration), "r");
+        publishSnapshot();
+    }
+
+    /**
+     * @return 章节没有缓存时返回 null
+     */
+    public BufferedReader getReader(String title) throws IOException {
+        String content = read(title);
+        return content == null ? null : new BufferedReader(new StringReader(content));
+    }
+
+    /**
+     * 保存章节并立即提交
+     */
+    public synchronized void put(String title, String content) throws IOException {
+        write(title, content);
+        commit();
+    }
+
+    /**
+     * 写入章节的数据，{@link #commit()} 之后才写入索引、才可以读取
+     */
+    synchronized void write(String title, String content) throws IOException {
+        prepareWrite();
+        byte[] raw = content.getBytes(CHARSET);
+        Entry entry = append(mData, raw, getDictionary(raw), getDeflater());
+        writeEntry(mPendingIndex, title, entry);
+        mPendingEntries.put(title, entry);
+    }
+
+    private void prepareWrite() throws IOException {
+        getEntries();
+        if (isOldVersion) {
+            // 升级还没有执行
+            compact();
+        }
+    }
+
+    /**
+     * 提交写入的章节：数据同步到磁盘之后才写入索引，索引同步到磁盘之后章节才算保存完成，
+     * 中断时最多丢失没有提交的章节。一批章节一起提交只需要两次 fsync。
+     *
+     * @throws IOException 提交失败或者已经关闭，这一批章节都没有保存
+     */
+    synchronized void commit() throws IOException {
+        if (isClosed) {
+            throw new IOException("chapter store closed: " + mBookId);
+        }
+        if (mData == null || mPendingBytes.size() == 0) {
+            return;
+        }
+        long indexLength = mIndex.length();
+        try {
+            mData.getFD().sync();
+            mIndex.seek(indexLength);
+            mIndex.write(mPendingBytes.toByteArray());
+            mIndex.getFD().sync();
+        } catch (IOException e) {
+            // 丢弃这一批章节，已经追加的数据成为无用的数据
+            discardPending();
+            try {
+                mIndex.setLength(indexLength);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        mPendingBytes.reset();
+        publishPending();
+        reportSize();
+
+        if (needsCompact()) {
+            scheduleCompact();
+        }
+    }
+
+    private boolean needsCompact() throws IOException {
+        long deadSize = mData.length() - mLiveSize;
+        return isOldVersion || (deadSize > MIN_COMPACT_SIZE && deadSize > mLiveSize);
+    }
+
+    //提交成功之后，章节生效
+    private void publishPending() {
+        for (Map.Entry<String, Entry> item : mPendingEntries.entrySet()) {
+            String title = item.getKey();
+            Entry entry = item.getValue();
+            Entry old = entry.format == FORMAT_DELETED ? mEntries.remove(title) : mEntries.put(title, entry);
+            if (old != null) {
+                mLiveSize -= old.length;
+            }
+            if (entry.format != FORMAT_DELETED) {
+                mLiveSize += entry.length;
+            }
+        }
+        publishSnapshot();
+        for (String title : mPendingEntries.keySet()) {
+            // 只在读取时放入缓存，批量下载的章节不会挤掉正在阅读的章节
+            ChapterCache.getInstance().remove(mBookId, title);
+        }
+        updateCached(mPendingEntries.keySet());
+        mPendingEntries.clear();
+    }
+
+    private void discardPending() {
+        mPendingBytes.reset();
+        mPendingEntries.clear();
+    }
+
+    //发布新的快照，之后的读取使用新的索引和数据文件
+    private void publishSnapshot() {
+        mSnapshot = new Snapshot(new HashMap<>(mEntries), new HashSet<>(mLegacyTitles), mReader, mDictionary);
+    }
+
+    /**
+     * 删除章节，删除的章节在下一次压缩数据文件时释放空间
+     *
+     * @return 删除的章节数
+     */
+    public synchronized int remove(Collection<String> titles) throws IOException {
+        prepareWrite();
+        int count = 0;
+        for (String title : titles) {
+            if (!mEntries.containsKey(title) || mPendingEntries.containsKey(title)) {
+                continue;
+            }
+            Entry deleted = new Entry(0, 0, 0, FORMAT_DELETED, 0, 0);
+            writeEntry(mPendingIndex, title, deleted);
+            mPendingEntries.put(title, deleted);
+            ++count;
+        }
+        commit();
+        return count;
+    }
+
+    //读取时发现数据损坏，章节没有重新写入时删除
+    private synchronized void removeCorrupted(String title, Entry entry) throws IOException {
+        if (!isClosed && mEntries.get(title) == entry) {
+            remove(Collections.singletonList(title));
+        }
+    }
+
+    /**
+     * 数据文件、索引文件、字典和旧版本的章节文件占用的磁盘空间
+     */
+    public synchronized long getDiskSize() throws IOException {
+        getEntries();
+        return mData.length() + mIndex.length() + mDictSize + mLegacySize;
+    }
+
+    private void reportSize() {
+        try {
+            BookCacheManager.getInstance().setBookSize(mBookId, getDiskSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 将旧版本的章节文件导入数据文件，在写入线程中执行 (见 {@link ChapterWriter#execute})
+     */
+    public void migrate() throws IOException {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        // 不持有锁读取旧的文件；每导入一批提交一次，再删除旧的文件
+        List<File> migrated = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(FileUtils.SUFFIX_NB)) {
+                migrate(name.substring(0, name.length() - FileUtils.SUFFIX_NB.length()), file);
+                migrated.add(file);
+                if (migrated.size() == MIGRATE_BATCH_SIZE) {
+                    removeLegacyFiles(migrated);
+                }
+            }
+        }
+        removeLegacyFiles(migrated);
+    }
+
+    private void migrate(String title, File file) throws IOException {
+        if (!file.exists() || getSnapshot().entries.containsKey(title)) {
+            return;
+        }
+        String content = readLegacyFile(file);
+        synchronized (this) {
+            if (!getEntries().containsKey(title) && !mPendingEntries.containsKey(title)) {
+                write(title, content);
+            }
+        }
+    }
+
+    //提交导入的章节后删除旧的文件
+    private synchronized void removeLegacyFiles(List<File> files) throws IOException {
+        commit();
+        List<String> titles = new ArrayList<>(files.size());
+        for (File file : files) {
+            String name = file.getName();
+            String title = name.substring(0, name.length() - FileUtils.SUFFIX_NB.length());
+            long length = file.length();
+            if (file.delete()) {
+                mLegacySize -= length;
+            }
+            mLegacyTitles.remove(title);
+            titles.add(title);
+        }
+        files.clear();
+        publishSnapshot();
+        updateCached(titles);
+        reportSize();
+    }
+
+    //提交时不压缩，之后在写入线程中压缩
+    private void scheduleCompact() {
+        if (!isCompactScheduled) {
+            isCompactScheduled = true;
+            ChapterWriter.getInstance().post(() -> {
+                // 写入之前可能已经压缩过
+                synchronized (this) {
+                    isCompactScheduled = false;
+                    if (isClosed || !needsCompact()) {
+                        return;
+                    }
+                }
+                compact();
+            });
+        }
+    }
+
+    /**
+     * 压缩数据文件，只保留有效的章节，在写入线程中执行 (见 {@link ChapterWriter#execute})。
+     * <p>
+     * 不持有锁复制快照中的章节，最后持有锁补上复制期间提交的章节，再替换文件。
+     */
+    public void compact() throws IOException {
+        Snapshot snapshot;
+        int generation;
+        synchronized (this) {
+            isCompactScheduled = false;
+            if (isClosed) {
+                return;
+            }
+            getEntries();
+            commit();
+            snapshot = mSnapshot;
+            generation = mGeneration + 1;
+        }
+
+        File dataFile = dataFile(generation);
+        File indexTmp = new File(mDir, INDEX_FILE + SUFFIX_TMP);
+        RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+        Deflater deflater = new Deflater();
+        try {
+            data.setLength(0);
+            data.writeInt(DATA_MAGIC);
+            data.writeInt(DATA_VERSION);
+            // 按照原来的顺序复制，读取是顺序的
+            List<Map.Entry<String, Entry>> entries = new ArrayList<>(snapshot.entries.entrySet());
+            Collections.sort(entries, (o1, o2) -> Long.compare(o1.getValue().offset, o2.getValue().offset));
+            // 复制的章节：章节名 -> 原来的位置、新的位置
+            Map<String, Entry> sources = new HashMap<>();
+            Map<String, Entry> copies = new HashMap<>();
+            for (Map.Entry<String, Entry> item : entries) {
+                Entry copy = copy(snapshot.data, item.getValue(), data, snapshot.dictionary, deflater);
+                if (copy != null) {
+                    sources.put(item.getKey(), item.getValue());
+                    copies.put(item.getKey(), copy);
+                }
+            }
+
+            synchronized (this) {
+                if (isClosed) {
+                    throw new IOException("chapter store closed: " + mBookId);
+                }
+                commit();
+                // 复制期间重新写入的章节再复制一次，删除的章节不再保留
+                Map<String, Entry> compacted = new HashMap<>();
+                for (Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                    String title = item.getKey();
+                    Entry entry = item.getValue();
+                    Entry copy = sources.get(title) == entry ? copies.get(title)
+                            : copy(mData, entry, data, mDictionary, deflater);
+                    if (copy != null) {
+                        compacted.put(title, copy);
+                    }
+                }
+                // 新的文件同步到磁盘之后才替换索引文件
+                data.getFD().sync();
+                writeIndex(indexTmp, generation, compacted);
+                replace(indexTmp, data, generation, compacted);
+            }
+        } catch (IOException e) {
+            IOUtils.INSTANCE.close(data);
+            dataFile.delete();
+            indexTmp.delete();
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 复制章节保存的数据，没有压缩的章节在开启压缩时重新编码
+     *
+     * @return 数据损坏时返回 null
+     */
+    private static Entry copy(RandomAccessFile src, Entry entry, RandomAccessFile dst,
+                              Dictionary dictionary, Deflater deflater) throws IOException {
+        byte[] bytes = readStored(src, entry);
+        if (bytes == null) {
+            // 数据损坏的章节不再保留
+            return null;
+        } else if (entry.format == FORMAT_RAW && isCompressEnabled()) {
+            return append(dst, bytes, dictionary, deflater);
+        } else {
+            return append(dst, bytes, entry.format, entry.rawLength, entry.dictId);
+        }
+    }
+
+    private static void writeIndex(File file, int generation, Map<String, Entry> entries) throws IOException {
+        FileOutputStream indexOut = null;
+        DataOutputStream index = null;
+        try {
+            indexOut = new FileOutputStream(file);
+            index = new DataOutputStream(new BufferedOutputStream(indexOut));
+            index.writeInt(MAGIC);
+            index.writeInt(VERSION);
+            index.writeInt(generation);
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                writeEntry(index, item.getKey(), item.getValue());
+            }
+            index.flush();
+            indexOut.getFD().sync();
+        } finally {
+            IOUtils.INSTANCE.close(index);
+            IOUtils.INSTANCE.close(indexOut);
+        }
+    }
+
+    //替换索引文件后，新的数据文件生效
+    private void replace(File indexTmp, RandomAccessFile data, int generation,
+                         Map<String, Entry> entries) throws IOException {
+        IOUtils.INSTANCE.close(mIndex);
+        File indexFile = new File(mDir, INDEX_FILE);
+        if (!indexTmp.renameTo(indexFile)) {
+            mIndex = new RandomAccessFile(indexFile, "rw");
+            throw new IOException("rename failed: " + indexTmp);
+        }
+        // 正在读取旧文件的线程会按照新的快照重新读取
+        IOUtils.INSTANCE.close(mData);
+        IOUtils.INSTANCE.close(mReader);
+        dataFile(mGeneration).delete();
+        mGeneration = generation;
+        mData = data;
+        mReader = new RandomAccessFile(dataFile(generation), "r");
+        mIndex = new RandomAccessFile(indexFile, "rw");
+        isOldVersion = false;
+        mEntries.clear();
+        mEntries.putAll(entries);
+        mLiveSize = 0;
+        for (Entry entry : mEntries.values()) {
+            mLiveSize += entry.length;
+        }
+        publishSnapshot();
+        synchronized (mCachedLock) {
+            updateCached();
+        }
+        reportSize();
+    }
+
+    /**
+     * 提交写入的章节后关闭，之后不能再写入
+     */
+    synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        try {
+            commit();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        isClosed = true;
+        release();
+    }
+
+    //释放打开的文件和内存中的索引
+    private void release() {
+        discardPending();
+        mSnapshot = null;
+        IOUtils.INSTANCE.close(mData);
+        IOUtils.INSTANCE.close(mReader);
+        IOUtils.INSTANCE.close(mIndex);
+        mData = null;
+        mReader = null;
+        mIndex = null;
+        mEntries.clear();
+        mLiveSize = 0;
+        mLegacyTitles.clear();
+        synchronized (mCachedLock) {
+            mCached.clear();
+        }
+        mDictionary = null;
+        mDictSamples = null;
+        mDictSampleCount = 0;
+        if (mDeflater != null) {
+            mDeflater.end();
+            mDeflater = null;
+        }
+    }
+
+    /******************************文件**********************************/
+
+    /**
+     * 读取使用的快照，第一次使用时打开文件
+     */
+    private Snapshot getSnapshot() throws IOException {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                getEntries();
+                snapshot = mSnapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 第一次使用时打开文件并读取索引
+     */
+    private Map<String, Entry> getEntries() throws IOException {
+        if (isClosed) {
+            throw new IOException("chapter store closed: " + mBookId);
+        }
+        if (mData != null) {
+            return mEntries;
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+        return mEntries;
+    }
+
+    private void open() throws IOException {
+        mDir.mkdirs();
+        // 读取索引之前加载字典，旧版本的索引没有字典的 id
+        mDictionary = loadDictionary();
+        mDictSize = new File(mDir, DICT_FILE).length();
+        int dictId = mDictionary != null ? mDictionary.id : 0;
+        File indexFile = new File(mDir, INDEX_FILE);
+        mGeneration = 0;
+        int version = 0;
+        long validLength = 0;
+        if (indexFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+                version = in.readInt() == MAGIC ? in.readInt() : 0;
+                if (version >= 1 && version <= VERSION) {
+                    mGeneration = in.readInt();
+                    validLength = 12;
+                    long dataLength = dataFile(mGeneration).length();
+                    while (true) {
+                        String title;
+                        Entry entry;
+                        try {
+                            title = in.readUTF();
+                            entry = readEntry(in, version, dictId);
+                        } catch (EOFException e) {
+                            // 最后一条记录可能没有写完
+                            break;
+                        }
+                        validLength += 2 + utfLength(title) + (version == 1 ? 16 : version == 2 ? 21 : 25);
+                        if (entry.format == FORMAT_DELETED) {
+                            mEntries.remove(title);
+                        } else if (entry.offset + entry.length <= dataLength) {
+                            mEntries.put(title, entry);
+                        }
+                    }
+                }
+            } catch (EOFException e) {
+                validLength = 0;
+            } finally {
+                IOUtils.INSTANCE.close(in);
+            }
+        }
+
+        mIndex = new RandomAccessFile(indexFile, "rw");
+        mData = new RandomAccessFile(dataFile(mGeneration), "rw");
+        if (version >= 2 && !hasDataHeader(mData)) {
+            // 数据文件损坏，丢弃所有章节
+            validLength = 0;
+        }
+        if (validLength == 0) {
+            mEntries.clear();
+            mIndex.setLength(0);
+            mIndex.writeInt(MAGIC);
+            mIndex.writeInt(VERSION);
+            mIndex.writeInt(mGeneration);
+            mData.setLength(0);
+            mData.writeInt(DATA_MAGIC);
+            mData.writeInt(DATA_VERSION);
+        } else {
+            mIndex.setLength(validLength);
+        }
+        mReader = new RandomAccessFile(dataFile(mGeneration), "r");
+        // 旧版本的数据文件没有文件头，可以直接读取，在写入线程中通过压缩转换成新的格式
+        isOldVersion = validLength != 0 && version != VERSION;
+        removeUndecodable();
+
+        mLiveSize = 0;
+        for (Entry entry : mEntries.values()) {
+            mLiveSize += entry.length;
+        }
+        // 删除压缩中断时留下的文件，记录旧版本的章节文件
+        mLegacyTitles.clear();
+        mLegacySize = 0;
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            String current = dataFile(mGeneration).getName();
+            for (File file : files) {
+                String name = file.getName();
+                if ((name.startsWith(DATA_PREFIX) && name.endsWith(DATA_SUFFIX) && !name.equals(current))
+                        || name.endsWith(SUFFIX_TMP)) {
+                    file.delete();
+                } else if (name.endsWith(FileUtils.SUFFIX_NB)) {
+                    mLegacyTitles.add(name.substring(0, name.length() - FileUtils.SUFFIX_NB.length()));
+                    mLegacySize += file.length();
+                }
+            }
+        }
+        publishSnapshot();
+        synchronized (mCachedLock) {
+            updateCached();
+        }
+        reportSize();
+
+        if (isOldVersion) {
+            scheduleCompact();
+        }
+    }
+
+    private static boolean hasDataHeader(RandomAccessFile data) throws IOException {
+        if (data.length() < DATA_HEADER_SIZE) {
+            return false;
+        }
+        data.seek(0);
+        return data.readInt() == DATA_MAGIC && data.readInt() == DATA_VERSION;
+    }
+
+    /**
+     * 字典丢失或者不一致时，使用字典的章节无法解码，写入删除的记录，之后重新下载
+     */
+    private void removeUndecodable() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> item = iterator.next();
+            Entry entry = item.getValue();
+            if (entry.format == FORMAT_DEFLATE_DICT
+                    && (mDictionary == null || entry.dictId != mDictionary.id)) {
+                writeEntry(out, item.getKey(), new Entry(0, 0, 0, FORMAT_DELETED, 0, 0));
+                iterator.remove();
+            }
+        }
+        // 旧版本的索引不能追加记录，升级时不再保留这些章节
+        if (bytes.size() > 0 && !isOldVersion) {
+            mIndex.seek(mIndex.length());
+            mIndex.write(bytes.toByteArray());
+            mIndex.getFD().sync();
+        }
+    }
+
+    private File dataFile(int generation) {
+        return new File(mDir, DATA_PREFIX + generation + DATA_SUFFIX);
+    }
+
+    private File getLegacyFile(String title) {
+        return new File(mDir, title + FileUtils.SUFFIX_NB);
+    }
+
+    private static String readLegacyFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            in.readFully(bytes);
+        } finally {
+            IOUtils.INSTANCE.close(in);
+        }
+        return new String(bytes, CHARSET);
+    }
+
+    //writeUTF 写入的字节数 (modified UTF-8)
+    private static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                length += 1;
+            } else if (c <= 0x7FF) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void writeEntry(DataOutputStream out, String title, Entry entry) throws IOException {
+        out.writeUTF(title);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.length);
+        out.writeInt(entry.crc);
+        out.writeByte(entry.format);
+        out.writeInt(entry.rawLength);
+        out.writeInt(entry.dictId);
+    }
+
+    /**
+     * @param dictId : 当前字典的 id，第二个版本的章节使用这个字典
+     */
+    private static Entry readEntry(DataInputStream in, int version, int dictId) throws IOException {
+        long offset = in.readLong();
+        int length = in.readInt();
+        int crc = in.readInt();
+        if (version == 1) {
+            // 第一个版本没有压缩
+            return new Entry(offset, length, crc, FORMAT_RAW, length, 0);
+        }
+        byte format = in.readByte();
+        int rawLength = in.readInt();
+        if (version == 2) {
+            return new Entry(offset, length, crc, format, rawLength, format == FORMAT_DEFLATE_DICT ? dictId : 0);
+        }
+        return new Entry(offset, length, crc, format, rawLength, in.readInt());
+    }
+
+    /**
+     * 按位置读取章节保存的数据，不需要移动文件指针，多个线程可以同时读取
+     *
+     * @return 数据损坏时返回 null
+     */
+    private static byte[] readStored(RandomAccessFile data, Entry entry) throws IOException {
+        byte[] bytes = new byte[entry.length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        FileChannel channel = data.getChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.offset + buffer.position()) == -1) {
+                return null;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue() == entry.crc ? bytes : null;
+    }
+
+    /**
+     * 编码后追加到数据文件的末尾
+     *
+     * @param dictionary : 压缩使用的字典，没有字典时为 null
+     */
+    private static Entry append(RandomAccessFile data, byte[] raw, Dictionary dictionary,
+                                Deflater deflater) throws IOException {
+        if (isCompressEnabled()) {
+            byte[] compressed = deflate(raw, dictionary != null ? dictionary.bytes : null, deflater);
+            if (compressed != null) {
+                return dictionary != null
+                        ? append(data, compressed, FORMAT_DEFLATE_DICT, raw.length, dictionary.id)
+                        : append(data, compressed, FORMAT_DEFLATE, raw.length, 0);
+            }
+        }
+        return append(data, raw, FORMAT_RAW, raw.length, 0);
+    }
+
+    private static Entry append(RandomAccessFile data, byte[] bytes, byte format, int rawLength,
+                                int dictId) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        long offset = data.length();
+        data.seek(offset);
+        data.write(bytes);
+        return new Entry(offset, bytes.length, (int) crc.getValue(), format, rawLength, dictId);
+    }
+
+    /******************************压缩**********************************/
+
+    private static boolean isCompressEnabled() {
+        return SpUtil.getBooleanValue(Constant.ChapterCompress, true);
+    }
+
+    /**
+     * 解码章节保存的数据，每次使用单独的 Inflater，多个线程可以同时解码
+     *
+     * @return 数据损坏或者缺少字典时返回 null
+     */
+    private static byte[] decode(byte[] bytes, Entry entry, Dictionary dictionary) {
+        if (bytes == null || entry.format == FORMAT_RAW) {
+            return bytes;
+        }
+        if (entry.format == FORMAT_DEFLATE_DICT && (dictionary == null || entry.dictId != dictionary.id)) {
+            return null;
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes);
+        byte[] raw = new byte[entry.rawLength];
+        int length = 0;
+        try {
+            while (length < raw.length) {
+                int count = inflater.inflate(raw, length, raw.length - length);
+                if (count == 0) {
+                    if (!inflater.needsDictionary() || dictionary == null) {
+                        return null;
+                    }
+                    // 字典不一致时抛出 IllegalArgumentException
+                    inflater.setDictionary(dictionary.bytes);
+                }
+                length += count;
+            }
+        } catch (DataFormatException | IllegalArgumentException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    private Deflater getDeflater() {
+        if (mDeflater == null) {
+            mDeflater = new Deflater();
+        }
+        return mDeflater;
+    }
+
+    /**
+     * @return 压缩后没有变小时返回 null
+     */
+    private static byte[] deflate(byte[] raw, byte[] dictionary, Deflater deflater) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] buffer = new byte[raw.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return deflater.finished() ? Arrays.copyOf(buffer, length) : null;
+    }
+
+    /**
+     * 获取书籍的预设字典，还没有生成时采样章节的内容，采样足够后生成字典
+     */
+    private Dictionary getDictionary(byte[] raw) {
+        if (mDictionary != null || !isCompressEnabled()) {
+            return mDictionary;
+        }
+        if (mDictSamples == null) {
+            if (hasDictEntries()) {
+                // 还有使用旧字典的章节，不能生成新的字典
+                return null;
+            }
+            mDictSamples = new ByteArrayOutputStream(DICT_SIZE);
+        }
+        // 取章节的开头和中间两段：开头有固定的格式，中间是常见的人名和用语
+        int size = DICT_SIZE / DICT_SAMPLE_COUNT / 2;
+        mDictSamples.write(raw, 0, Math.min(size, raw.length));
+        if (raw.length > size * 2) {
+            mDictSamples.write(raw, (raw.length - size) / 2, size);
+        }
+        if (++mDictSampleCount < DICT_SAMPLE_COUNT) {
+            return null;
+        }
+
+        Dictionary dictionary = new Dictionary(mDictSamples.toByteArray());
+        mDictSamples = null;
+        mDictSampleCount = 0;
+        try {
+            saveDictionary(dictionary.bytes);
+        } catch (IOException e) {
+            // 保存失败时不使用字典，重新采样
+            e.printStackTrace();
+            return null;
+        }
+        mDictionary = dictionary;
+        mDictSize = new File(mDir, DICT_FILE).length();
+        return mDictionary;
+    }
+
+    private boolean hasDictEntries() {
+        for (Entry entry : mEntries.values()) {
+            if (entry.format == FORMAT_DEFLATE_DICT) {
+                return true;
+            }
+        }
+        for (Entry entry : mPendingEntries.values()) {
+            if (entry.format == FORMAT_DEFLATE_DICT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //字典在使用之前保存，同步到磁盘之后才替换，之后不再改变
+    private void saveDictionary(byte[] dictionary) throws IOException {
+        File file = new File(mDir, DICT_FILE);
+        File tmp = new File(mDir, DICT_FILE + SUFFIX_TMP);
+        FileOutputStream fileOut = null;
+        DataOutputStream out = null;
+        try {
+            fileOut = new FileOutputStream(tmp);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(DICT_MAGIC);
+            out.writeInt(DICT_VERSION);
+            out.writeInt(dictionary.length);
+            out.write(dictionary);
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed: " + tmp);
+            }
+        } finally {
+            IOUtils.INSTANCE.close(out);
+            IOUtils.INSTANCE.close(fileOut);
+            tmp.delete();
+        }
+    }
+
+    private Dictionary loadDictionary() {
+        File file = new File(mDir, DICT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != DICT_MAGIC || in.readInt() != DICT_VERSION) {
+                return null;
+            }
+            int length = in.readInt();
+            if (length <= 0 || length > DICT_SIZE) {
+                return null;
+            }
+            byte[] dictionary = new byte[length];
+            in.readFully(dictionary);
+            return new Dictionary(dictionary);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IOUtils.INSTANCE.close(in);
+        }
+    }
+
+    private static final class Entry {
+        final long offset;
+        //保存的长度
+        final int length;
+        final int crc;
+        final byte format;
+        //解码后的长度
+        final int rawLength;
+        //使用的字典的 id，不使用字典时为 0
+        final int dictId;
+
+        Entry(long offset, int length, int crc, byte format, int rawLength, int dictId) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.format = format;
+            this.rawLength = rawLength;
+            this.dictId = dictId;
+        }
+    }
+
+    private static final class Dictionary {
+        final byte[] bytes;
+        //字典内容的 CRC
+        final int id;
+
+        Dictionary(byte[] bytes) {
+            this.bytes = bytes;
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            this.id = (int) crc.getValue();
+        }
+    }
+
+    /**
+     * 读取使用的索引快照，发布之后不再修改
+     */
+    private static final class Snapshot {
+        final Map<String, Entry> entries;
+        final Set<String> legacyTitles;
+        final RandomAccessFile data;
+        final Dictionary dictionary;
+
+        Snapshot(Map<String, Entry> entries, Set<String> legacyTitles, RandomAccessFile data, Dictionary dictionary) {
+            this.entries = entries;
+            this.legacyTitles = legacyTitles;
+            this.data = data;
+            this.dictionary = dictionary;
+        }
+
+        boolean contains(String title) {
+            return entries.containsKey(title) || legacyTitles.contains(title);
+        }
+    }
+}
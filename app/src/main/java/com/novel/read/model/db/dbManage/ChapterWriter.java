@@ -0,0 +1,204 @@
+package com.novel.read.model.db.dbManage;
+
+import android.util.Log;
+
+import com.novel.read.widget.page.Void;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.functions.Action;
+
+/**
+ * Created by zlj
+ * 章节的写入线程。
+ * <p>
+ * 下载的章节放入队列后立即返回，由单独的线程处理内容并写入 {@link ChapterStore}；
+ * 等待写入的章节有上限，磁盘比网络慢、达到上限时，放入队列会等待，下载随之变慢 (背压)。
+ * 写入线程每次取出队列中所有的章节一起写入，每本书只提交一次 (一次 fsync)。
+ * <p>
+ * 压缩数据文件、导入旧版本的章节等其他修改存储的操作也放入这个队列 ({@link #execute}、{@link #post})，
+ * 按照放入的顺序执行，不会和写入同时进行。
+ */
+public final class ChapterWriter {
+    private static final String TAG = "ChapterWriter";
+    //等待写入的章节数的上限
+    private static final int QUEUE_SIZE = 32;
+    //接口返回的内容中转义的换行
+    private static final Pattern ESCAPED_LINE_BREAK = Pattern.compile("\\\\n\\\\n");
+
+    private static volatile ChapterWriter sInstance;
+
+    //写入线程自己也会放入操作 (提交后压缩)，队列不设上限，章节的数量由 mSlots 限制
+    private final BlockingQueue<Task> mQueue = new LinkedBlockingQueue<>();
+    private final Semaphore mSlots = new Semaphore(QUEUE_SIZE);
+    //书籍 id -> 等待写入的章节数
+    private final Map<String, Integer> mWriting = new HashMap<>();
+
+    private ChapterWriter() {
+        Thread thread = new Thread(this::run, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static ChapterWriter getInstance() {
+        if (sInstance == null) {
+            synchronized (ChapterWriter.class) {
+                if (sInstance == null) {
+                    sInstance = new ChapterWriter();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 订阅时放入写入队列，等待写入的章节达到上限时等待，不要在主线程订阅。章节提交后发送结果
+     */
+    public Single<Void> write(String bookId, String title, String content) {
+        return Single.create(e -> {
+            mSlots.acquire();
+            addWriting(bookId, 1);
+            mQueue.put(new Task(bookId, title, content, null, e));
+        });
+    }
+
+    /**
+     * 书籍是否还有章节等待写入
+     */
+    public synchronized boolean isWriting(String bookId) {
+        return mWriting.containsKey(bookId);
+    }
+
+    private synchronized void addWriting(String bookId, int count) {
+        Integer old = mWriting.get(bookId);
+        int value = (old == null ? 0 : old) + count;
+        if (value > 0) {
+            mWriting.put(bookId, value);
+        } else {
+            mWriting.remove(bookId);
+        }
+    }
+
+    /**
+     * 订阅时放入队列，在写入线程中执行后发送结果，不要在写入线程中等待结果
+     */
+    Single<Void> execute(Action action) {
+        return Single.create(e -> mQueue.put(new Task(null, null, null, action, e)));
+    }
+
+    /**
+     * 放入队列后立即返回，在写入线程中执行，出错时只记录日志
+     */
+    void post(Action action) {
+        mQueue.add(new Task(null, null, null, action, null));
+    }
+
+    private void run() {
+        List<Task> tasks = new ArrayList<>();
+        List<Task> batch = new ArrayList<>();
+        while (true) {
+            try {
+                tasks.add(mQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            mQueue.drainTo(tasks);
+            for (Task task : tasks) {
+                if (task.action == null) {
+                    batch.add(task);
+                    continue;
+                }
+                // 按照放入的顺序：之前的章节提交之后再执行
+                writeBatch(batch);
+                batch.clear();
+                runAction(task);
+            }
+            writeBatch(batch);
+            batch.clear();
+            tasks.clear();
+        }
+    }
+
+    private void runAction(Task task) {
+        try {
+            task.action.run();
+            if (task.emitter != null) {
+                task.emitter.onSuccess(new Void());
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "run action failed", e);
+            if (task.emitter != null) {
+                task.emitter.tryOnError(e);
+            }
+        }
+    }
+
+    private void writeBatch(List<Task> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // 先写入所有章节的数据
+        Map<String, ChapterStore> stores = new HashMap<>();
+        for (Task task : batch) {
+            try {
+                String content = ESCAPED_LINE_BREAK.matcher(task.content).replaceAll("\n");
+                ChapterStore store = ChapterStore.get(task.bookId);
+                store.write(task.title, content);
+                stores.put(task.bookId, store);
+            } catch (Exception e) {
+                task.error = e;
+            }
+        }
+
+        // 每本书提交一次
+        Map<String, Exception> errors = new HashMap<>();
+        for (Map.Entry<String, ChapterStore> entry : stores.entrySet()) {
+            try {
+                entry.getValue().commit();
+            } catch (Exception e) {
+                errors.put(entry.getKey(), e);
+            }
+        }
+
+        for (Task task : batch) {
+            Throwable error = task.error != null ? task.error : errors.get(task.bookId);
+            if (error != null) {
+                Log.e(TAG, "write chapter failed: " + task.title, error);
+                task.emitter.tryOnError(error);
+            } else {
+                task.emitter.onSuccess(new Void());
+            }
+        }
+        for (Task task : batch) {
+            addWriting(task.bookId, -1);
+        }
+        mSlots.release(batch.size());
+    }
+
+    private static final class Task {
+        final String bookId;
+        final String title;
+        final String content;
+        //其他的操作，写入章节时为 null
+        final Action action;
+        final SingleEmitter<Void> emitter;
+        Exception error;
+
+        Task(String bookId, String title, String content, Action action, SingleEmitter<Void> emitter) {
+            this.bookId = bookId;
+            this.title = title;
+            this.content = content;
+            this.action = action;
+            this.emitter = emitter;
+        }
+    }
+}
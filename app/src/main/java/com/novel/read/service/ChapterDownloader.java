@@ -0,0 +1,330 @@
+package com.novel.read.service;
+
+import android.util.Log;
+
+import com.novel.read.constants.Constant;
+import com.novel.read.http.AccountManager;
+import com.novel.read.model.db.BookChapterBean;
+import com.novel.read.model.db.ChapterInfoBean;
+import com.novel.read.model.db.DownloadTaskBean;
+import com.novel.read.model.db.dbManage.BookRepository;
+import com.novel.read.utlis.NetworkUtils;
+import com.novel.read.utlis.SpUtil;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import retrofit2.HttpException;
+
+/**
+ * Created by zlj
+ * 并发下载一个任务中的章节。
+ * <p>
+ * 章节都请求同一个服务器，同时请求的数量由 {@link Constant#DownloadConcurrency} 设置。
+ * 请求可以乱序完成，但是按照章节的顺序放入写入队列，写入完成后再按顺序回调进度；
+ * 只提前请求同时请求数量两倍范围内的章节，已经下载、尚未写入的章节不会占用太多内存。
+ * <p>
+ * 网络错误和服务器错误按照指数退避加上随机抖动重试，重试之后仍然失败时，
+ * 任务停在这个章节，错误的类型见 {@link #getError()}。
+ */
+final class ChapterDownloader {
+    private static final String TAG = "ChapterDownloader";
+    //默认同时请求的章节数
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int MAX_CONCURRENCY = 16;
+    //等待请求结果时检查暂停的间隔 (ms)
+    private static final long POLL_INTERVAL = 200;
+    //每个章节最多重试的次数
+    private static final int MAX_RETRY = 4;
+    //第一次重试前等待的时间，之后每次加倍 (ms)
+    private static final long RETRY_DELAY = 500;
+    private static final long MAX_RETRY_DELAY = 8000;
+
+    //下载的结果
+    static final int RESULT_NORMAL = 0;
+    static final int RESULT_ERROR = -1;
+    static final int RESULT_PAUSE = 1;
+
+    interface Callback {
+        /**
+         * 是否暂停，等待每个章节时检查
+         */
+        boolean isCanceled();
+
+        /**
+         * 写入的进度，按照章节的顺序回调，在写入线程中调用
+         *
+         * @param index : 已经写入的最后一个章节
+         */
+        void onProgress(int index);
+    }
+
+    private final String mBookId;
+    private final List<BookChapterBean> mChapters;
+    private final Callback mCallback;
+    private final int mConcurrency;
+    private final Random mRandom = new Random();
+    //暂停或者出错后停止重试
+    private volatile boolean isStopped = false;
+    private int mError = DownloadTaskBean.ERROR_NONE;
+
+    ChapterDownloader(String bookId, List<BookChapterBean> chapters, Callback callback) {
+        this(bookId, chapters, callback, getConcurrency());
+    }
+
+    ChapterDownloader(String bookId, List<BookChapterBean> chapters, Callback callback, int concurrency) {
+        mBookId = bookId;
+        mChapters = chapters;
+        mCallback = callback;
+        mConcurrency = Math.max(1, Math.min(concurrency, MAX_CONCURRENCY));
+    }
+
+    private static int getConcurrency() {
+        return SpUtil.getIntValue(Constant.DownloadConcurrency, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * 下载 [start, end] 之间没有缓存的章节，返回时下载的章节都已经写入
+     *
+     * @param cached : 已经缓存的章节，不再请求
+     * @return RESULT_NORMAL、RESULT_ERROR 或 RESULT_PAUSE
+     */
+    int download(int start, int end, BitSet cached) {
+        ExecutorService executor = Executors.newFixedThreadPool(mConcurrency);
+        Map<Integer, Future<String>> requests = new HashMap<>();
+        Committer committer = new Committer();
+        //提前请求的范围
+        int window = mConcurrency * 2;
+        int next = start;
+        int result = RESULT_NORMAL;
+        try {
+            loop:
+            for (int i = start; i <= end; ++i) {
+                //补充请求，请求乱序完成
+                for (; next <= end && next < i + window; ++next) {
+                    if (!cached.get(next)) {
+                        String id = mChapters.get(next).getId();
+                        requests.put(next, executor.submit(() -> fetch(id)));
+                    }
+                }
+
+                //首先判断该章节是否曾经被加载过
+                if (cached.get(i)) {
+                    committer.skip(i);
+                    continue;
+                }
+
+                //等待该章节，等待时检查暂停和网络
+                Future<String> request = requests.remove(i);
+                String content;
+                while (true) {
+                    if (mCallback.isCanceled()) {
+                        result = RESULT_PAUSE;
+                        break loop;
+                    }
+                    if (!NetworkUtils.INSTANCE.isAvailable()) {
+                        mError = DownloadTaskBean.ERROR_NETWORK;
+                        result = RESULT_ERROR;
+                        break loop;
+                    }
+                    try {
+                        content = request.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        //继续等待
+                    } catch (ExecutionException e) {
+                        //当前进度加载错误，之前的章节仍然写入
+                        Log.e(TAG, "loadChapter: " + e.getCause());
+                        mError = e.getCause() instanceof FetchException
+                                ? ((FetchException) e.getCause()).error : DownloadTaskBean.ERROR_SERVER;
+                        result = RESULT_ERROR;
+                        break loop;
+                    } catch (InterruptedException e) {
+                        result = RESULT_PAUSE;
+                        break loop;
+                    }
+                }
+
+                //按顺序放入写入队列
+                //这里文件的名字用的是BookChapter的title,而不是chapter的title。
+                //原因是Chapter的title可能重复，但是BookChapter的title不会重复
+                if (!committer.save(mChapters.get(i).getTitle(), content, i)) {
+                    mError = DownloadTaskBean.ERROR_STORAGE;
+                    result = RESULT_ERROR;
+                    break;
+                }
+            }
+        } finally {
+            //暂停或者出错时取消剩下的请求
+            isStopped = true;
+            for (Future<String> request : requests.values()) {
+                request.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+
+        //等待写入完成
+        if (!committer.await() && result == RESULT_NORMAL) {
+            mError = DownloadTaskBean.ERROR_STORAGE;
+            result = RESULT_ERROR;
+        }
+        return result;
+    }
+
+    /**
+     * @return RESULT_ERROR 时错误的类型，见 DownloadTaskBean.ERROR_XXX
+     */
+    int getError() {
+        return mError;
+    }
+
+    /**
+     * 在请求线程中同步请求章节，可以重试的错误等待之后重试
+     */
+    private String fetch(String id) throws IOException, InterruptedException {
+        for (int retry = 0; ; ++retry) {
+            FetchException error;
+            try {
+                ChapterInfoBean bean = AccountManager.Companion.getInstance()
+                        .getChapterInfo(id)
+                        .blockingGet();
+                String body = bean.getBody();
+                if (body == null || body.trim().isEmpty()) {
+                    throw new FetchException(DownloadTaskBean.ERROR_EMPTY, false, "empty chapter: " + id, null);
+                }
+                return body;
+            } catch (FetchException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                error = classify(e);
+            }
+
+            if (!error.retryable || retry >= MAX_RETRY || isStopped) {
+                throw error;
+            }
+            Log.w(TAG, "fetch " + id + " retry " + (retry + 1) + ": " + error.getCause());
+            Thread.sleep(getRetryDelay(retry));
+        }
+    }
+
+    /**
+     * 指数退避，在 [delay / 2, delay) 之间随机，避免同时失败的请求同时重试
+     */
+    private long getRetryDelay(int retry) {
+        long delay = Math.min(RETRY_DELAY << retry, MAX_RETRY_DELAY);
+        return delay / 2 + (long) (mRandom.nextDouble() * delay / 2);
+    }
+
+    /**
+     * 区分网络错误和服务器错误
+     */
+    private static FetchException classify(RuntimeException e) {
+        //blockingGet 把受检异常包装成 RuntimeException
+        Throwable cause = e.getClass() == RuntimeException.class && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof IOException) {
+            //连接失败、超时
+            return new FetchException(DownloadTaskBean.ERROR_NETWORK, true, cause.toString(), cause);
+        }
+        if (cause instanceof HttpException) {
+            //服务器繁忙时重试，其他的客户端错误重试也不会成功
+            int code = ((HttpException) cause).code();
+            boolean retryable = code >= 500 || code == 408 || code == 429;
+            return new FetchException(DownloadTaskBean.ERROR_SERVER, retryable, cause.toString(), cause);
+        }
+        //接口返回错误码时结果为 null，或者返回的数据无法解析
+        return new FetchException(DownloadTaskBean.ERROR_SERVER, true, cause.toString(), cause);
+    }
+
+    private static final class FetchException extends IOException {
+        final int error;
+        final boolean retryable;
+
+        FetchException(int error, boolean retryable, String message, Throwable cause) {
+            super(message, cause);
+            this.error = error;
+            this.retryable = retryable;
+        }
+    }
+
+    /**
+     * 按顺序写入章节并回调进度。
+     * <p>
+     * 写入队列先进先出，写入完成的回调也按照放入的顺序；没有正在写入的章节时，
+     * 之前放入的章节都已经写入，跳过的缓存章节可以直接回调。
+     */
+    private final class Committer {
+        //正在写入的章节数
+        private int mPending;
+        //已经放入或者跳过的最后一个章节
+        private int mLastIndex = -1;
+        private boolean isFailed = false;
+
+        synchronized void skip(int index) {
+            mLastIndex = index;
+            if (mPending == 0 && !isFailed) {
+                mCallback.onProgress(index);
+            }
+        }
+
+        /**
+         * 放入写入队列，队列已满时等待
+         *
+         * @return 之前的章节是否都写入成功
+         */
+        boolean save(String title, String content, int index) {
+            synchronized (this) {
+                if (isFailed) {
+                    return false;
+                }
+                mPending++;
+                mLastIndex = index;
+            }
+            BookRepository.getInstance()
+                    .saveChapterInfoInRx(mBookId, title, content)
+                    .subscribe(value -> onSaved(index), this::onFailed);
+            return true;
+        }
+
+        private synchronized void onSaved(int index) {
+            mPending--;
+            if (!isFailed) {
+                mCallback.onProgress(mPending == 0 ? mLastIndex : index);
+            }
+            notifyAll();
+        }
+
+        private synchronized void onFailed(Throwable e) {
+            Log.e(TAG, "saveChapter: " + e);
+            mPending--;
+            isFailed = true;
+            notifyAll();
+        }
+
+        /**
+         * 等待所有章节写入
+         *
+         * @return 是否都写入成功
+         */
+        synchronized boolean await() {
+            while (mPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !isFailed;
+        }
+    }
+}
@@ -6,7 +6,6 @@ import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
 import android.text.TextUtils;
-import android.util.Log;
 
 import androidx.annotation.Nullable;
 
@@ -16,15 +15,16 @@ import com.novel.read.base.BaseService;
 import com.novel.read.event.DeleteResponseEvent;
 import com.novel.read.event.DeleteTaskEvent;
 import com.novel.read.event.RxBus;
-import com.novel.read.http.AccountManager;
 import com.novel.read.model.db.BookChapterBean;
 import com.novel.read.model.db.DownloadTaskBean;
+import com.novel.read.model.db.dbManage.BookCacheManager;
 import com.novel.read.model.db.dbManage.BookManager;
 import com.novel.read.model.db.dbManage.BookRepository;
+import com.novel.read.model.db.dbManage.ChapterStore;
 import com.novel.read.utlis.LocalManageUtil;
-import com.novel.read.utlis.NetworkUtils;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -46,8 +46,13 @@ public class DownloadService extends BaseService {
     public static final int STATUS_CONTINUE = DownloadTaskBean.STATUS_LOADING;
     public static final int STATUS_PAUSE = DownloadTaskBean.STATUS_PAUSE;
 
-    //线程池
+    //每写入多少章节保存一次任务的进度
+    private static final int CHECKPOINT_INTERVAL = 20;
+
+    //执行任务的线程，章节由 ChapterDownloader 并发下载
     private final ExecutorService mSingleExecutor = Executors.newSingleThreadExecutor();
+    //保存任务进度的线程，不占用章节的写入线程，按顺序执行，最终的状态不会被之前的进度覆盖
+    private final ExecutorService mProgressExecutor = Executors.newSingleThreadExecutor();
     //加载队列
     private final List<DownloadTaskBean> mDownloadTaskQueue = Collections.synchronizedList(new ArrayList<>());
     //Handler
@@ -58,7 +63,7 @@ public class DownloadService extends BaseService {
 
     private OnDownloadListener mDownloadListener;
     private boolean isBusy = false;
-    private boolean isCancel = false;
+    private volatile boolean isCancel = false;
 
     @Override
     protected void attachBaseContext(Context base) {
@@ -73,6 +78,13 @@ public class DownloadService extends BaseService {
         mDownloadTaskList = BookRepository
                 .getInstance()
                 .getDownloadTaskList();
+        //进程被杀死时正在下载的任务，从保存的进度继续
+        for (DownloadTaskBean task : mDownloadTaskList) {
+            if (task.getStatus() == DownloadTaskBean.STATUS_LOADING) {
+                task.setStatus(DownloadTaskBean.STATUS_WAIT);
+                addToExecutor(task);
+            }
+        }
     }
 
     @Nullable
@@ -213,58 +225,68 @@ public class DownloadService extends BaseService {
 
     private void executeTask(DownloadTaskBean taskEvent) {
         Runnable runnable = () -> {
+            //正在下载的书籍不会被淘汰
+            BookCacheManager.getInstance().acquire(taskEvent.getBookId());
 
             taskEvent.setStatus(DownloadTaskBean.STATUS_LOADING);
+            taskEvent.setErrorType(DownloadTaskBean.ERROR_NONE);
 
             int result = LOAD_NORMAL;
             List<BookChapterBean> bookChapterBeans = taskEvent.getBookChapters();
+            if (bookChapterBeans.isEmpty()) {
+                //从数据库中恢复的任务，读取章节列表
+                taskEvent.resetBookChapterList();
+                bookChapterBeans = taskEvent.getBookChapterList();
+                taskEvent.setBookChapters(bookChapterBeans);
+            }
+            //保存任务，之后只更新进度
+            if (!taskEvent.isSaved()) {
+                BookRepository.getInstance().saveDownloadTask(taskEvent);
+            } else {
+                BookRepository.getInstance().saveDownloadProgress(taskEvent);
+            }
+            //已经缓存的章节，开始时查询一次
+            List<String> titles = new ArrayList<>(bookChapterBeans.size());
+            for (BookChapterBean bean : bookChapterBeans) {
+                titles.add(bean.getTitle());
+            }
+            BitSet cached = ChapterStore.get(taskEvent.getBookId()).getCachedChapters(titles);
 
-            //调用for循环，下载数据  //todo
-//            for (int i=taskEvent.getCurrentChapter(); i<bookChapterBeans.size();++i) {
-            for (int i = taskEvent.getCurrentChapter(); i <= taskEvent.getLastChapter() && i < bookChapterBeans.size(); ++i) {
-
-                BookChapterBean bookChapterBean = bookChapterBeans.get(i);
-                //首先判断该章节是否曾经被加载过 (从文件中判断)
-                if (BookManager.isChapterCached(taskEvent.getBookId(), bookChapterBean.getTitle())) {
-
-                    //设置任务进度
-                    taskEvent.setCurrentChapter(i);
-
-                    //章节加载完成
-                    postDownloadChange(taskEvent, DownloadTaskBean.STATUS_LOADING, i + "");
+            //并发下载，按顺序写入和回调进度
+            ChapterDownloader downloader = new ChapterDownloader(taskEvent.getBookId(), bookChapterBeans,
+                    new ChapterDownloader.Callback() {
+                        //上次保存的进度
+                        private int mCheckpoint = taskEvent.getCurrentChapter();
 
-                    //无需进行下一步
-                    continue;
-                }
+                        @Override
+                        public boolean isCanceled() {
+                            return isCancel;
+                        }
 
-                //判断网络是否出问题
-                if (!NetworkUtils.INSTANCE.isAvailable()) {
-                    //章节加载失败
+                        @Override
+                        public void onProgress(int index) {
+                            //设置任务进度
+                            taskEvent.setCurrentChapter(index);
+                            //定期保存进度，进程被杀死后从这里继续
+                            if (index - mCheckpoint >= CHECKPOINT_INTERVAL) {
+                                mCheckpoint = index;
+                                mProgressExecutor.execute(() -> BookRepository.getInstance().saveDownloadProgress(taskEvent));
+                            }
+                            //章节加载完成
+                            postDownloadChange(taskEvent, DownloadTaskBean.STATUS_LOADING, index + "");
+                        }
+                    });
+            int lastChapter = Math.min(taskEvent.getLastChapter(), bookChapterBeans.size() - 1);
+            switch (downloader.download(taskEvent.getCurrentChapter(), lastChapter, cached)) {
+                case ChapterDownloader.RESULT_ERROR:
                     result = LOAD_ERROR;
                     break;
-                }
-
-                if (isCancel) {
+                case ChapterDownloader.RESULT_PAUSE:
                     result = LOAD_PAUSE;
                     isCancel = false;
                     break;
-                }
-
-                //加载数据
-                result = loadChapter(taskEvent.getBookId(), bookChapterBean);
-                //章节加载完成
-                if (result == LOAD_NORMAL) {
-                    taskEvent.setCurrentChapter(i);
-                    postDownloadChange(taskEvent, DownloadTaskBean.STATUS_LOADING, i + "");
-                }
-                //章节加载失败
-                else {
-                    //遇到错误退出
-                    break;
-                }
             }
 
-
             if (result == LOAD_NORMAL) {
                 //存储DownloadTask的状态
                 taskEvent.setStatus(DownloadTaskBean.STATUS_FINISH);//Task的状态
@@ -275,8 +297,9 @@ public class DownloadService extends BaseService {
                 postDownloadChange(taskEvent, DownloadTaskBean.STATUS_FINISH, getString(R.string.download_success));
             } else if (result == LOAD_ERROR) {
                 taskEvent.setStatus(DownloadTaskBean.STATUS_ERROR);//Task的状态
+                taskEvent.setErrorType(downloader.getError());//错误的类型
                 //任务加载失败
-                postDownloadChange(taskEvent, DownloadTaskBean.STATUS_ERROR, getString(R.string.download_error));
+                postDownloadChange(taskEvent, DownloadTaskBean.STATUS_ERROR, getErrorMessage(downloader.getError()));
             } else if (result == LOAD_PAUSE) {
                 taskEvent.setStatus(DownloadTaskBean.STATUS_PAUSE);//Task的状态
                 postDownloadChange(taskEvent, DownloadTaskBean.STATUS_PAUSE, getString(R.string.download_pause));
@@ -284,8 +307,9 @@ public class DownloadService extends BaseService {
                 //没想好怎么做
             }
 
-            //存储状态
-            BookRepository.getInstance().saveDownloadTask(taskEvent);
+            //存储状态，章节列表在开始时已经保存，只更新任务
+            mProgressExecutor.execute(() -> BookRepository.getInstance().saveDownloadTaskState(taskEvent));
+            BookCacheManager.getInstance().release(taskEvent.getBookId());
 
             //轮询下一个事件，用RxBus用来保证事件是在主线程
 
@@ -299,30 +323,19 @@ public class DownloadService extends BaseService {
         mSingleExecutor.execute(runnable);
     }
 
-    private int loadChapter(String folderName, BookChapterBean bean) {
-        //加载的结果参数
-        final int[] result = {LOAD_NORMAL};
-
-        //问题:(这里有个问题，就是body其实比较大，如何获取数据流而不是对象，)是不是直接使用OkHttpClient交互会更好一点
-        Disposable disposable = AccountManager.Companion.getInstance()
-                .getChapterInfo(bean.getId())
-                //表示在当前环境下执行
-                .subscribe(
-                        chapterInfo -> {
-                            //TODO:这里文件的名字用的是BookChapter的title,而不是chapter的title。
-                            //原因是Chapter的title可能重复，但是BookChapter的title不会重复
-                            //BookChapter的title = 卷名 + 章节名 chapter 的 title 就是章节名。。
-                            BookRepository.getInstance().saveChapterInfo(folderName, bean.getTitle(), chapterInfo.getBody());
-                        },
-                        e -> {
-                            //当前进度加载错误（这里需要判断是什么问题，根据相应的问题做出相应的回答）
-                            Log.e(TAG, "loadChapter: " + e);
-                            //设置加载结果
-                            result[0] = LOAD_ERROR;
-                        }
-                );
-        addDisposable(disposable);
-        return result[0];
+    private String getErrorMessage(int error) {
+        switch (error) {
+            case DownloadTaskBean.ERROR_NETWORK:
+                return getString(R.string.download_error_network);
+            case DownloadTaskBean.ERROR_SERVER:
+                return getString(R.string.download_error_server);
+            case DownloadTaskBean.ERROR_EMPTY:
+                return getString(R.string.download_error_empty);
+            case DownloadTaskBean.ERROR_STORAGE:
+                return getString(R.string.download_error_storage);
+            default:
+                return getString(R.string.download_error);
+        }
     }
 
     private void postDownloadChange(DownloadTaskBean task, int status, String msg) {
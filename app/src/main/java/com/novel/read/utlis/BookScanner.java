@@ -0,0 +1,298 @@
+package com.novel.read.utlis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+
+/**
+ * Created by zlj
+ * 本地书籍的扫描。
+ * <p>
+ * 使用固定大小的线程池并行遍历目录，每个目录中找到的书籍立即发送给订阅者，取消订阅时停止扫描。
+ * 每个目录的子目录和书籍以目录的路径和修改时间作为 key 缓存到文件中，再次扫描时修改时间没有变化的目录
+ * 不需要重新列出文件，只检查子目录的修改时间。
+ */
+public class BookScanner {
+    private static final int MAGIC = 0x5A4C4253;
+    private static final int VERSION = 1;
+    private static final String CACHE_FILE = "book_scan";
+    //并行扫描的线程数
+    private static final int THREAD_COUNT = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static volatile BookScanner sInstance;
+
+    //目录的路径 -> 目录的扫描结果
+    private Map<String, DirEntry> mCache;
+    //缓存对应的文件后缀
+    private String mCacheSuffixes;
+
+    private BookScanner() {
+    }
+
+    public static BookScanner getInstance() {
+        if (sInstance == null) {
+            synchronized (BookScanner.class) {
+                if (sInstance == null) {
+                    sInstance = new BookScanner();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 扫描目录及其所有子目录 (不包括隐藏目录)，每个目录中找到的书籍作为一批发送
+     *
+     * @param suffixes:书籍的文件后缀，如 {@link FileUtils#SUFFIX_TXT}
+     */
+    public Observable<List<File>> scan(String rootPath, String... suffixes) {
+        return Observable.create(e -> new Scan(e.serialize(), suffixes).start(new File(rootPath)));
+    }
+
+    /******************************缓存**********************************/
+
+    private synchronized Map<String, DirEntry> getCache(String suffixes) {
+        if (mCache == null) {
+            mCache = loadCache();
+        }
+        if (!suffixes.equals(mCacheSuffixes)) {
+            //扫描的文件类型不同，缓存的书籍不可用
+            mCache = new HashMap<>();
+            mCacheSuffixes = suffixes;
+        }
+        return new HashMap<>(mCache);
+    }
+
+    /**
+     * 保存完整扫描的结果，已经不存在的目录不再保留
+     */
+    private synchronized void saveCache(String suffixes, Map<String, DirEntry> entries) {
+        mCache = new HashMap<>(entries);
+        mCacheSuffixes = suffixes;
+
+        DataOutputStream out = null;
+        File file = new File(FileUtils.getCachePath(), CACHE_FILE);
+        File tmp = new File(FileUtils.getCachePath(), CACHE_FILE + ".tmp");
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(suffixes);
+            out.writeInt(mCache.size());
+            for (Map.Entry<String, DirEntry> entry : mCache.entrySet()) {
+                DirEntry dir = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(dir.lastModified);
+                writeNames(out, dir.dirs);
+                writeNames(out, dir.books);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.INSTANCE.close(out);
+        }
+    }
+
+    private Map<String, DirEntry> loadCache() {
+        Map<String, DirEntry> cache = new HashMap<>();
+        File file = new File(FileUtils.getCachePath(), CACHE_FILE);
+        if (!file.exists()) {
+            return cache;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            String suffixes = in.readUTF();
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                cache.put(path, new DirEntry(lastModified, readNames(in), readNames(in)));
+            }
+            mCacheSuffixes = suffixes;
+        } catch (IOException e) {
+            e.printStackTrace();
+            cache.clear();
+        } finally {
+            IOUtils.INSTANCE.close(in);
+        }
+        return cache;
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    /**
+     * 目录的扫描结果
+     */
+    private static final class DirEntry {
+        final long lastModified;
+        //子目录的名字
+        final String[] dirs;
+        //书籍的文件名
+        final String[] books;
+
+        DirEntry(long lastModified, String[] dirs, String[] books) {
+            this.lastModified = lastModified;
+            this.dirs = dirs;
+            this.books = books;
+        }
+    }
+
+    /******************************扫描**********************************/
+
+    /**
+     * 一次扫描
+     */
+    private final class Scan {
+        private final ObservableEmitter<List<File>> mEmitter;
+        private final String[] mSuffixes;
+        private final String mSuffixKey;
+        private final Map<String, DirEntry> mOldEntries;
+        //本次扫描的结果
+        private final Map<String, DirEntry> mEntries = new ConcurrentHashMap<>();
+        //已经扫描的目录 (真实路径)，防止符号链接造成的循环
+        private final Set<String> mVisited = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        //还没有扫描完成的目录数
+        private final AtomicInteger mPending = new AtomicInteger();
+        private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        Scan(ObservableEmitter<List<File>> emitter, String[] suffixes) {
+            mEmitter = emitter;
+            mSuffixes = new String[suffixes.length];
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < suffixes.length; ++i) {
+                mSuffixes[i] = suffixes[i].toLowerCase();
+                key.append(mSuffixes[i]).append(';');
+            }
+            mSuffixKey = key.toString();
+            mOldEntries = getCache(mSuffixKey);
+        }
+
+        void start(File root) {
+            //取消时中断扫描，未完成的扫描不更新缓存
+            mEmitter.setCancellable(mExecutor::shutdownNow);
+            submit(root);
+        }
+
+        private void submit(File dir) {
+            mPending.incrementAndGet();
+            try {
+                mExecutor.execute(() -> scanDir(dir));
+            } catch (RejectedExecutionException e) {
+                //已经取消
+                mPending.decrementAndGet();
+            }
+        }
+
+        private void scanDir(File dir) {
+            try {
+                if (!mEmitter.isDisposed()) {
+                    visit(dir);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                if (mPending.decrementAndGet() == 0 && !mEmitter.isDisposed()) {
+                    mExecutor.shutdown();
+                    saveCache(mSuffixKey, mEntries);
+                    mEmitter.onComplete();
+                }
+            }
+        }
+
+        private void visit(File dir) throws IOException {
+            if (!mVisited.add(dir.getCanonicalPath())) {
+                return;
+            }
+            String path = dir.getAbsolutePath();
+            long lastModified = dir.lastModified();
+            DirEntry entry = mOldEntries.get(path);
+            if (entry == null || entry.lastModified != lastModified) {
+                entry = list(dir, lastModified);
+            }
+            mEntries.put(path, entry);
+
+            for (String name : entry.dirs) {
+                submit(new File(dir, name));
+            }
+            if (entry.books.length > 0) {
+                List<File> books = new ArrayList<>(entry.books.length);
+                for (String name : entry.books) {
+                    books.add(new File(dir, name));
+                }
+                mEmitter.onNext(books);
+            }
+        }
+
+        //列出目录中的子目录和书籍
+        private DirEntry list(File dir, long lastModified) {
+            List<String> dirs = new ArrayList<>();
+            List<String> books = new ArrayList<>();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.startsWith(".")) {
+                        continue;
+                    }
+                    if (isBook(name) && file.isFile()) {
+                        books.add(name);
+                    } else if (file.isDirectory()) {
+                        dirs.add(name);
+                    }
+                }
+            }
+            return new DirEntry(lastModified, dirs.toArray(new String[0]), books.toArray(new String[0]));
+        }
+
+        private boolean isBook(String name) {
+            String lower = name.toLowerCase();
+            for (String suffix : mSuffixes) {
+                if (lower.endsWith(suffix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
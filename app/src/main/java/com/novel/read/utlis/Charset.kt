@@ -7,7 +7,9 @@ enum class Charset private constructor(var code: String) {
     UTF8("UTF-8"),
     UTF16LE("UTF-16LE"),
     UTF16BE("UTF-16BE"),
-    GBK("GBK");
+    GBK("GBK"),
+    GB18030("GB18030"),
+    BIG5("Big5");
 
 
     companion object {
@@ -0,0 +1,319 @@
+package com.novel.read.utlis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Created by zlj
+ * 文件编码检测。
+ * <p>
+ * 只读取文件开头、中间和结尾的几个固定大小的块，分别按照 UTF-16、UTF-8、GBK/GB18030、Big5 的编码规则
+ * 统计合法与非法的字节序列以及常用字所在区间的出现频率，得出最可能的编码以及可信度。
+ * 检测时间与文件大小无关。
+ */
+public class CharsetDetector {
+    //每个采样块的大小
+    private static final int BLOCK_SIZE = 16 * 1024;
+    //采样块的个数
+    private static final int BLOCK_COUNT = 3;
+
+    /**
+     * 检测结果
+     */
+    public static class Result {
+        public final Charset charset;
+        //可信度 [0, 1]
+        public final float confidence;
+
+        Result(Charset charset, float confidence) {
+            this.charset = charset;
+            this.confidence = Math.max(0f, Math.min(1f, confidence));
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "charset=" + charset +
+                    ", confidence=" + confidence +
+                    '}';
+        }
+    }
+
+    public static Result detect(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            byte[] buffer;
+            int[] starts;
+            if (length <= BLOCK_SIZE * BLOCK_COUNT) {
+                //文件较小时读取整个文件
+                buffer = new byte[(int) length];
+                raf.readFully(buffer);
+                starts = new int[]{0};
+            } else {
+                //读取开头、中间、结尾的块，起始位置与 2 字节对齐
+                buffer = new byte[BLOCK_SIZE * BLOCK_COUNT];
+                starts = new int[BLOCK_COUNT];
+                for (int i = 0; i < BLOCK_COUNT; ++i) {
+                    long offset = (length - BLOCK_SIZE) * i / (BLOCK_COUNT - 1) & ~1L;
+                    raf.seek(offset);
+                    raf.readFully(buffer, i * BLOCK_SIZE, BLOCK_SIZE);
+                    starts[i] = i * BLOCK_SIZE;
+                }
+            }
+            return detect(buffer, starts, length <= BLOCK_SIZE * BLOCK_COUNT ? buffer.length : BLOCK_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.INSTANCE.close(raf);
+        }
+        return new Result(Charset.GBK, 0f);
+    }
+
+    /**
+     * @param starts:每个采样块在 buffer 中的起始位置，第一个块为文件的开头
+     * @param blockSize:采样块的大小
+     */
+    static Result detect(byte[] buffer, int[] starts, int blockSize) {
+        if (buffer.length == 0) {
+            return new Result(Charset.GBK, 0f);
+        }
+
+        // BOM
+        if (buffer.length >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+            return new Result(Charset.UTF8, 1f);
+        }
+        if (buffer.length >= 2 && (buffer[0] & 0xFF) == 0xFF && (buffer[1] & 0xFF) == 0xFE) {
+            return new Result(Charset.UTF16LE, 1f);
+        }
+        if (buffer.length >= 2 && (buffer[0] & 0xFF) == 0xFE && (buffer[1] & 0xFF) == 0xFF) {
+            return new Result(Charset.UTF16BE, 1f);
+        }
+
+        // UTF-16：按照两种字节序组合成字符，统计其中常用字符 (ASCII、中日韩汉字、标点、全角字符) 的比例，
+        // 并且需要存在换行符 (单字节编码中不会出现 0x00)
+        int leCommon = 0;
+        int beCommon = 0;
+        int leLines = 0;
+        int beLines = 0;
+        int units = 0;
+        for (int start : starts) {
+            int end = Math.min(buffer.length, start + blockSize);
+            for (int i = start; i + 1 < end; i += 2) {
+                int b0 = buffer[i] & 0xFF;
+                int b1 = buffer[i + 1] & 0xFF;
+                if (isCommonChar(b1 << 8 | b0)) {
+                    ++leCommon;
+                }
+                if (isCommonChar(b0 << 8 | b1)) {
+                    ++beCommon;
+                }
+                if (b0 == '\n' && b1 == 0) {
+                    ++leLines;
+                } else if (b0 == 0 && b1 == '\n') {
+                    ++beLines;
+                }
+                ++units;
+            }
+        }
+        if (units > 0) {
+            float leRatio = leLines > 0 ? leCommon / (float) units : 0f;
+            float beRatio = beLines > 0 ? beCommon / (float) units : 0f;
+            if (Math.max(leRatio, beRatio) > 0.9f) {
+                return leRatio >= beRatio ? new Result(Charset.UTF16LE, leRatio) : new Result(Charset.UTF16BE, beRatio);
+            }
+        }
+
+        // 多字节编码：统计每个块中的字节序列
+        Stats stats = new Stats();
+        for (int b = 0; b < starts.length; ++b) {
+            int start = starts[b];
+            int end = Math.min(buffer.length, start + blockSize);
+            //中间的块从换行符之后开始，防止从多字节字符的中间开始
+            if (b > 0) {
+                while (start < end && buffer[start] != '\n') {
+                    ++start;
+                }
+                ++start;
+            }
+            scanUtf8(buffer, start, end, stats);
+            scanGbk(buffer, start, end, stats);
+            scanBig5(buffer, start, end, stats);
+        }
+
+        // UTF-8 的规则最严格，没有非法序列时就是 UTF-8
+        if (stats.utf8Valid > 0 && stats.utf8Invalid * 100 <= stats.utf8Valid) {
+            float confidence = 1f - (stats.utf8Invalid + 1f) / (stats.utf8Valid + 1f);
+            return new Result(Charset.UTF8, confidence);
+        }
+        //只有 ASCII 字符，使用任何编码都可以
+        if (stats.gbkValid == 0 && stats.big5Valid == 0) {
+            return new Result(stats.utf8Invalid > 0 ? Charset.GBK : Charset.UTF8, 0f);
+        }
+
+        float gbkRatio = stats.gbkValid / (float) (stats.gbkValid + stats.gbkInvalid);
+        float big5Ratio = stats.big5Valid / (float) (stats.big5Valid + stats.big5Invalid);
+        //简体中文的常用字集中在 GB2312 的汉字区
+        float gbCommon = stats.gb2312 / (float) Math.max(1, stats.gbkValid);
+        //Big5 的常用字有相当一部分的低位字节在 0x40 - 0x7E，而 GB2312 中没有
+        float big5Common = stats.big5LowTrail / (float) Math.max(1, stats.big5Valid);
+
+        float gbkScore = gbkRatio * (0.5f + 0.5f * gbCommon);
+        float big5Score = big5Ratio * (0.5f + 0.5f * Math.min(1f, big5Common * 2.5f))
+                //GBK 中扩展区的首字节 (0x81 - 0xA0) 不会出现在 Big5 中
+                * (stats.gbkExtLead > 0 ? 0.5f : 1f);
+        if (big5Score > gbkScore) {
+            return new Result(Charset.BIG5, big5Score);
+        }
+        //出现 GB18030 的四字节序列
+        if (stats.gb18030 > 0) {
+            return new Result(Charset.GB18030, gbkScore);
+        }
+        return new Result(Charset.GBK, gbkScore);
+    }
+
+    private static boolean isCommonChar(int c) {
+        return (c >= 0x09 && c <= 0x0D) || (c >= 0x20 && c <= 0x7E)
+                || (c >= 0x4E00 && c <= 0x9FFF)
+                || (c >= 0x2000 && c <= 0x206F)
+                || (c >= 0x3000 && c <= 0x303F)
+                || (c >= 0xFF00 && c <= 0xFFEF);
+    }
+
+    private static void scanUtf8(byte[] buffer, int start, int end, Stats stats) {
+        int i = start;
+        while (i < end) {
+            int c = buffer[i] & 0xFF;
+            if (c < 0x80) {
+                ++i;
+                continue;
+            }
+            int length;
+            if (c >= 0xC2 && c <= 0xDF) {
+                length = 2;
+            } else if (c >= 0xE0 && c <= 0xEF) {
+                length = 3;
+            } else if (c >= 0xF0 && c <= 0xF4) {
+                length = 4;
+            } else {
+                ++stats.utf8Invalid;
+                ++i;
+                continue;
+            }
+            //块结尾被截断的字符
+            if (i + length > end) {
+                break;
+            }
+            boolean valid = true;
+            for (int j = 1; j < length; ++j) {
+                if ((buffer[i + j] & 0xC0) != 0x80) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) {
+                ++stats.utf8Valid;
+                i += length;
+            } else {
+                ++stats.utf8Invalid;
+                ++i;
+            }
+        }
+    }
+
+    private static void scanGbk(byte[] buffer, int start, int end, Stats stats) {
+        int i = start;
+        while (i < end) {
+            int c = buffer[i] & 0xFF;
+            if (c < 0x80) {
+                ++i;
+                continue;
+            }
+            if (c == 0x80 || c == 0xFF) {
+                ++stats.gbkInvalid;
+                ++i;
+                continue;
+            }
+            if (i + 1 >= end) {
+                break;
+            }
+            int c2 = buffer[i + 1] & 0xFF;
+            if (c2 >= 0x40 && c2 <= 0xFE && c2 != 0x7F) {
+                ++stats.gbkValid;
+                if (c >= 0xB0 && c <= 0xF7 && c2 >= 0xA1) {
+                    ++stats.gb2312;
+                } else if (c <= 0xA0) {
+                    ++stats.gbkExtLead;
+                }
+                i += 2;
+            } else if (c2 >= 0x30 && c2 <= 0x39) {
+                // GB18030 四字节
+                if (i + 3 >= end) {
+                    break;
+                }
+                int c3 = buffer[i + 2] & 0xFF;
+                int c4 = buffer[i + 3] & 0xFF;
+                if (c3 >= 0x81 && c3 <= 0xFE && c4 >= 0x30 && c4 <= 0x39) {
+                    ++stats.gbkValid;
+                    ++stats.gb18030;
+                    i += 4;
+                } else {
+                    ++stats.gbkInvalid;
+                    ++i;
+                }
+            } else {
+                ++stats.gbkInvalid;
+                ++i;
+            }
+        }
+    }
+
+    private static void scanBig5(byte[] buffer, int start, int end, Stats stats) {
+        int i = start;
+        while (i < end) {
+            int c = buffer[i] & 0xFF;
+            if (c < 0x80) {
+                ++i;
+                continue;
+            }
+            if (c < 0x81 || c == 0xFF) {
+                ++stats.big5Invalid;
+                ++i;
+                continue;
+            }
+            if (i + 1 >= end) {
+                break;
+            }
+            int c2 = buffer[i + 1] & 0xFF;
+            if ((c2 >= 0x40 && c2 <= 0x7E) || (c2 >= 0xA1 && c2 <= 0xFE)) {
+                ++stats.big5Valid;
+                if (c2 <= 0x7E && c >= 0xA4 && c <= 0xF9) {
+                    ++stats.big5LowTrail;
+                }
+                i += 2;
+            } else {
+                ++stats.big5Invalid;
+                ++i;
+            }
+        }
+    }
+
+    private static class Stats {
+        int utf8Valid;
+        int utf8Invalid;
+        int gbkValid;
+        int gbkInvalid;
+        //GB2312 汉字区的字符数
+        int gb2312;
+        //GBK 扩展区的字符数
+        int gbkExtLead;
+        //GB18030 四字节的字符数
+        int gb18030;
+        int big5Valid;
+        int big5Invalid;
+        //低位字节在 0x40 - 0x7E 的 Big5 常用字数
+        int big5LowTrail;
+    }
+}
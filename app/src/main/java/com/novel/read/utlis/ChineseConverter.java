@@ -0,0 +1,158 @@
+package com.novel.read.utlis;
+
+import com.spreada.utils.chinese.ZHConverter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Created by zlj
+ * 繁简转换。
+ * <p>
+ * 使用 ZHConverter 自带的字典，将字典构建成字典树，转换时按字符区间进行最长匹配，
+ * 不需要为每一个字符创建字符串，也不需要 ZHConverter 转换时的栈操作。
+ */
+public class ChineseConverter {
+    public static final int TRADITIONAL = 0;
+    public static final int SIMPLIFIED = 1;
+
+    private static final String[] PROPERTY_FILES = {"zh2Hant.properties", "zh2Hans.properties"};
+    private static final int BLOCK_SIZE = 256;
+
+    private static final ChineseConverter[] sConverters = new ChineseConverter[PROPERTY_FILES.length];
+
+    //字典树的第一层，按字符的高位分块
+    private final Node[][] mRoots = new Node[0x10000 / BLOCK_SIZE][];
+
+    public static ChineseConverter getInstance(int type) {
+        synchronized (sConverters) {
+            if (sConverters[type] == null) {
+                sConverters[type] = new ChineseConverter(PROPERTY_FILES[type]);
+            }
+            return sConverters[type];
+        }
+    }
+
+    private ChineseConverter(String propertyFile) {
+        Properties properties = new Properties();
+        InputStream is = null;
+        try {
+            is = ZHConverter.class.getResourceAsStream(propertyFile);
+            if (is != null) {
+                properties.load(is);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.INSTANCE.close(is);
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.isEmpty()) continue;
+            put(key, properties.getProperty(key));
+        }
+    }
+
+    private void put(String key, String value) {
+        char first = key.charAt(0);
+        Node[] block = mRoots[first / BLOCK_SIZE];
+        if (block == null) {
+            block = new Node[BLOCK_SIZE];
+            mRoots[first / BLOCK_SIZE] = block;
+        }
+        Node node = block[first % BLOCK_SIZE];
+        if (node == null) {
+            node = new Node();
+            block[first % BLOCK_SIZE] = node;
+        }
+        for (int i = 1; i < key.length(); ++i) {
+            node = node.getOrAddChild(key.charAt(i));
+        }
+        node.value = value;
+    }
+
+    private Node getRoot(char c) {
+        Node[] block = mRoots[c / BLOCK_SIZE];
+        return block == null ? null : block[c % BLOCK_SIZE];
+    }
+
+    public String convert(String input) {
+        if (input == null || input.isEmpty()) {
+            return "";
+        }
+        char[] text = input.toCharArray();
+        StringBuilder builder = new StringBuilder(text.length);
+        convert(text, 0, text.length, builder);
+        return builder.toString();
+    }
+
+    /**
+     * 转换 text 中 [start, end) 的字符，结果追加到 out 中
+     */
+    public void convert(char[] text, int start, int end, StringBuilder out) {
+        int i = start;
+        while (i < end) {
+            Node node = getRoot(text[i]);
+            if (node == null) {
+                out.append(text[i++]);
+                continue;
+            }
+
+            // 最长匹配
+            String value = node.value;
+            int matchEnd = value == null ? -1 : i + 1;
+            for (int j = i + 1; j < end; ++j) {
+                node = node.getChild(text[j]);
+                if (node == null) {
+                    break;
+                }
+                if (node.value != null) {
+                    value = node.value;
+                    matchEnd = j + 1;
+                }
+            }
+
+            if (matchEnd == -1) {
+                out.append(text[i++]);
+            } else {
+                out.append(value);
+                i = matchEnd;
+            }
+        }
+    }
+
+    private static class Node {
+        //子节点的字符 (有序) 以及对应的子节点
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        //从根节点到此节点组成的词对应的转换结果
+        String value;
+
+        Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            Node node = new Node();
+            newKeys[index] = c;
+            newChildren[index] = node;
+            keys = newKeys;
+            children = newChildren;
+            return node;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import android.os.Environment
 import com.novel.read.model.db.BookChapterBean
 import com.novel.read.model.db.CollBookBean
 import com.novel.read.model.db.SearchListTable
+import com.novel.read.model.db.dbManage.BookCacheManager
 
 import org.litepal.LitePal
 
@@ -75,6 +76,8 @@ class CleanCacheUtils {
          * 删除缓存
          */
         fun clearAllCache(context: Context) {
+            //章节缓存在缓存目录中，先关闭打开的章节存储
+            BookCacheManager.getInstance().clear()
             deleteDir(context.cacheDir)
             if (Environment.getExternalStorageState() == Environment.MEDIA_MOUNTED) {
                 deleteDir(context.externalCacheDir)
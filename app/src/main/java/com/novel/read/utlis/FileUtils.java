@@ -4,11 +4,8 @@ import android.os.Environment;
 
 import com.novel.read.base.MyApp;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -17,9 +14,8 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.reactivex.Observable;
 import io.reactivex.Single;
-import io.reactivex.SingleEmitter;
-import io.reactivex.SingleOnSubscribe;
 
 /**
  * Created by zlj
@@ -155,110 +151,26 @@ public class FileUtils {
         file.delete();
     }
 
-    //由于递归的耗时问题，取巧只遍历内部三层
-
-    //获取txt文件
-    public static List<File> getTxtFiles(String filePath, int layer){
-        final List txtFiles = new ArrayList();
-        File file = new File(filePath);
-
-        //如果层级为 3，则直接返回
-        if (layer == 3){
-            return txtFiles;
-        }
-
-        //获取文件夹
-        File[] dirs = file.listFiles(
-                new FileFilter() {
-                    @Override
-                    public boolean accept(File pathname) {
-                        if (pathname.isDirectory() && !pathname.getName().startsWith(".")) {
-                            return true;
-                        }
-                        //获取txt文件
-                        else if (pathname.getName().endsWith(".txt")) {
-                            txtFiles.add(pathname);
-                            return false;
-                        } else {
-                            return false;
-                        }
-                    }
-                }
-        );
-        //遍历文件夹
-        for (File dir : dirs){
-            //递归遍历txt文件
-            txtFiles.addAll(getTxtFiles(dir.getPath(),layer + 1));
-        }
-        return txtFiles;
+    //扫描外部存储中的书籍 (所有层级)，每找到一个目录中的书籍发送一次，取消订阅时停止扫描
+    public static Observable<List<File>> scanSDBookFiles(){
+        //外部存储卡路径
+        final String rootPath = Environment.getExternalStorageDirectory().getPath();
+        return BookScanner.getInstance().scan(rootPath, SUFFIX_TXT, SUFFIX_EPUB);
     }
 
     //由于遍历比较耗时
     public static Single<List<File>> getSDTxtFile(){
-        //外部存储卡路径
-        final String rootPath = Environment.getExternalStorageDirectory().getPath();
-        return Single.create(new SingleOnSubscribe<List<File>>() {
-            @Override
-            public void subscribe(SingleEmitter<List<File>> e) throws Exception {
-                List<File> files = getTxtFiles(rootPath,0);
-                e.onSuccess(files);
-            }
-        });
+        return scanSDBookFiles()
+                .reduce(new ArrayList<File>(), (files, found) -> {
+                    files.addAll(found);
+                    return files;
+                })
+                .map(files -> (List<File>) files);
     }
 
     //获取文件的编码格式
     public static Charset getCharset(String fileName) {
-        BufferedInputStream bis = null;
-        Charset charset = Charset.GBK;
-        byte[] first3Bytes = new byte[3];
-        try {
-            boolean checked = false;
-            bis = new BufferedInputStream(new FileInputStream(fileName));
-            bis.mark(0);
-            int read = bis.read(first3Bytes, 0, 3);
-            if (read == -1)
-                return charset;
-            if (first3Bytes[0] == (byte) 0xEF
-                    && first3Bytes[1] == (byte) 0xBB
-                    && first3Bytes[2] == (byte) 0xBF) {
-                charset = Charset.UTF8;
-                checked = true;
-            }
-
-            bis.mark(0);
-            if (!checked) {
-                while ((read = bis.read()) != -1) {
-                    if (read >= 0xF0)
-                        break;
-                    if (0x80 <= read && read <= 0xBF) // 单独出现BF以下的，也算是GBK
-                        break;
-                    if (0xC0 <= read && read <= 0xDF) {
-                        read = bis.read();
-                        if (0x80 <= read && read <= 0xBF) // 双字节 (0xC0 - 0xDF)
-                            // (0x80 - 0xBF),也可能在GB编码内
-                            continue;
-                        else
-                            break;
-                    } else if (0xE0 <= read) {// 也有可能出错，但是几率较小
-                        read = bis.read();
-                        if (0x80 <= read && read <= 0xBF) {
-                            read = bis.read();
-                            if (0x80 <= read && read <= 0xBF) {
-                                charset = Charset.UTF8;
-                                break;
-                            } else
-                                break;
-                        } else
-                            break;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            IOUtils.INSTANCE.close(bis);
-        }
-        return charset;
+        return CharsetDetector.detect(new File(fileName)).charset;
     }
 
     public static boolean isSdCardAvailable() {
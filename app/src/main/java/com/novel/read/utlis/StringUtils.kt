@@ -3,10 +3,26 @@ package com.novel.read.utlis
 import android.text.TextUtils
 import com.novel.read.widget.page.ReadSettingManager.Companion.SHARED_READ_CONVERT_TYPE
 
-import com.spreada.utils.chinese.ZHConverter
-
 object StringUtils {
 
+    @Volatile
+    private var mConvertType = -1
+
+    /**
+     * 繁简转换的类型，0 表示不转换。
+     * 第一次使用时从 SharedPreferences 读取，之后使用内存中的值，修改设置时需要同步更新
+     */
+    var convertType: Int
+        get() {
+            if (mConvertType == -1) {
+                mConvertType = SpUtil.getIntValue(SHARED_READ_CONVERT_TYPE, 1)
+            }
+            return mConvertType
+        }
+        set(convertType) {
+            mConvertType = convertType
+        }
+
     /**
      * 将文本中的半角字符，转换成全角字符
      */
@@ -33,6 +49,10 @@ object StringUtils {
 
     private fun deleteImgs(content: String?): String {
         return if (content != null && !TextUtils.isEmpty(content)) {
+            // 不包含需要处理的字符时，直接返回
+            if (content.none { it == '&' || it == '<' || it == '>' || it == '(' || it == ')' || it == '/' }) {
+                return content
+            }
             // 去掉所有html元素,
             var str =
                 content.replace("&[a-zA-Z]{1,10};".toRegex(), "").replace("<[^>]*>".toRegex(), "")
@@ -54,12 +74,10 @@ object StringUtils {
 
     //繁簡轉換
     fun convertCC(input: String): String {
-        val convertType = SpUtil.getIntValue(SHARED_READ_CONVERT_TYPE, 1)
-
         if (input.isEmpty())
             return ""
 
-        return if (convertType != 0) ZHConverter.getInstance(ZHConverter.TRADITIONAL).convert(input) else input
+        return if (convertType != 0) ChineseConverter.getInstance(ChineseConverter.TRADITIONAL).convert(input) else input
     }
 
 }
@@ -0,0 +1,55 @@
+package com.novel.read.widget.page;
+
+/**
+ * Created by zlj
+ * 书内搜索的结果
+ */
+public class BookSearchHit {
+    //章节序号
+    private final int chapterPos;
+    //章节名
+    private final String chapterTitle;
+    //匹配的文字在章节 (规范化后的) 文本中的位置
+    private final int offset;
+    //匹配的文字的长度
+    private final int length;
+    //匹配位置附近的文字
+    private final String snippet;
+
+    BookSearchHit(int chapterPos, String chapterTitle, int offset, int length, String snippet) {
+        this.chapterPos = chapterPos;
+        this.chapterTitle = chapterTitle;
+        this.offset = offset;
+        this.length = length;
+        this.snippet = snippet;
+    }
+
+    public int getChapterPos() {
+        return chapterPos;
+    }
+
+    public String getChapterTitle() {
+        return chapterTitle == null ? "" : chapterTitle;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getSnippet() {
+        return snippet == null ? "" : snippet;
+    }
+
+    @Override
+    public String toString() {
+        return "BookSearchHit{" +
+                "chapterPos=" + chapterPos +
+                ", offset=" + offset +
+                ", snippet='" + snippet + '\'' +
+                '}';
+    }
+}
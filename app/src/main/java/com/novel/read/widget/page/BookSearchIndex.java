@@ -0,0 +1,882 @@
+package com.novel.read.widget.page;
+
+import com.novel.read.constants.Constant;
+import com.novel.read.utlis.FileUtils;
+import com.novel.read.utlis.IOUtils;
+import com.novel.read.utlis.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Created by zlj
+ * 书内搜索的倒排索引，保存在书籍的分页索引目录下。
+ * <p>
+ * 对章节规范化后的文本 (与排版使用的文本相同) 建立索引：连续的汉字按照相邻的两个字 (bigram) 作为词，
+ * 字母和数字按照连续的单词作为词 (不区分大小写和全角半角)。每个词记录出现过的章节。
+ * 单词按照字符的顺序编码 (最多前 10 个字符)，以某个前缀开头的单词是一段连续的范围。
+ * <p>
+ * 索引由若干个段组成，每次建立索引的章节写入一个新的段，段的数量过多时合并成一个段。
+ * 段文件的格式为：[MAGIC, 词数, (词, 章节列表的位置) ..., 章节列表的结束位置, 章节列表 ...]，
+ * 词按照从小到大的顺序排列，查询时在文件中二分查找，不需要把索引读入内存。
+ * <p>
+ * 查询时先用索引求出包含所有词的章节，再在这些章节的文本中查找关键字得到具体的位置。
+ */
+final class BookSearchIndex {
+    private static final int MAGIC = 0x5A4C5349;
+    private static final int VERSION = 2;
+    private static final String META_FILE = "meta";
+    private static final String SEGMENT_PREFIX = "seg_";
+    private static final String SUFFIX_TMP = ".tmp";
+    //每个段最多包含的章节数
+    private static final int BATCH_SIZE = 256;
+    //段的数量超过这个值时合并
+    private static final int MAX_SEGMENT_COUNT = 8;
+    //段文件的头部 [MAGIC, 词数]
+    private static final int SEGMENT_HEADER = 8;
+    //段文件中每个词的大小 [词, 章节列表的位置]
+    private static final int ENTRY_SIZE = 12;
+    //字母和数字组成的词的标记，与汉字的 bigram (32位以内) 区分
+    private static final long LATIN_FLAG = 1L << 60;
+    //单词编码的字符数，每个字符 6 位，更长的单词只取前面的字符
+    private static final int LATIN_KEY_LENGTH = 10;
+    private static final int LATIN_CHAR_BITS = 6;
+    //结果附近展示的字数
+    private static final int SNIPPET_BEFORE = 12;
+    private static final int SNIPPET_AFTER = 24;
+
+    /**
+     * 获取章节规范化后的文本
+     */
+    interface ChapterSource {
+        /**
+         * @return 章节还没有缓存时返回 null
+         */
+        ChapterText getChapterText(int chapterPos) throws Exception;
+    }
+
+    private final File mDir;
+    private boolean isLoaded;
+    //建立索引时的繁简转换设置
+    private int mConvertType;
+    //已建立索引的章节的校验值，0 表示没有建立索引
+    private int[] mChapterKeys = new int[0];
+    private int mSegmentCount;
+
+    BookSearchIndex(String bookId) {
+        mDir = new File(Constant.PAGE_INDEX_PATH + bookId + File.separator + "search");
+    }
+
+    /**
+     * 为还没有建立索引 (或者内容发生了变化) 的章节建立索引，可以被中断，已完成的部分会保留
+     */
+    synchronized void update(List<TxtChapter> chapters, ChapterSource source) throws Exception {
+        load();
+        int convertType = StringUtils.INSTANCE.getConvertType();
+        if (convertType != mConvertType) {
+            //繁简转换的设置发生变化，文本也就不同了，重新建立索引
+            reset(convertType);
+        }
+
+        int[] keys = Arrays.copyOf(mChapterKeys, chapters.size());
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < chapters.size(); ++i) {
+            int key = chapterKey(chapters.get(i));
+            if (keys[i] != key) {
+                keys[i] = 0;
+                pending.add(i);
+            }
+        }
+        boolean isChanged = keys.length != mChapterKeys.length;
+        mChapterKeys = keys;
+
+        SegmentBuilder builder = new SegmentBuilder();
+        for (int pos : pending) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            ChapterText text = source.getChapterText(pos);
+            if (text == null || text.isReadError) {
+                continue;
+            }
+            builder.add(pos, text);
+            mChapterKeys[pos] = chapterKey(chapters.get(pos));
+            if (builder.chapterCount >= BATCH_SIZE) {
+                flush(builder);
+                builder = new SegmentBuilder();
+                isChanged = false;
+            }
+        }
+        if (builder.chapterCount > 0) {
+            flush(builder);
+        } else if (isChanged) {
+            saveMeta();
+        }
+        if (mSegmentCount > MAX_SEGMENT_COUNT && !Thread.currentThread().isInterrupted()) {
+            merge();
+        }
+    }
+
+    /**
+     * 搜索关键字，结果按照章节和位置的顺序排列
+     *
+     * @param maxCount:最多返回的结果数
+     */
+    synchronized List<BookSearchHit> search(List<TxtChapter> chapters, String keyword,
+                                            int maxCount, ChapterSource source) throws Exception {
+        List<BookSearchHit> hits = new ArrayList<>();
+        char[] query = normalizeQuery(keyword);
+        if (query.length == 0) {
+            return hits;
+        }
+        load();
+
+        //包含所有词的章节
+        BitSet candidates = new BitSet(chapters.size());
+        for (int i = 0; i < Math.min(chapters.size(), mChapterKeys.length); ++i) {
+            if (mChapterKeys[i] != 0) {
+                candidates.set(i);
+            }
+        }
+        for (long[] range : queryTerms(query)) {
+            BitSet matched = new BitSet(chapters.size());
+            for (int i = 0; i < mSegmentCount; ++i) {
+                readPostings(segmentFile(i), range[0], range[1], matched);
+            }
+            candidates.and(matched);
+            if (candidates.isEmpty()) {
+                return hits;
+            }
+        }
+
+        //在章节的文本中确认
+        for (int pos = candidates.nextSetBit(0); pos >= 0 && pos < chapters.size(); pos = candidates.nextSetBit(pos + 1)) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            ChapterText text = source.getChapterText(pos);
+            if (text == null) {
+                continue;
+            }
+            int offset = indexOf(text.text, query, 0);
+            while (offset != -1) {
+                hits.add(new BookSearchHit(pos, text.title, offset, query.length, snippet(text.text, offset, query.length)));
+                if (hits.size() >= maxCount) {
+                    return hits;
+                }
+                offset = indexOf(text.text, query, offset + query.length);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 删除索引
+     */
+    synchronized void delete() {
+        FileUtils.deleteFile(mDir.getAbsolutePath());
+        isLoaded = false;
+        mChapterKeys = new int[0];
+        mSegmentCount = 0;
+    }
+
+    /******************************索引文件**********************************/
+
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        mConvertType = -1;
+        mChapterKeys = new int[0];
+        mSegmentCount = 0;
+        File file = new File(mDir, META_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int convertType = in.readInt();
+            int[] keys = new int[in.readInt()];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = in.readInt();
+            }
+            int segmentCount = in.readInt();
+            mConvertType = convertType;
+            mChapterKeys = keys;
+            mSegmentCount = segmentCount;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.INSTANCE.close(in);
+        }
+    }
+
+    private void reset(int convertType) {
+        FileUtils.deleteFile(mDir.getAbsolutePath());
+        mConvertType = convertType;
+        mChapterKeys = new int[0];
+        mSegmentCount = 0;
+    }
+
+    private void saveMeta() throws IOException {
+        File file = new File(mDir, META_FILE);
+        File tmp = new File(mDir, META_FILE + SUFFIX_TMP);
+        mDir.mkdirs();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mConvertType);
+            out.writeInt(mChapterKeys.length);
+            for (int key : mChapterKeys) {
+                out.writeInt(key);
+            }
+            out.writeInt(mSegmentCount);
+        } finally {
+            IOUtils.INSTANCE.close(out);
+        }
+        replace(tmp, file);
+    }
+
+    private File segmentFile(int index) {
+        return new File(mDir, SEGMENT_PREFIX + index);
+    }
+
+    /**
+     * 写入一个新的段，然后更新 meta
+     */
+    private void flush(SegmentBuilder builder) throws IOException {
+        long[] keys = builder.sortedKeys();
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        int[] offsets = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            offsets[i] = postings.size();
+            IntList chapters = builder.postings(keys[i]);
+            writePostings(postings, chapters.values, chapters.size);
+        }
+
+        mDir.mkdirs();
+        File file = segmentFile(mSegmentCount);
+        File tmp = new File(mDir, file.getName() + SUFFIX_TMP);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; ++i) {
+                out.writeLong(keys[i]);
+                out.writeInt(offsets[i]);
+            }
+            out.writeInt(postings.size());
+            postings.writeTo(out);
+        } finally {
+            IOUtils.INSTANCE.close(out);
+        }
+        replace(tmp, file);
+        ++mSegmentCount;
+        saveMeta();
+    }
+
+    /**
+     * 将所有的段合并成一个段。每个段按照词的顺序读取，同时只需要保存每个段当前的词
+     */
+    private void merge() throws IOException {
+        File postingsFile = new File(mDir, "postings" + SUFFIX_TMP);
+        File tmp = new File(mDir, segmentFile(0).getName() + SUFFIX_TMP);
+        List<SegmentCursor> cursors = new ArrayList<>();
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream tableOut = new DataOutputStream(table);
+        OutputStream postingsOut = null;
+        int keyCount = 0;
+        int postingsSize = 0;
+        try {
+            PriorityQueue<SegmentCursor> queue = new PriorityQueue<>(MAX_SEGMENT_COUNT + 1,
+                    (o1, o2) -> Long.compare(o1.key, o2.key));
+            for (int i = 0; i < mSegmentCount; ++i) {
+                SegmentCursor cursor = new SegmentCursor(segmentFile(i));
+                cursors.add(cursor);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            postingsOut = new BufferedOutputStream(new FileOutputStream(postingsFile));
+            IntList merged = new IntList();
+            while (!queue.isEmpty()) {
+                long key = queue.peek().key;
+                merged.size = 0;
+                while (!queue.isEmpty() && queue.peek().key == key) {
+                    SegmentCursor cursor = queue.poll();
+                    merged.union(cursor.chapters);
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    }
+                }
+                tableOut.writeLong(key);
+                tableOut.writeInt(postingsSize);
+                buffer.reset();
+                writePostings(buffer, merged.values, merged.size);
+                buffer.writeTo(postingsOut);
+                postingsSize += buffer.size();
+                ++keyCount;
+            }
+        } finally {
+            for (SegmentCursor cursor : cursors) {
+                cursor.close();
+            }
+            IOUtils.INSTANCE.close(postingsOut);
+        }
+
+        DataOutputStream out = null;
+        InputStream in = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(keyCount);
+            table.writeTo(out);
+            out.writeInt(postingsSize);
+            in = new FileInputStream(postingsFile);
+            byte[] bytes = new byte[8192];
+            int length;
+            while ((length = in.read(bytes)) != -1) {
+                out.write(bytes, 0, length);
+            }
+        } finally {
+            IOUtils.INSTANCE.close(in);
+            IOUtils.INSTANCE.close(out);
+            postingsFile.delete();
+        }
+
+        int segmentCount = mSegmentCount;
+        replace(tmp, segmentFile(0));
+        mSegmentCount = 1;
+        saveMeta();
+        for (int i = 1; i < segmentCount; ++i) {
+            segmentFile(i).delete();
+        }
+    }
+
+    /**
+     * 在段文件中查找 [from, to] 范围内的词，将其中的章节加入 result
+     */
+    private static void readPostings(File file, long from, long to, BitSet result) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            if (raf.readInt() != MAGIC) {
+                return;
+            }
+            int keyCount = raf.readInt();
+            long postingsStart = SEGMENT_HEADER + (long) keyCount * ENTRY_SIZE + 4;
+            // 第一个 >= from 的词
+            int low = 0;
+            int high = keyCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                raf.seek(SEGMENT_HEADER + (long) mid * ENTRY_SIZE);
+                if (raf.readLong() < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < keyCount; ++i) {
+                raf.seek(SEGMENT_HEADER + (long) i * ENTRY_SIZE);
+                if (raf.readLong() > to) {
+                    break;
+                }
+                int start = raf.readInt();
+                //下一个词的位置，最后一个词之后是章节列表的结束位置
+                if (i + 1 < keyCount) {
+                    raf.skipBytes(8);
+                }
+                int end = raf.readInt();
+                byte[] bytes = new byte[end - start];
+                raf.seek(postingsStart + start);
+                raf.readFully(bytes);
+                int chapter = 0;
+                int i1 = 0;
+                while (i1 < bytes.length) {
+                    int delta = 0;
+                    int shift = 0;
+                    int b;
+                    do {
+                        b = bytes[i1++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    chapter += delta;
+                    result.set(chapter);
+                }
+            }
+        } finally {
+            IOUtils.INSTANCE.close(raf);
+        }
+    }
+
+    //章节列表：与前一个章节的差值，变长编码
+    private static void writePostings(ByteArrayOutputStream out, int[] chapters, int size) {
+        byte[] bytes = new byte[size * 5];
+        int length = 0;
+        int prev = 0;
+        for (int i = 0; i < size; ++i) {
+            int delta = chapters[i] - prev;
+            prev = chapters[i];
+            while ((delta & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+        }
+        out.write(bytes, 0, length);
+    }
+
+    private static void replace(File tmp, File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("delete failed: " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename failed: " + tmp);
+        }
+    }
+
+    /**
+     * 章节的校验值，章节的标题或者位置发生变化时需要重新建立索引
+     */
+    private static int chapterKey(TxtChapter chapter) {
+        int key = chapter.getTitle() == null ? 0 : chapter.getTitle().hashCode();
+        key = key * 31 + (int) (chapter.start ^ (chapter.start >>> 32));
+        key = key * 31 + (int) (chapter.end ^ (chapter.end >>> 32));
+        return key == 0 ? 1 : key;
+    }
+
+    /******************************分词**********************************/
+
+    private static boolean isCjk(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF) || (c >= 0xF900 && c <= 0xFAFF);
+    }
+
+    /**
+     * 将字母和数字 (包括全角) 转换成小写的半角字符，其他字符返回 0
+     */
+    private static char latin(char c) {
+        if (c >= 0xFF01 && c <= 0xFF5E) {
+            c = (char) (c - 0xFEE0);
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + 'a' - 'A');
+        }
+        if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+            return c;
+        }
+        return 0;
+    }
+
+    private static long bigram(char c1, char c2) {
+        return (long) c1 << 16 | c2;
+    }
+
+    /**
+     * 单词的编码，按照字符的顺序排列：a-z 为 1-26，0-9 为 27-36，不足的部分为 0
+     */
+    private static long latinKey(CharSequence token) {
+        long key = 0;
+        for (int i = 0; i < LATIN_KEY_LENGTH; ++i) {
+            int code = 0;
+            if (i < token.length()) {
+                char c = token.charAt(i);
+                code = c >= 'a' ? c - 'a' + 1 : c - '0' + 27;
+            }
+            key = key << LATIN_CHAR_BITS | code;
+        }
+        return LATIN_FLAG | key;
+    }
+
+    /**
+     * 以 token 开头的所有单词
+     */
+    private static long[] latinPrefixRange(CharSequence token) {
+        long from = latinKey(token);
+        int rest = LATIN_KEY_LENGTH - Math.min(token.length(), LATIN_KEY_LENGTH);
+        return new long[]{from, from | ((1L << rest * LATIN_CHAR_BITS) - 1)};
+    }
+
+    /**
+     * 对文本分词，回调每个词
+     */
+    private static void tokenize(char[] text, int start, int end, TokenConsumer consumer) {
+        StringBuilder token = new StringBuilder();
+        for (int i = start; i < end; ++i) {
+            char c = text[i];
+            char l = latin(c);
+            if (l != 0) {
+                token.append(l);
+                continue;
+            }
+            if (token.length() > 0) {
+                consumer.accept(latinKey(token));
+                token.setLength(0);
+            }
+            if (isCjk(c)) {
+                //汉字的最后一个字与 0 组成一个词，只搜索一个字时使用
+                char next = i + 1 < end && isCjk(text[i + 1]) ? text[i + 1] : 0;
+                consumer.accept(bigram(c, next));
+            }
+        }
+        if (token.length() > 0) {
+            consumer.accept(latinKey(token));
+        }
+    }
+
+    private interface TokenConsumer {
+        void accept(long key);
+    }
+
+    /**
+     * 关键字的规范化，与章节的文本一致：繁简转换、全角化。
+     * 文本中的空格全角化后是 U+3000，关键字中间连续的空白也换成一个 U+3000，去除开头和结尾的空白
+     */
+    private static char[] normalizeQuery(String keyword) {
+        if (keyword == null) {
+            return new char[0];
+        }
+        String text = StringUtils.INSTANCE.halfToFull(StringUtils.INSTANCE.convertCC(keyword));
+        StringBuilder builder = new StringBuilder(text.length());
+        boolean isSpace = false;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (isSpace(c)) {
+                isSpace = true;
+                continue;
+            }
+            if (isSpace && builder.length() > 0) {
+                builder.append((char) 0x3000);
+            }
+            isSpace = false;
+            builder.append(c);
+        }
+        char[] query = new char[builder.length()];
+        builder.getChars(0, query.length, query, 0);
+        return query;
+    }
+
+    /**
+     * 关键字中需要查询的词，每个词为一个范围 [from, to]。
+     * 单独的汉字查询以它开头的所有 bigram；关键字开头和结尾的单词可能只是文本中单词的一部分，
+     * 按照前缀查询 (关键字从单词的开头开始)
+     */
+    private static List<long[]> queryTerms(char[] query) {
+        List<long[]> terms = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        int tokenStart = 0;
+        for (int i = 0; i <= query.length; ++i) {
+            char l = i < query.length ? latin(query[i]) : 0;
+            if (l != 0) {
+                if (token.length() == 0) {
+                    tokenStart = i;
+                }
+                token.append(l);
+                continue;
+            }
+            if (token.length() > 0) {
+                if (tokenStart > 0 && i < query.length) {
+                    long key = latinKey(token);
+                    terms.add(new long[]{key, key});
+                } else {
+                    terms.add(latinPrefixRange(token));
+                }
+                token.setLength(0);
+            }
+            if (i == query.length || !isCjk(query[i])) {
+                continue;
+            }
+            boolean hasPrev = i > 0 && isCjk(query[i - 1]);
+            boolean hasNext = i + 1 < query.length && isCjk(query[i + 1]);
+            if (hasNext) {
+                long key = bigram(query[i], query[i + 1]);
+                terms.add(new long[]{key, key});
+            } else if (!hasPrev) {
+                terms.add(new long[]{bigram(query[i], (char) 0), bigram(query[i], (char) 0xFFFF)});
+            }
+        }
+        return terms;
+    }
+
+    private static int indexOf(char[] text, char[] query, int from) {
+        int last = text.length - query.length;
+        outer:
+        for (int i = from; i <= last; ++i) {
+            for (int j = 0; j < query.length; ++j) {
+                char c = text[i + j];
+                char q = query[j];
+                if (c != q && fold(c) != fold(q)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    //不区分大小写和全角半角 (标题没有全角化)
+    private static char fold(char c) {
+        if (isSpace(c)) {
+            return 0x3000;
+        }
+        char l = latin(c);
+        return l != 0 ? l : Character.toLowerCase(c);
+    }
+
+    private static boolean isSpace(char c) {
+        return c == 0x3000 || Character.isWhitespace(c);
+    }
+
+    private static String snippet(char[] text, int offset, int length) {
+        int start = Math.max(0, offset - SNIPPET_BEFORE);
+        int end = Math.min(text.length, offset + length + SNIPPET_AFTER);
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; ++i) {
+            char c = text[i];
+            if (c == '\n' || c == 0x3000) {
+                //段落之间只保留一个空格
+                if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ' ') {
+                    builder.append(' ');
+                }
+                continue;
+            }
+            builder.append(c);
+        }
+        return builder.toString().trim();
+    }
+
+    /******************************内部类**********************************/
+
+    /**
+     * 在内存中收集一批章节的词
+     */
+    private static final class SegmentBuilder {
+        //开放寻址的哈希表：词 -> 章节列表，避免 Long 的装箱
+        private long[] mKeys = new long[1 << 14];
+        private IntList[] mPostings = new IntList[1 << 14];
+        private int mKeyCount;
+        int chapterCount;
+
+        void add(int chapterPos, ChapterText text) {
+            tokenize(text.text, 0, text.text.length, key -> {
+                IntList chapters = postings(key);
+                //章节按照从小到大的顺序加入
+                if (chapters.size == 0 || chapters.values[chapters.size - 1] != chapterPos) {
+                    chapters.add(chapterPos);
+                }
+            });
+            ++chapterCount;
+        }
+
+        IntList postings(long key) {
+            int mask = mKeys.length - 1;
+            int i = hash(key) & mask;
+            while (mPostings[i] != null) {
+                if (mKeys[i] == key) {
+                    return mPostings[i];
+                }
+                i = (i + 1) & mask;
+            }
+            IntList chapters = new IntList();
+            mKeys[i] = key;
+            mPostings[i] = chapters;
+            if (++mKeyCount * 2 > mKeys.length) {
+                rehash();
+            }
+            return chapters;
+        }
+
+        long[] sortedKeys() {
+            long[] keys = new long[mKeyCount];
+            int count = 0;
+            for (int i = 0; i < mKeys.length; ++i) {
+                if (mPostings[i] != null) {
+                    keys[count++] = mKeys[i];
+                }
+            }
+            Arrays.sort(keys);
+            return keys;
+        }
+
+        private void rehash() {
+            long[] keys = mKeys;
+            IntList[] postings = mPostings;
+            mKeys = new long[keys.length * 2];
+            mPostings = new IntList[keys.length * 2];
+            int mask = mKeys.length - 1;
+            for (int j = 0; j < keys.length; ++j) {
+                if (postings[j] == null) {
+                    continue;
+                }
+                int i = hash(keys[j]) & mask;
+                while (mPostings[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                mKeys[i] = keys[j];
+                mPostings[i] = postings[j];
+            }
+        }
+
+        private static int hash(long key) {
+            return (int) (key * 0x9E3779B97F4A7C15L >>> 32);
+        }
+    }
+
+    /**
+     * 按照顺序读取段文件中的词和章节列表
+     */
+    private static final class SegmentCursor {
+        private final DataInputStream mTable;
+        private final DataInputStream mPostings;
+        private final int mKeyCount;
+        private int mIndex;
+        private int mOffset;
+        private long mNextKey;
+        long key;
+        final IntList chapters = new IntList();
+
+        SegmentCursor(File file) throws IOException {
+            DataInputStream table = null;
+            DataInputStream postings = null;
+            try {
+                table = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (table.readInt() != MAGIC) {
+                    throw new IOException("bad segment: " + file);
+                }
+                mKeyCount = table.readInt();
+                postings = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                long skip = SEGMENT_HEADER + (long) mKeyCount * ENTRY_SIZE + 4;
+                while (skip > 0) {
+                    long skipped = postings.skip(skip);
+                    if (skipped <= 0) {
+                        throw new IOException("bad segment: " + file);
+                    }
+                    skip -= skipped;
+                }
+                if (mKeyCount > 0) {
+                    mNextKey = table.readLong();
+                    mOffset = table.readInt();
+                }
+            } catch (IOException e) {
+                IOUtils.INSTANCE.close(table);
+                IOUtils.INSTANCE.close(postings);
+                throw e;
+            }
+            mTable = table;
+            mPostings = postings;
+        }
+
+        boolean next() throws IOException {
+            if (mIndex >= mKeyCount) {
+                return false;
+            }
+            //当前词和它的位置已经读取，这里读取下一个词的位置作为结束
+            key = mNextKey;
+            int end;
+            if (mIndex + 1 < mKeyCount) {
+                mNextKey = mTable.readLong();
+                end = mTable.readInt();
+            } else {
+                end = mTable.readInt();
+            }
+            byte[] bytes = new byte[end - mOffset];
+            mPostings.readFully(bytes);
+            mOffset = end;
+            ++mIndex;
+
+            chapters.size = 0;
+            int chapter = 0;
+            int i = 0;
+            while (i < bytes.length) {
+                int delta = 0;
+                int shift = 0;
+                int b;
+                do {
+                    b = bytes[i++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                chapter += delta;
+                chapters.add(chapter);
+            }
+            return true;
+        }
+
+        void close() {
+            IOUtils.INSTANCE.close(mTable);
+            IOUtils.INSTANCE.close(mPostings);
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[8];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * 与有序的 other 合并，结果仍然有序且不重复
+         */
+        void union(IntList other) {
+            //大多数情况下两个列表没有交叉，直接追加
+            if (other.size == 0) {
+                return;
+            }
+            if (size == 0 || values[size - 1] < other.values[0]) {
+                for (int k = 0; k < other.size; ++k) {
+                    add(other.values[k]);
+                }
+                return;
+            }
+            int[] result = new int[size + other.size];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < other.size) {
+                int value;
+                if (j >= other.size || (i < size && values[i] < other.values[j])) {
+                    value = values[i++];
+                } else if (i >= size || other.values[j] < values[i]) {
+                    value = other.values[j++];
+                } else {
+                    value = values[i++];
+                    ++j;
+                }
+                result[count++] = value;
+            }
+            values = result.length < 8 ? Arrays.copyOf(result, 8) : result;
+            size = count;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.novel.read.widget.page;
+
+import android.util.LruCache;
+
+import com.novel.read.utlis.ChineseConverter;
+import com.novel.read.utlis.IOUtils;
+import com.novel.read.utlis.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by zlj
+ * 章节规范化后的文本 (繁简转换、去除空白、全角化)，第一个段落为标题。
+ * <p>
+ * 规范化的结果以章节、原文的 hash 和繁简转换的设置作为 key 缓存在内存中，
+ * 重新排版 (修改字体、边距等) 时不需要再次进行转换。
+ */
+final class ChapterText {
+    private static final Pattern IMG_PATTERN = Pattern.compile("(<img.*src\\s*=\\s*(.*?)[^>]*?>)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SRC_PATTERN = Pattern.compile("src\\s*=\\s*\"?(.*?)(\"|>|\\s+)");
+    //缓存的最大字符数
+    private static final int MAX_CACHE_SIZE = 1024 * 1024;
+
+    private static final LruCache<String, ChapterText> sCache = new LruCache<String, ChapterText>(MAX_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, ChapterText value) {
+            return value.text.length + value.paraCount * 2;
+        }
+    };
+
+    //章节标题
+    final String title;
+    //规范化后的文本
+    final char[] text;
+    //每个段落在文本中的结束位置
+    final int[] paraEnds;
+    final int paraCount;
+    //章节中的图片
+    final List<String> pics;
+    //读取原文是否出错
+    final boolean isReadError;
+
+    private ChapterText(String title, char[] text, int[] paraEnds, int paraCount,
+                        List<String> pics, boolean isReadError) {
+        this.title = title;
+        this.text = text;
+        this.paraEnds = paraEnds;
+        this.paraCount = paraCount;
+        this.pics = pics;
+        this.isReadError = isReadError;
+    }
+
+    /**
+     * 读取章节的原文，并进行规范化。读取完成后关闭 reader
+     */
+    static ChapterText read(TxtChapter chapter, BufferedReader reader) {
+        // 读取原文
+        StringBuilder raw = new StringBuilder();
+        boolean isReadError = false;
+        try {
+            char[] buffer = new char[8192];
+            int length;
+            while ((length = reader.read(buffer)) != -1) {
+                raw.append(buffer, 0, length);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            isReadError = true;
+        } finally {
+            IOUtils.INSTANCE.close(reader);
+        }
+        char[] source = new char[raw.length()];
+        raw.getChars(0, source.length, source, 0);
+        return read(chapter, source, source.length, isReadError);
+    }
+
+    /**
+     * 对章节的原文进行规范化，source 只在调用期间使用，可以是复用的缓冲区
+     *
+     * @param length:原文的长度
+     */
+    static ChapterText read(TxtChapter chapter, char[] source, int length) {
+        return read(chapter, source, length, false);
+    }
+
+    private static ChapterText read(TxtChapter chapter, char[] source, int length, boolean isReadError) {
+        int convertType = StringUtils.INSTANCE.getConvertType();
+        String key = chapter.getBookId() + "/" + chapter.getTitle() + "/" + convertType
+                + "/" + TxtPageIndex.hash(source, 0, length) + "/" + length;
+        if (!isReadError) {
+            ChapterText text = sCache.get(key);
+            if (text != null) {
+                return text;
+            }
+        }
+
+        ChapterText text = normalize(chapter.getTitle(), source, length, convertType, isReadError);
+        if (!isReadError) {
+            sCache.put(key, text);
+        }
+        return text;
+    }
+
+    private static ChapterText normalize(String rawTitle, char[] source, int length, int convertType, boolean isReadError) {
+        ChineseConverter converter = convertType != 0
+                ? ChineseConverter.getInstance(ChineseConverter.TRADITIONAL) : null;
+        List<String> pics = new ArrayList<>();
+        int[] paraEnds = new int[64];
+        int paraCount = 0;
+
+        StringBuilder builder = new StringBuilder(length + length / 8);
+        //默认展示标题
+        String title = StringUtils.INSTANCE.convertCC(rawTitle);
+        builder.append(title);
+        pics.addAll(getImgs(rawTitle));
+        paraEnds[paraCount++] = builder.length();
+
+        StringBuilder paragraph = new StringBuilder();
+        int lineStart = 0;
+        for (int i = 0; i <= length; ++i) {
+            if (i != length && source[i] != '\n' && source[i] != '\r') {
+                continue;
+            }
+            int lineEnd = i;
+            if (lineEnd > lineStart) {
+                // 繁简转换
+                paragraph.setLength(0);
+                if (converter != null) {
+                    converter.convert(source, lineStart, lineEnd, paragraph);
+                } else {
+                    paragraph.append(source, lineStart, lineEnd - lineStart);
+                }
+                // 重置段落
+                removeWhitespace(paragraph);
+                // 如果只有换行符，那么就不执行
+                if (paragraph.length() != 0) {
+                    String half = new String(source, lineStart, lineEnd - lineStart);
+                    if (half.indexOf('<') != -1) {
+                        pics.addAll(getImgs(half));
+                    }
+                    builder.append(StringUtils.INSTANCE.halfToFull("  " + paragraph + "\n"));
+
+                    if (paraCount == paraEnds.length) {
+                        paraEnds = Arrays.copyOf(paraEnds, paraCount * 2);
+                    }
+                    paraEnds[paraCount++] = builder.length();
+                }
+            }
+            lineStart = i + 1;
+        }
+
+        char[] text = new char[builder.length()];
+        builder.getChars(0, text.length, text, 0);
+        return new ChapterText(title, text, paraEnds, paraCount, pics, isReadError);
+    }
+
+    //与 replaceAll("\\s", "") 相同
+    private static void removeWhitespace(StringBuilder builder) {
+        int length = 0;
+        for (int i = 0; i < builder.length(); ++i) {
+            char c = builder.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+                continue;
+            }
+            builder.setCharAt(length++, c);
+        }
+        builder.setLength(length);
+    }
+
+    private static List<String> getImgs(String content) {
+        List<String> images = new ArrayList<>();
+        Matcher m_image = IMG_PATTERN.matcher(content);
+        while (m_image.find()) {
+            String img = m_image.group();
+            Matcher m = SRC_PATTERN.matcher(img);
+            while (m.find()) {
+                images.add(m.group(1));
+            }
+        }
+        return images;
+    }
+}
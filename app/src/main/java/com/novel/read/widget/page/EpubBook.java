@@ -0,0 +1,496 @@
+package com.novel.read.widget.page;
+
+import com.novel.read.utlis.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Created by zlj
+ * EPUB 书籍的读取。
+ * <p>
+ * 打开时只读取 zip 的中央目录以及 container.xml、OPF、NCX (或者 EPUB3 的 nav 文档)，
+ * 将 spine 中的每一项作为一个章节；读取章节时只解压对应的条目，并流式地去掉 XHTML 的标签，每个块级元素作为一段。
+ * 打开书籍的时间与文件的大小 (图片等资源) 无关。
+ */
+final class EpubBook {
+    private static final String CONTAINER_PATH = "META-INF/container.xml";
+    private static final String MEDIA_TYPE_NCX = "application/x-dtbncx+xml";
+    private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9_\\-]+)[\"']");
+    //用于检测 XML 声明的字节数
+    private static final int DECLARATION_LENGTH = 256;
+    //作为段落的块级元素
+    private static final String[] BLOCK_TAGS = {"p", "div", "br", "h1", "h2", "h3", "h4", "h5", "h6",
+            "li", "tr", "dt", "dd", "blockquote", "pre", "hr", "section", "article", "table"};
+    //内容不显示的元素
+    private static final String[] SKIP_TAGS = {"head", "script", "style"};
+
+    private final ZipFile mZipFile;
+    private final List<TxtChapter> mChapters = new ArrayList<>();
+    private String mTitle;
+
+    EpubBook(File file) throws IOException {
+        mZipFile = new ZipFile(file);
+        try {
+            parse();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 书籍的章节，link 为章节在 zip 中的路径，start 为在 spine 中的序号，end 为解压后的大小
+     */
+    List<TxtChapter> getChapters() {
+        return mChapters;
+    }
+
+    String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * 解压并解析章节，返回以换行分隔段落的文本
+     */
+    StringBuilder readChapter(TxtChapter chapter) throws IOException {
+        ZipEntry entry = mZipFile.getEntry(chapter.getLink());
+        if (entry == null) {
+            throw new FileNotFoundException(chapter.getLink());
+        }
+        StringBuilder builder = new StringBuilder((int) Math.max(0, Math.min(entry.getSize(), 1 << 20)));
+        parseXml(entry, new TextHandler(builder));
+        return builder;
+    }
+
+    void close() {
+        IOUtils.INSTANCE.close(mZipFile);
+    }
+
+    /******************************目录**********************************/
+
+    private void parse() throws IOException {
+        // container.xml 中指定了 OPF 的位置
+        String[] opfPath = new String[1];
+        ZipEntry container = mZipFile.getEntry(CONTAINER_PATH);
+        if (container != null) {
+            parseXml(container, new SimpleHandler() {
+                @Override
+                public void startTag(String name, Map<String, String> attrs) {
+                    if (opfPath[0] == null && "rootfile".equals(name) && attrs.containsKey("full-path")) {
+                        opfPath[0] = attrs.get("full-path");
+                    }
+                }
+            });
+        }
+        ZipEntry opf = opfPath[0] == null ? null : mZipFile.getEntry(opfPath[0]);
+        if (opf == null) {
+            opf = findEntry(".opf");
+        }
+        if (opf == null) {
+            throw new IOException("opf not found");
+        }
+
+        OpfHandler handler = new OpfHandler();
+        parseXml(opf, handler);
+        mTitle = handler.title.toString().trim();
+        String opfDir = parent(opf.getName());
+
+        // 目录：优先使用 NCX，没有时使用 EPUB3 的 nav 文档
+        Map<String, String> titles = new HashMap<>();
+        String ncxId = handler.tocId;
+        Item ncx = ncxId != null ? handler.items.get(ncxId) : null;
+        if (ncx == null) {
+            for (Item item : handler.items.values()) {
+                if (MEDIA_TYPE_NCX.equals(item.mediaType)) {
+                    ncx = item;
+                    break;
+                }
+            }
+        }
+        Item toc = ncx;
+        if (toc == null) {
+            for (Item item : handler.items.values()) {
+                if (item.properties != null && item.properties.contains("nav")) {
+                    toc = item;
+                    break;
+                }
+            }
+        }
+        if (toc != null) {
+            String path = resolve(opfDir, toc.href);
+            ZipEntry entry = mZipFile.getEntry(path);
+            if (entry != null) {
+                parseXml(entry, new TocHandler(parent(path), titles, toc == ncx));
+            }
+        }
+
+        // spine 中的每一项作为一个章节
+        String lastTitle = null;
+        int untitledCount = 0;
+        for (String idref : handler.spine) {
+            Item item = handler.items.get(idref);
+            if (item == null || !isDocument(item.mediaType)) {
+                continue;
+            }
+            String path = resolve(opfDir, item.href);
+            ZipEntry entry = mZipFile.getEntry(path);
+            if (entry == null) {
+                continue;
+            }
+            String title = titles.get(path);
+            if (title == null || title.isEmpty()) {
+                // 没有出现在目录中的部分 (章节被拆分成多个文件、封面等)
+                title = lastTitle != null ? lastTitle + " (" + (++untitledCount + 1) + ")" : fileName(path);
+            } else {
+                lastTitle = title;
+                untitledCount = 0;
+            }
+            TxtChapter chapter = new TxtChapter();
+            chapter.title = title;
+            chapter.link = path;
+            chapter.start = mChapters.size();
+            chapter.end = entry.getSize();
+            mChapters.add(chapter);
+        }
+        if (mChapters.isEmpty()) {
+            throw new IOException("spine is empty");
+        }
+    }
+
+    private ZipEntry findEntry(String suffix) {
+        java.util.Enumeration<? extends ZipEntry> entries = mZipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.getName().toLowerCase().endsWith(suffix)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isDocument(String mediaType) {
+        return mediaType == null || mediaType.contains("html") || mediaType.contains("xml");
+    }
+
+    /**
+     * 解析 XML 条目，按照 XML 声明中的编码读取，默认为 UTF-8
+     */
+    private void parseXml(ZipEntry entry, EpubXmlReader.Handler handler) throws IOException {
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(mZipFile.getInputStream(entry));
+            in.mark(DECLARATION_LENGTH);
+            byte[] head = new byte[DECLARATION_LENGTH];
+            int length = 0;
+            int count;
+            while (length < head.length && (count = in.read(head, length, head.length - length)) != -1) {
+                length += count;
+            }
+            in.reset();
+            String charset = "UTF-8";
+            if (length >= 2 && ((head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF
+                    || (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE)) {
+                charset = "UTF-16";
+            } else {
+                Matcher matcher = ENCODING_PATTERN.matcher(new String(head, 0, length, "ISO-8859-1"));
+                if (matcher.find() && java.nio.charset.Charset.isSupported(matcher.group(1))) {
+                    charset = matcher.group(1);
+                }
+            }
+            EpubXmlReader.parse(new InputStreamReader(in, charset), handler);
+        } finally {
+            IOUtils.INSTANCE.close(in);
+        }
+    }
+
+    /**
+     * 将相对于 dir 的 href 转换为 zip 中的路径
+     */
+    static String resolve(String dir, String href) {
+        int hash = href.indexOf('#');
+        if (hash != -1) {
+            href = href.substring(0, hash);
+        }
+        try {
+            href = URLDecoder.decode(href.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            // 保留原来的路径
+        }
+        String path = href.startsWith("/") ? href.substring(1) : dir + href;
+        // 处理 . 和 ..
+        List<String> parts = new ArrayList<>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || ".".equals(part)) {
+                continue;
+            }
+            if ("..".equals(part)) {
+                if (!parts.isEmpty()) {
+                    parts.remove(parts.size() - 1);
+                }
+            } else {
+                parts.add(part);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String part : parts) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+
+    //路径所在的目录，以 / 结尾
+    private static String parent(String path) {
+        int index = path.lastIndexOf('/');
+        return index == -1 ? "" : path.substring(0, index + 1);
+    }
+
+    private static String fileName(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static boolean contains(String[] tags, String name) {
+        for (String tag : tags) {
+            if (tag.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /******************************解析**********************************/
+
+    private static class SimpleHandler implements EpubXmlReader.Handler {
+        @Override
+        public void startTag(String name, Map<String, String> attrs) {
+        }
+
+        @Override
+        public void endTag(String name) {
+        }
+
+        @Override
+        public void text(CharSequence text) {
+        }
+    }
+
+    private static final class Item {
+        String href;
+        String mediaType;
+        String properties;
+    }
+
+    /**
+     * OPF：书名、manifest、spine
+     */
+    private static final class OpfHandler extends SimpleHandler {
+        final Map<String, Item> items = new HashMap<>();
+        final List<String> spine = new ArrayList<>();
+        final StringBuilder title = new StringBuilder();
+        String tocId;
+        private boolean isTitle;
+        private boolean hasTitle;
+
+        @Override
+        public void startTag(String name, Map<String, String> attrs) {
+            switch (name) {
+                case "item":
+                    Item item = new Item();
+                    item.href = attrs.get("href");
+                    item.mediaType = attrs.get("media-type");
+                    item.properties = attrs.get("properties");
+                    if (attrs.get("id") != null && item.href != null) {
+                        items.put(attrs.get("id"), item);
+                    }
+                    break;
+                case "spine":
+                    tocId = attrs.get("toc");
+                    break;
+                case "itemref":
+                    if (attrs.get("idref") != null) {
+                        spine.add(attrs.get("idref"));
+                    }
+                    break;
+                case "title":
+                    isTitle = !hasTitle;
+                    break;
+            }
+        }
+
+        @Override
+        public void endTag(String name) {
+            if ("title".equals(name) && isTitle) {
+                isTitle = false;
+                hasTitle = true;
+            }
+        }
+
+        @Override
+        public void text(CharSequence text) {
+            if (isTitle) {
+                title.append(text);
+            }
+        }
+    }
+
+    /**
+     * 目录：NCX 的 navPoint 或者 nav 文档中的链接，得到每个文件对应的标题 (同一个文件取第一个标题)
+     */
+    private static final class TocHandler extends SimpleHandler {
+        private final String mDir;
+        private final Map<String, String> mTitles;
+        private final boolean isNcx;
+        private final StringBuilder mLabel = new StringBuilder();
+        //NCX：navLabel 中的文字；nav：a 中的文字
+        private boolean isLabel;
+        //nav 文档中是否在目录的 nav 中
+        private int mNavDepth;
+        private boolean isTocNav;
+        private String mLabelText;
+        private String mHref;
+
+        TocHandler(String dir, Map<String, String> titles, boolean isNcx) {
+            mDir = dir;
+            mTitles = titles;
+            this.isNcx = isNcx;
+        }
+
+        @Override
+        public void startTag(String name, Map<String, String> attrs) {
+            if (isNcx) {
+                if ("navlabel".equals(name)) {
+                    isLabel = true;
+                    mLabel.setLength(0);
+                } else if ("content".equals(name) && mLabelText != null) {
+                    put(attrs.get("src"), mLabelText);
+                    mLabelText = null;
+                }
+                return;
+            }
+            if ("nav".equals(name)) {
+                ++mNavDepth;
+                String type = attrs.get("type");
+                //没有标明类型时，使用第一个 nav
+                isTocNav = (type == null && mTitles.isEmpty()) || (type != null && type.contains("toc"));
+            } else if ("a".equals(name) && mNavDepth > 0 && isTocNav) {
+                isLabel = true;
+                mLabel.setLength(0);
+                mHref = attrs.get("href");
+            }
+        }
+
+        @Override
+        public void endTag(String name) {
+            if (isNcx) {
+                if ("navlabel".equals(name) && isLabel) {
+                    isLabel = false;
+                    mLabelText = collapse(mLabel);
+                }
+                return;
+            }
+            if ("nav".equals(name)) {
+                --mNavDepth;
+                isTocNav = false;
+            } else if ("a".equals(name) && isLabel) {
+                isLabel = false;
+                put(mHref, collapse(mLabel));
+            }
+        }
+
+        @Override
+        public void text(CharSequence text) {
+            if (isLabel) {
+                mLabel.append(text);
+            }
+        }
+
+        private void put(String href, String title) {
+            if (href == null || title.isEmpty()) {
+                return;
+            }
+            String path = resolve(mDir, href);
+            if (!mTitles.containsKey(path)) {
+                mTitles.put(path, title);
+            }
+        }
+
+        private static String collapse(CharSequence text) {
+            return text.toString().replaceAll("\\s+", " ").trim();
+        }
+    }
+
+    /**
+     * 章节正文：块级元素之间换行，去掉 head、script、style 中的内容
+     */
+    private static final class TextHandler extends SimpleHandler {
+        private final StringBuilder mOut;
+        private int mSkipDepth;
+        private boolean isInBody;
+        private boolean hasBody;
+
+        TextHandler(StringBuilder out) {
+            mOut = out;
+        }
+
+        @Override
+        public void startTag(String name, Map<String, String> attrs) {
+            if ("body".equals(name)) {
+                isInBody = true;
+                hasBody = true;
+            } else if (contains(SKIP_TAGS, name)) {
+                ++mSkipDepth;
+            } else if (contains(BLOCK_TAGS, name)) {
+                newLine();
+            }
+        }
+
+        @Override
+        public void endTag(String name) {
+            if ("body".equals(name)) {
+                isInBody = false;
+            } else if (contains(SKIP_TAGS, name)) {
+                mSkipDepth = Math.max(0, mSkipDepth - 1);
+            } else if (contains(BLOCK_TAGS, name)) {
+                newLine();
+            }
+        }
+
+        @Override
+        public void text(CharSequence text) {
+            //没有 body 标签的文档，显示 head 之外的所有文字
+            if (mSkipDepth > 0 || (hasBody && !isInBody)) {
+                return;
+            }
+            for (int i = 0; i < text.length(); ++i) {
+                char c = text.charAt(i);
+                //元素内的换行只是排版用的空白
+                mOut.append(c == '\n' || c == '\r' ? ' ' : c);
+            }
+        }
+
+        private void newLine() {
+            if (mOut.length() > 0 && mOut.charAt(mOut.length() - 1) != '\n') {
+                mOut.append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.novel.read.widget.page;
+
+import android.util.Log;
+
+import com.novel.read.model.db.CollBookBean;
+import com.novel.read.model.db.dbManage.BookRepository;
+import com.novel.read.utlis.RxUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Created by zlj
+ * 本地 EPUB 书籍的加载器。
+ * <p>
+ * 目录在打开书籍时从 OPF/NCX 中读取，不保存到数据库；章节的内容在打开时才解压，
+ * 下一章由 {@link PageLoader} 的预加载提前解压并排版。
+ */
+public class EpubPageLoader extends PageLoader {
+    private static final String TAG = "EpubPageLoader";
+    //获取书本的文件
+    private File mBookFile;
+    //书籍的读取器
+    private EpubBook mBook;
+
+    private Disposable mChapterDisp = null;
+
+    public EpubPageLoader(PageView pageView, CollBookBean collBook) {
+        super(pageView, collBook);
+        mStatus = STATUS_PARING;
+    }
+
+    @Override
+    public void refreshChapterList() {
+        closeEpub();
+        mBookFile = new File(mCollBook.getCover());
+
+        // 读取目录只需要解析 zip 的中央目录和 OPF/NCX，在后台进行
+        Single.create((SingleOnSubscribe<EpubBook>) e -> e.onSuccess(new EpubBook(mBookFile)))
+                .compose(RxUtils::toSimpleSingle)
+                .subscribe(new SingleObserver<EpubBook>() {
+                    @Override
+                    public void onSubscribe(Disposable d) {
+                        mChapterDisp = d;
+                    }
+
+                    @Override
+                    public void onSuccess(EpubBook book) {
+                        mChapterDisp = null;
+                        if (isClose()) {
+                            book.close();
+                            return;
+                        }
+                        setBook(book);
+                        List<TxtChapter> chapters = book.getChapters();
+                        for (TxtChapter chapter : chapters) {
+                            chapter.bookId = mCollBook.getId();
+                        }
+                        mChapterList = chapters;
+                        isChapterListPrepare = true;
+
+                        // 提示目录加载完成
+                        if (mPageChangeListener != null) {
+                            mPageChangeListener.onCategoryFinish(mChapterList);
+                        }
+
+                        // 加载并显示当前章节
+                        openChapter();
+                        // 在后台建立搜索索引
+                        updateSearchIndex();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        mChapterDisp = null;
+                        chapterError();
+                        Log.e(TAG, "file load error: " + e.toString());
+                    }
+                });
+    }
+
+    private synchronized void setBook(EpubBook book) {
+        mBook = book;
+    }
+
+    private synchronized EpubBook getBook() throws IOException {
+        if (mBook == null) {
+            throw new IOException("book is closed");
+        }
+        return mBook;
+    }
+
+    private synchronized void closeEpub() {
+        if (mBook != null) {
+            mBook.close();
+            mBook = null;
+        }
+    }
+
+    @Override
+    public void saveRecord() {
+        super.saveRecord();
+        //修改当前COllBook记录
+        if (mCollBook != null && isChapterListPrepare) {
+            //表示当前CollBook已经阅读
+            mCollBook.setIsUpdate(false);
+            mCollBook.setLastChapter(mChapterList.get(mCurChapterPos).getTitle());
+            mCollBook.setLastRead(String.valueOf(System.currentTimeMillis()));
+            //直接更新
+            BookRepository.getInstance().saveCollBook(mCollBook);
+        }
+    }
+
+    @Override
+    public void closeBook() {
+        super.closeBook();
+        if (mChapterDisp != null) {
+            mChapterDisp.dispose();
+            mChapterDisp = null;
+        }
+        closeEpub();
+    }
+
+    @Override
+    protected BufferedReader getChapterReader(TxtChapter chapter) throws Exception {
+        return new BufferedReader(new StringReader(getBook().readChapter(chapter).toString()));
+    }
+
+    @Override
+    ChapterText getChapterText(TxtChapter chapter) throws Exception {
+        //解析的结果直接交给 ChapterText 规范化
+        StringBuilder content = getBook().readChapter(chapter);
+        char[] source = new char[content.length()];
+        content.getChars(0, source.length, source, 0);
+        return ChapterText.read(chapter, source, source.length);
+    }
+
+    @Override
+    protected boolean hasChapterData(TxtChapter chapter) {
+        return true;
+    }
+}
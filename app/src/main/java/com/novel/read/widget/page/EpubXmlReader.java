@@ -0,0 +1,288 @@
+package com.novel.read.widget.page;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by zlj
+ * EPUB 中 XML/XHTML 的流式解析，只识别开始标签、结束标签和文本。
+ * <p>
+ * 按字符顺序读取，不建立文档树，也不要求文档格式完全正确 (XHTML 中常见的 HTML 实体、未闭合的标签等)。
+ * 标签名和属性名转换为小写，并去掉命名空间的前缀。
+ */
+final class EpubXmlReader {
+
+    interface Handler {
+        void startTag(String name, Map<String, String> attrs);
+
+        void endTag(String name);
+
+        void text(CharSequence text);
+    }
+
+    private final Reader mReader;
+    private final Handler mHandler;
+    //读取缓冲区
+    private final char[] mBuffer = new char[8192];
+    private int mPos;
+    private int mLimit;
+
+    private final StringBuilder mText = new StringBuilder();
+    private final StringBuilder mToken = new StringBuilder();
+
+    private EpubXmlReader(Reader reader, Handler handler) {
+        mReader = reader;
+        mHandler = handler;
+    }
+
+    static void parse(Reader reader, Handler handler) throws IOException {
+        new EpubXmlReader(reader, handler).parse();
+    }
+
+    private void parse() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                if (c == '&') {
+                    readEntity(mText);
+                } else {
+                    mText.append((char) c);
+                }
+                continue;
+            }
+            c = read();
+            if (c == '!') {
+                if (skipPrefix("--")) {
+                    skipUntil("-->");
+                } else if (skipPrefix("[CDATA[")) {
+                    readUntil("]]>", mText);
+                } else {
+                    skipUntil(">");
+                }
+            } else if (c == '?') {
+                skipUntil(">");
+            } else if (c == '/') {
+                flushText();
+                String name = readName(read());
+                skipUntil(">");
+                mHandler.endTag(name);
+            } else if (isNameStart(c)) {
+                flushText();
+                readStartTag(c);
+            } else {
+                // 不是标签，作为文本
+                mText.append('<');
+                if (c != -1) {
+                    unread();
+                }
+            }
+        }
+        flushText();
+    }
+
+    private void readStartTag(int first) throws IOException {
+        String name = readName(first);
+        Map<String, String> attrs = new HashMap<>();
+        boolean isEmpty = false;
+        int c = read();
+        while (c != -1 && c != '>') {
+            if (c == '/') {
+                isEmpty = true;
+                c = read();
+                continue;
+            }
+            if (!isNameStart(c)) {
+                c = read();
+                continue;
+            }
+            isEmpty = false;
+            String attr = readName(c);
+            c = skipSpace(read());
+            String value = "";
+            if (c == '=') {
+                c = skipSpace(read());
+                mToken.setLength(0);
+                if (c == '"' || c == '\'') {
+                    int quote = c;
+                    while ((c = read()) != -1 && c != quote) {
+                        if (c == '&') {
+                            readEntity(mToken);
+                        } else {
+                            mToken.append((char) c);
+                        }
+                    }
+                    c = read();
+                } else {
+                    while (c != -1 && c != '>' && !Character.isWhitespace(c)) {
+                        mToken.append((char) c);
+                        c = read();
+                    }
+                }
+                value = mToken.toString();
+            }
+            attrs.put(attr, value);
+        }
+        mHandler.startTag(name, attrs);
+        if (isEmpty) {
+            mHandler.endTag(name);
+        }
+    }
+
+    //读取标签名或属性名，返回小写且不带命名空间前缀的名字
+    private String readName(int c) throws IOException {
+        mToken.setLength(0);
+        while (c != -1 && (isNameStart(c) || Character.isDigit(c) || c == '-' || c == '.' || c == ':')) {
+            if (c == ':') {
+                mToken.setLength(0);
+            } else {
+                mToken.append(Character.toLowerCase((char) c));
+            }
+            c = read();
+        }
+        if (c != -1) {
+            unread();
+        }
+        return mToken.toString();
+    }
+
+    private void readEntity(StringBuilder out) throws IOException {
+        StringBuilder entity = new StringBuilder();
+        int c;
+        while ((c = read()) != -1 && c != ';' && entity.length() < 10
+                && (Character.isLetterOrDigit(c) || c == '#')) {
+            entity.append((char) c);
+        }
+        String name = entity.toString();
+        int value = -1;
+        if (c == ';') {
+            value = decodeEntity(name);
+        }
+        if (value != -1) {
+            out.appendCodePoint(value);
+            return;
+        }
+        // 无法识别的实体，保留原文
+        out.append('&').append(name);
+        if (c == ';') {
+            out.append(';');
+        } else if (c != -1) {
+            unread();
+        }
+    }
+
+    private static int decodeEntity(String name) {
+        switch (name) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            case "nbsp":
+                return ' ';
+            case "ldquo":
+                return 0x201C;
+            case "rdquo":
+                return 0x201D;
+            case "lsquo":
+                return 0x2018;
+            case "rsquo":
+                return 0x2019;
+            case "hellip":
+                return 0x2026;
+            case "mdash":
+                return 0x2014;
+            case "middot":
+                return 0x00B7;
+        }
+        if (name.length() > 1 && name.charAt(0) == '#') {
+            try {
+                int value = name.charAt(1) == 'x' || name.charAt(1) == 'X'
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return Character.isValidCodePoint(value) ? value : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private void flushText() {
+        if (mText.length() > 0) {
+            mHandler.text(mText);
+            mText.setLength(0);
+        }
+    }
+
+    private boolean skipPrefix(String prefix) throws IOException {
+        for (int i = 0; i < prefix.length(); ++i) {
+            int c = read();
+            if (c != prefix.charAt(i)) {
+                if (c != -1) {
+                    unread();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipUntil(String end) throws IOException {
+        readUntil(end, null);
+    }
+
+    private void readUntil(String end, StringBuilder out) throws IOException {
+        int matched = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == end.charAt(matched)) {
+                if (++matched == end.length()) {
+                    return;
+                }
+                continue;
+            }
+            if (out != null) {
+                out.append(end, 0, matched);
+            }
+            matched = c == end.charAt(0) ? 1 : 0;
+            if (matched == 0 && out != null) {
+                out.append((char) c);
+            }
+        }
+    }
+
+    private int skipSpace(int c) throws IOException {
+        while (c != -1 && Character.isWhitespace(c)) {
+            c = read();
+        }
+        return c;
+    }
+
+    private static boolean isNameStart(int c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit) {
+            mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mPos = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPos++];
+    }
+
+    //退回上一个读取的字符 (只能退回一个)
+    private void unread() {
+        --mPos;
+    }
+}
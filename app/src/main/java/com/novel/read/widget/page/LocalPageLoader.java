@@ -10,22 +10,16 @@ import com.novel.read.model.db.dbManage.BookRepository;
 import com.novel.read.utlis.Charset;
 import com.novel.read.utlis.DateUtli;
 import com.novel.read.utlis.FileUtils;
-import com.novel.read.utlis.IOUtils;
 import com.novel.read.utlis.MD5Utils;
 import com.novel.read.utlis.RxUtils;
-import com.novel.read.utlis.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import io.reactivex.Single;
 import io.reactivex.SingleEmitter;
@@ -38,28 +32,17 @@ import io.reactivex.disposables.Disposable;
  */
 public class LocalPageLoader extends PageLoader {
     private static final String TAG = "LocalPageLoader";
-    //默认从文件中获取数据的长度
-    private final static int BUFFER_SIZE = 512 * 1024;
-    //没有标题的时候，每个章节的最大长度
-    private final static int MAX_LENGTH_WITH_NO_CHAPTER = 10 * 1024;
-
-    // "序(章)|前言"
-    private final static Pattern mPreChapterPattern = Pattern.compile("^(\\s{0,10})((\u5e8f[\u7ae0\u8a00]?)|(\u524d\u8a00)|(\u6954\u5b50))(\\s{0,10})$", Pattern.MULTILINE);
-
-    //正则表达式章节匹配模式
-    // "(第)([0-9零一二两三四五六七八九十百千万壹贰叁肆伍陆柒捌玖拾佰仟]{1,10})([章节回集卷])(.*)"
-    private static final String[] CHAPTER_PATTERNS = new String[]{"^(.{0,8})(\u7b2c)([0-9\u96f6\u4e00\u4e8c\u4e24\u4e09\u56db\u4e94\u516d\u4e03\u516b\u4e5d\u5341\u767e\u5343\u4e07\u58f9\u8d30\u53c1\u8086\u4f0d\u9646\u67d2\u634c\u7396\u62fe\u4f70\u4edf]{1,10})([\u7ae0\u8282\u56de\u96c6\u5377])(.{0,30})$",
-            "^(\\s{0,4})([\\(\u3010\u300a]?(\u5377)?)([0-9\u96f6\u4e00\u4e8c\u4e24\u4e09\u56db\u4e94\u516d\u4e03\u516b\u4e5d\u5341\u767e\u5343\u4e07\u58f9\u8d30\u53c1\u8086\u4f0d\u9646\u67d2\u634c\u7396\u62fe\u4f70\u4edf]{1,10})([\\.:\uff1a\u0020\f\t])(.{0,30})$",
-            "^(\\s{0,4})([\\(\uff08\u3010\u300a])(.{0,30})([\\)\uff09\u3011\u300b])(\\s{0,2})$",
-            "^(\\s{0,4})(\u6b63\u6587)(.{0,20})$",
-            "^(.{0,4})(Chapter|chapter)(\\s{0,4})([0-9]{1,4})(.{0,30})$"};
-
-    //章节解析模式
-    private Pattern mChapterPattern = null;
     //获取书本的文件
     private File mBookFile;
     //编码类型
     private Charset mCharset;
+    //章节的读取器
+    private TxtBookReader mBookReader;
+    //追加分章时，原来的最后一章的位置，-1 表示重新分章
+    private int mAppendFrom = -1;
+    //分章的文件长度以及校验值
+    private long mIndexedLength;
+    private long mIndexedHash;
 
     private Disposable mChapterDisp = null;
 
@@ -85,183 +68,25 @@ public class LocalPageLoader extends PageLoader {
     }
 
     /**
-     * 未完成的部分:
-     * 1. 序章的添加
-     * 2. 章节存在的书本的虚拟分章效果
+     * 对文件进行分章
      *
      * @throws IOException
      */
     private void loadChapters() throws IOException {
-        List<TxtChapter> chapters = new ArrayList<>();
-        //获取文件流
-        RandomAccessFile bookStream = new RandomAccessFile(mBookFile, "r");
-        //寻找匹配文章标题的正则表达式，判断是否存在章节名
-        boolean hasChapter = checkChapterType(bookStream);
-        //加载章节
-        byte[] buffer = new byte[BUFFER_SIZE];
-        //获取到的块起始点，在文件中的位置
-        long curOffset = 0;
-        //block的个数
-        int blockPos = 0;
-        //读取的长度
-        int length;
-
-        //获取文件中的数据到buffer，直到没有数据为止
-        while ((length = bookStream.read(buffer, 0, buffer.length)) > 0) {
-            ++blockPos;
-            //如果存在Chapter
-            if (hasChapter) {
-                //将数据转换成String
-                String blockContent = new String(buffer, 0, length, mCharset.getCode());
-                //当前Block下使过的String的指针
-                int seekPos = 0;
-                //进行正则匹配
-                Matcher matcher = mChapterPattern.matcher(blockContent);
-                //如果存在相应章节
-                while (matcher.find()) {
-                    //获取匹配到的字符在字符串中的起始位置
-                    int chapterStart = matcher.start();
-
-                    //如果 seekPos == 0 && nextChapterPos != 0 表示当前block处前面有一段内容
-                    //第一种情况一定是序章 第二种情况可能是上一个章节的内容
-                    if (seekPos == 0 && chapterStart != 0) {
-                        //获取当前章节的内容
-                        String chapterContent = blockContent.substring(seekPos, chapterStart);
-                        //设置指针偏移
-                        seekPos += chapterContent.length();
-
-                        //如果当前对整个文件的偏移位置为0的话，那么就是序章
-                        if (curOffset == 0) {
-                            //创建序章
-                            TxtChapter preChapter = new TxtChapter();
-                            preChapter.title = "序章";
-                            preChapter.start = 0;
-                            preChapter.end = chapterContent.getBytes(mCharset.getCode()).length; //获取String的byte值,作为最终值
-
-                            //如果序章大小大于30才添加进去
-                            if (preChapter.end - preChapter.start > 30) {
-                                chapters.add(preChapter);
-                            }
-
-                            //创建当前章节
-                            TxtChapter curChapter = new TxtChapter();
-                            curChapter.title = matcher.group();
-                            curChapter.start = preChapter.end;
-                            chapters.add(curChapter);
-                        }
-                        //否则就block分割之后，上一个章节的剩余内容
-                        else {
-                            //获取上一章节
-                            TxtChapter lastChapter = chapters.get(chapters.size() - 1);
-                            //将当前段落添加上一章去
-                            lastChapter.end += chapterContent.getBytes(mCharset.getCode()).length;
-
-                            //如果章节内容太小，则移除
-                            if (lastChapter.end - lastChapter.start < 30) {
-                                chapters.remove(lastChapter);
-                            }
-
-                            //创建当前章节
-                            TxtChapter curChapter = new TxtChapter();
-                            curChapter.title = matcher.group();
-                            curChapter.start = lastChapter.end;
-                            chapters.add(curChapter);
-                        }
-                    } else {
-                        //是否存在章节
-                        if (chapters.size() != 0) {
-                            //获取章节内容
-                            String chapterContent = blockContent.substring(seekPos, matcher.start());
-                            seekPos += chapterContent.length();
-
-                            //获取上一章节
-                            TxtChapter lastChapter = chapters.get(chapters.size() - 1);
-                            lastChapter.end = lastChapter.start + chapterContent.getBytes(mCharset.getCode()).length;
-
-                            //如果章节内容太小，则移除
-                            if (lastChapter.end - lastChapter.start < 30) {
-                                chapters.remove(lastChapter);
-                            }
-
-                            //创建当前章节
-                            TxtChapter curChapter = new TxtChapter();
-                            curChapter.title = matcher.group();
-                            curChapter.start = lastChapter.end;
-                            chapters.add(curChapter);
-                        }
-                        //如果章节不存在则创建章节
-                        else {
-                            TxtChapter curChapter = new TxtChapter();
-                            curChapter.title = matcher.group();
-                            curChapter.start = 0;
-                            chapters.add(curChapter);
-                        }
-                    }
-                }
-            }
-            //进行本地虚拟分章
-            else {
-                //章节在buffer的偏移量
-                int chapterOffset = 0;
-                //当前剩余可分配的长度
-                int strLength = length;
-                //分章的位置
-                int chapterPos = 0;
-
-                while (strLength > 0) {
-                    ++chapterPos;
-                    //是否长度超过一章
-                    if (strLength > MAX_LENGTH_WITH_NO_CHAPTER) {
-                        //在buffer中一章的终止点
-                        int end = length;
-                        //寻找换行符作为终止点
-                        for (int i = chapterOffset + MAX_LENGTH_WITH_NO_CHAPTER; i < length; ++i) {
-                            if (buffer[i] == Charset.Companion.getBLANK()) {
-                                end = i;
-                                break;
-                            }
-                        }
-                        TxtChapter chapter = new TxtChapter();
-                        chapter.title = "第" + blockPos + "章" + "(" + chapterPos + ")";
-                        chapter.start = curOffset + chapterOffset + 1;
-                        chapter.end = curOffset + end;
-                        chapters.add(chapter);
-                        //减去已经被分配的长度
-                        strLength = strLength - (end - chapterOffset);
-                        //设置偏移的位置
-                        chapterOffset = end;
-                    } else {
-                        TxtChapter chapter = new TxtChapter();
-                        chapter.title = "第" + blockPos + "章" + "(" + chapterPos + ")";
-                        chapter.start = curOffset + chapterOffset + 1;
-                        chapter.end = curOffset + length;
-                        chapters.add(chapter);
-                        strLength = 0;
-                    }
-                }
-            }
-
-            //block的偏移点
-            curOffset += length;
-
-            if (hasChapter) {
-                //设置上一章的结尾
-                TxtChapter lastChapter = chapters.get(chapters.size() - 1);
-                lastChapter.end = curOffset;
-            }
-
-            //当添加的block太多的时候，执行GC
-            if (blockPos % 15 == 0) {
-                System.gc();
-                System.runFinalization();
-            }
+        TxtChapterIndexer indexer = new TxtChapterIndexer(mBookFile, mCharset);
+        List<BookChapterBean> bookChapters = mCollBook.getBookChapters();
+        //文件只是在结尾追加了内容时，只对追加的部分分章
+        List<TxtChapter> chapters = indexer.indexAppended(convertTxtChapter(bookChapters),
+                mCollBook.getIndexedLength(), mCollBook.getIndexedHash());
+        if (chapters != null) {
+            mAppendFrom = bookChapters.size() - 1;
+        } else {
+            mAppendFrom = -1;
+            chapters = indexer.index();
         }
-
         mChapterList = chapters;
-        IOUtils.INSTANCE.close(bookStream);
-
-        System.gc();
-        System.runFinalization();
+        mIndexedLength = indexer.getIndexedLength();
+        mIndexedHash = indexer.getIndexedHash();
     }
 
     /**
@@ -270,52 +95,25 @@ public class LocalPageLoader extends PageLoader {
      * @param chapter
      * @return
      */
-    private byte[] getChapterContent(TxtChapter chapter) {
-        RandomAccessFile bookStream = null;
-        try {
-            bookStream = new RandomAccessFile(mBookFile, "r");
-            bookStream.seek(chapter.start);
-            int extent = (int) (chapter.end - chapter.start);
-            byte[] content = new byte[extent];
-            bookStream.read(content, 0, extent);
-            return content;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            IOUtils.INSTANCE.close(bookStream);
-        }
-
-        return new byte[0];
+    private byte[] getChapterContent(TxtChapter chapter) throws IOException {
+        return getBookReader().readBytes(chapter);
     }
 
     /**
-     * 1. 检查文件中是否存在章节名
-     * 2. 判断文件中使用的章节名类型的正则表达式
-     *
-     * @return 是否存在章节名
+     * 获取书本的读取器，整本书共用一个
      */
-    private boolean checkChapterType(RandomAccessFile bookStream) throws IOException {
-        //首先获取128k的数据
-        byte[] buffer = new byte[BUFFER_SIZE / 4];
-        int length = bookStream.read(buffer, 0, buffer.length);
-        //进行章节匹配
-        for (String str : CHAPTER_PATTERNS) {
-            Pattern pattern = Pattern.compile(str, Pattern.MULTILINE);
-            Matcher matcher = pattern.matcher(new String(buffer, 0, length, mCharset.getCode()));
-            //如果匹配存在，那么就表示当前章节使用这种匹配方式
-            if (matcher.find()) {
-                mChapterPattern = pattern;
-                //重置指针位置
-                bookStream.seek(0);
-                return true;
-            }
+    private synchronized TxtBookReader getBookReader() throws IOException {
+        if (mBookReader == null) {
+            mBookReader = new TxtBookReader(mBookFile, mCharset);
         }
+        return mBookReader;
+    }
 
-        //重置指针位置
-        bookStream.seek(0);
-        return false;
+    private synchronized void closeBookReader() {
+        if (mBookReader != null) {
+            mBookReader.close();
+            mBookReader = null;
+        }
     }
 
     @Override
@@ -339,11 +137,13 @@ public class LocalPageLoader extends PageLoader {
             mChapterDisp.dispose();
             mChapterDisp = null;
         }
+        closeBookReader();
     }
 
     @Override
     public void refreshChapterList() {
         // 对于文件是否存在，或者为空的判断，不作处理。 ==> 在文件打开前处理过了。
+        closeBookReader();
         mBookFile = new File(mCollBook.getCover());
         //获取文件编码
         mCharset = FileUtils.getCharset(mBookFile.getAbsolutePath());
@@ -365,6 +165,8 @@ public class LocalPageLoader extends PageLoader {
 
             // 加载并显示当前章节
             openChapter();
+            // 在后台建立搜索索引
+            updateSearchIndex();
 
             return;
         }
@@ -374,6 +176,7 @@ public class LocalPageLoader extends PageLoader {
             @Override
             public void subscribe(SingleEmitter<Void> e) throws Exception {
                 loadChapters();
+                saveChapters(lastModified);
                 e.onSuccess(new Void());
             }
         }).compose(RxUtils::toSimpleSingle)
@@ -393,27 +196,10 @@ public class LocalPageLoader extends PageLoader {
                             mPageChangeListener.onCategoryFinish(mChapterList);
                         }
 
-                        // 存储章节到数据库
-                        List<BookChapterBean> bookChapterBeanList = new ArrayList<>();
-                        for (int i = 0; i < mChapterList.size(); ++i) {
-                            TxtChapter chapter = mChapterList.get(i);
-                            BookChapterBean bean = new BookChapterBean();
-                            bean.setId(MD5Utils.INSTANCE.strToMd5By16(mBookFile.getAbsolutePath()
-                                    + File.separator + chapter.title)); // 将路径+i 作为唯一值
-                            bean.setTitle(chapter.getTitle());
-                            bean.setStart(chapter.getStart());
-                            bean.setUnreadble(false);
-                            bean.setEnd(chapter.getEnd());
-                            bookChapterBeanList.add(bean);
-                        }
-                        mCollBook.setBookChapters(bookChapterBeanList);
-                        mCollBook.setUpdated(lastModified);
-
-                        BookRepository.getInstance().saveBookChaptersWithAsync(bookChapterBeanList, mCollBook);
-                        BookRepository.getInstance().saveCollBook(mCollBook);
-
                         // 加载并显示当前章节
                         openChapter();
+                        // 在后台建立搜索索引
+                        updateSearchIndex();
                     }
 
                     @Override
@@ -424,17 +210,55 @@ public class LocalPageLoader extends PageLoader {
                 });
     }
 
+    /**
+     * 存储章节到数据库，在分章的线程中执行，不阻塞主线程
+     */
+    private void saveChapters(String lastModified) {
+        List<BookChapterBean> bookChapterBeanList = new ArrayList<>();
+        if (mAppendFrom != -1) {
+            //保留原来的章节，更新原来最后一章的结束位置
+            bookChapterBeanList.addAll(mCollBook.getBookChapters().subList(0, mAppendFrom + 1));
+            bookChapterBeanList.get(mAppendFrom).setEnd(mChapterList.get(mAppendFrom).getEnd());
+        }
+        for (int i = bookChapterBeanList.size(); i < mChapterList.size(); ++i) {
+            TxtChapter chapter = mChapterList.get(i);
+            BookChapterBean bean = new BookChapterBean();
+            bean.setId(MD5Utils.INSTANCE.strToMd5By16(mBookFile.getAbsolutePath()
+                    + File.separator + chapter.title)); // 将路径+i 作为唯一值
+            bean.setTitle(chapter.getTitle());
+            bean.setStart(chapter.getStart());
+            bean.setUnreadble(false);
+            bean.setEnd(chapter.getEnd());
+            bookChapterBeanList.add(bean);
+        }
+        mCollBook.setBookChapters(bookChapterBeanList);
+        mCollBook.setUpdated(lastModified);
+        mCollBook.setIndexedLength(mIndexedLength);
+        mCollBook.setIndexedHash(mIndexedHash);
+
+        if (mAppendFrom != -1) {
+            BookRepository.getInstance().appendBookChaptersWithAsync(mCollBook, mAppendFrom);
+        } else {
+            BookRepository.getInstance().saveBookChaptersWithAsync(bookChapterBeanList, mCollBook);
+        }
+        BookRepository.getInstance().saveCollBook(mCollBook);
+    }
+
     @Override
     protected BufferedReader getChapterReader(TxtChapter chapter) throws Exception {
         //从文件中获取数据
         byte[] content = getChapterContent(chapter);
-        String test = new String(content);
-        test = StringUtils.INSTANCE.convertCC(test);
-        content = test.getBytes();
+        //繁简转换在 ChapterText 中进行，这里按照文件的编码读取原文
         ByteArrayInputStream bais = new ByteArrayInputStream(content);
         return new BufferedReader(new InputStreamReader(bais, mCharset.getCode()));
     }
 
+    @Override
+    ChapterText getChapterText(TxtChapter chapter) throws Exception {
+        //直接将章节解码到复用的缓冲区中
+        return getBookReader().read(chapter);
+    }
+
     @Override
     protected boolean hasChapterData(TxtChapter chapter) {
         return true;
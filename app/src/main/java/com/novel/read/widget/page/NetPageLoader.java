@@ -2,17 +2,14 @@ package com.novel.read.widget.page;
 
 
 import android.content.Context;
-import com.novel.read.constants.Constant;
 import com.novel.read.model.db.BookChapterBean;
 import com.novel.read.model.db.CollBookBean;
-import com.novel.read.model.db.dbManage.BookManager;
+import com.novel.read.model.db.dbManage.BookCacheManager;
 import com.novel.read.model.db.dbManage.BookRepository;
-import com.novel.read.utlis.FileUtils;
+import com.novel.read.model.db.dbManage.ChapterStore;
+import com.novel.read.utlis.RxUtils;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,6 +23,16 @@ public class NetPageLoader extends PageLoader {
     public NetPageLoader(PageView pageView, CollBookBean collBook) {
         super(pageView, collBook);
         mContext = pageView.getContext();
+        // 正在阅读的书籍不会被淘汰
+        BookCacheManager.getInstance().acquire(collBook.getId());
+    }
+
+    @Override
+    public void closeBook() {
+        if (!isClose()) {
+            BookCacheManager.getInstance().release(mCollBook.getId());
+        }
+        super.closeBook();
     }
 
     private List<TxtChapter> convertTxtChapter(List<BookChapterBean> bookChapters) {
@@ -47,6 +54,12 @@ public class NetPageLoader extends PageLoader {
 
         // 将 BookChapter 转换成当前可用的 Chapter
         mChapterList = convertTxtChapter(mCollBook.getBookChapters());
+        // 按照章节的序号记录已缓存的章节
+        List<String> titles = new ArrayList<>(mChapterList.size());
+        for (TxtChapter chapter : mChapterList) {
+            titles.add(chapter.title);
+        }
+        ChapterStore.get(mCollBook.getId()).setChapters(titles);
         isChapterListPrepare = true;
 
         // 目录加载完成，执行回调操作。
@@ -59,20 +72,23 @@ public class NetPageLoader extends PageLoader {
             // 打开章节
             openChapter();
         }
+        // 为已缓存的章节建立搜索索引
+        updateSearchIndex();
+        // 将旧版本的章节文件导入章节存储
+        BookRepository.getInstance().migrateChaptersInRx(mCollBook.getId())
+                .compose(RxUtils::toSimpleSingle)
+                .subscribe(value -> {
+                }, Throwable::printStackTrace);
     }
 
     @Override
     protected BufferedReader getChapterReader(TxtChapter chapter) throws Exception {
-        File file = new File(Constant.BOOK_CACHE_PATH + mCollBook.getId()
-                + File.separator + chapter.title + FileUtils.SUFFIX_NB);
-        if (!file.exists()) return null;
-        Reader reader = new FileReader(file);
-        return new BufferedReader(reader);
+        return ChapterStore.get(mCollBook.getId()).getReader(chapter.title);
     }
 
     @Override
     protected boolean hasChapterData(TxtChapter chapter) {
-        return BookManager.isChapterCached(mCollBook.getId(), chapter.title);
+        return ChapterStore.get(mCollBook.getId()).contains(chapter.title);
     }
 
     // 装载上一章节的内容
@@ -192,12 +208,12 @@ public class NetPageLoader extends PageLoader {
 
 
         List<TxtChapter> chapters = new ArrayList<>();
+        ChapterStore store = ChapterStore.get(mCollBook.getId());
 
         // 过滤，哪些数据已经加载了
         for (int i = start; i <= end; ++i) {
-            TxtChapter txtChapter = mChapterList.get(i);
-            if (!hasChapterData(txtChapter)) {
-                chapters.add(txtChapter);
+            if (!store.isCached(i)) {
+                chapters.add(mChapterList.get(i));
             }
         }
 
@@ -6,13 +6,12 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 
 import android.text.TextPaint;
 import android.text.TextUtils;
+import android.util.Pair;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -22,24 +21,20 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.target.SimpleTarget;
 import com.bumptech.glide.request.transition.Transition;
 import com.novel.read.R;
-import com.novel.read.constants.Constant;
 import com.novel.read.model.db.BookRecordBean;
 import com.novel.read.model.db.CollBookBean;
 import com.novel.read.model.db.dbManage.BookRepository;
-import com.novel.read.utlis.DateUtli;
-import com.novel.read.utlis.IOUtils;
 import com.novel.read.utlis.RxUtils;
 import com.novel.read.utlis.ScreenUtils;
-import com.novel.read.utlis.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import io.reactivex.Observable;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.Observer;
 import io.reactivex.Single;
 import io.reactivex.SingleObserver;
 import io.reactivex.SingleOnSubscribe;
@@ -59,11 +54,16 @@ public abstract class PageLoader {
     public static final int STATUS_PARING = 5;          // 正在解析 (装载本地数据)
     public static final int STATUS_PARSE_ERROR = 6;     // 本地文件解析错误(暂未被使用)
     public static final int STATUS_CATEGORY_EMPTY = 7;  // 获取到的目录为空
+    public static final int STATUS_PAGING = 8;          // 正在排版 (已显示部分页面，剩余页面仍在后台排版)
     // 默认的显示参数配置
     private static final int DEFAULT_MARGIN_HEIGHT = 28;
     private static final int DEFAULT_MARGIN_WIDTH = 15;
     private static final int DEFAULT_TIP_SIZE = 12;
     private static final int EXTRA_TITLE_SIZE = 4;
+    // 后台排版时，每排版多少页通知一次
+    private static final int PAGING_BATCH_SIZE = 4;
+    // 书内搜索最多返回的结果数
+    public static final int MAX_SEARCH_HITS = 100;
 
     // 当前章节列表
     protected List<TxtChapter> mChapterList;
@@ -77,12 +77,13 @@ public abstract class PageLoader {
     private PageView mPageView;
     // 当前显示的页
     private TxtPage mCurPage;
-    // 上一章的页面列表缓存
-    private List<TxtPage> mPrePageList;
     // 当前章节的页面列表
     private List<TxtPage> mCurPageList;
-    // 下一章的页面列表缓存
-    private List<TxtPage> mNextPageList;
+    // 其他章节的页面列表缓存
+    private TxtPageCache mPageCache = new TxtPageCache();
+    // 预加载当前章节之前、之后的章节数
+    private int mPreLoadBehind = 1;
+    private int mPreLoadAhead = 2;
 
     // 绘制电池的画笔
     private Paint mBatteryPaint;
@@ -103,6 +104,23 @@ public abstract class PageLoader {
     private BookRecordBean mBookRecord;
 
     private Disposable mPreLoadDisp;
+    // 当前章节的分页器 (当前章节仍在后台排版时不为 null)
+    private TxtPaginator mPaginator;
+    private Disposable mPagingDisp;
+    // 后台排版出错、缺少后面页面的页面列表，不放入缓存
+    private List<TxtPage> mIncompletePageList;
+    // 排版参数发生变化后，正在后台进行的重新排版
+    private Disposable mRelayoutDisp;
+    // 页面绘制 (当前样式的快照)
+    private PageRenderer mRenderer;
+    // 样式的版本，样式发生变化时增加
+    private int mRenderVersion;
+    // 上一页、下一页的预绘制
+    private final PagePrerenderer mPrerenderer = new PagePrerenderer();
+    // 书内搜索的索引
+    private BookSearchIndex mSearchIndex;
+    // 后台进行的搜索索引更新
+    private Disposable mSearchIndexDisp;
 
     /*****************params**************************/
     // 当前的状态
@@ -290,17 +308,15 @@ public abstract class PageLoader {
      * @param pos:从 0 开始。
      */
     public void skipToChapter(int pos) {
-        // 设置参数
-        mCurChapterPos = pos;
-
-        // 将上一章的缓存设置为null
-        mPrePageList = null;
-        // 如果当前下一章缓存正在执行，则取消
+        // 将当前章节放入缓存
+        cancelRelayout();
+        cachePageList(mCurChapterPos);
+        // 如果当前预加载正在执行，则取消
         if (mPreLoadDisp != null) {
             mPreLoadDisp.dispose();
         }
-        // 将下一章缓存设置为null
-        mNextPageList = null;
+        // 设置参数
+        mCurChapterPos = pos;
 
         // 打开指定章节
         openChapter();
@@ -320,6 +336,116 @@ public abstract class PageLoader {
         return true;
     }
 
+    /**
+     * 跳转到搜索结果所在的页
+     */
+    public boolean skipToSearchHit(BookSearchHit hit) {
+        if (!isChapterListPrepare || hit.getChapterPos() >= mChapterList.size()) {
+            return false;
+        }
+        if (!isChapterOpen || hit.getChapterPos() != mCurChapterPos) {
+            skipToChapter(hit.getChapterPos());
+        }
+        // 章节还在加载 (例如网络章节还没有下载完成)
+        if (mStatus != STATUS_FINISH || mCurPageList == null || mCurPageList.isEmpty()) {
+            return false;
+        }
+        mCurPage = getCurPage(findPageByOffset(hit.getOffset()));
+        mPageView.drawCurPage(false);
+        return true;
+    }
+
+    /**
+     * 查找当前章节中包含文本位置 offset 的页
+     */
+    private int findPageByOffset(int offset) {
+        if (mPaginator != null) {
+            int pos = mPaginator.layoutToOffset(offset);
+            syncPagingPages();
+            return pos;
+        }
+        for (int i = 0; i < mCurPageList.size(); ++i) {
+            TxtPage page = mCurPageList.get(i);
+            int lineCount = page.getLineCount();
+            if (lineCount != 0 && page.getLineEnd(lineCount - 1) > offset) {
+                return i;
+            }
+        }
+        return mCurPageList.size() - 1;
+    }
+
+    /**
+     * 书内搜索，在后台更新索引后进行查询
+     *
+     * @return 按照章节和位置排列的搜索结果，最多 {@link #MAX_SEARCH_HITS} 条
+     */
+    public Single<List<BookSearchHit>> searchBook(String keyword) {
+        if (!isChapterListPrepare) {
+            return Single.just(new ArrayList<>());
+        }
+        // 搜索时会更新索引，取消后台的更新
+        cancelSearchIndex();
+        BookSearchIndex index = getSearchIndex();
+        List<TxtChapter> chapters = new ArrayList<>(mChapterList);
+        BookSearchIndex.ChapterSource source = pos -> getSearchText(chapters.get(pos));
+        return Single.create((SingleOnSubscribe<List<BookSearchHit>>) e -> {
+            index.update(chapters, source);
+            e.onSuccess(index.search(chapters, keyword, MAX_SEARCH_HITS, source));
+        }).compose(RxUtils::toSimpleSingle);
+    }
+
+    /**
+     * 在后台为有数据的章节建立搜索索引，章节列表加载完成时调用
+     */
+    protected void updateSearchIndex() {
+        if (!isChapterListPrepare) {
+            return;
+        }
+        cancelSearchIndex();
+        BookSearchIndex index = getSearchIndex();
+        List<TxtChapter> chapters = new ArrayList<>(mChapterList);
+        Single.create((SingleOnSubscribe<Boolean>) e -> {
+            index.update(chapters, pos -> getSearchText(chapters.get(pos)));
+            e.onSuccess(true);
+        }).compose(RxUtils::toSimpleSingle)
+                .subscribe(new SingleObserver<Boolean>() {
+                    @Override
+                    public void onSubscribe(Disposable d) {
+                        mSearchIndexDisp = d;
+                    }
+
+                    @Override
+                    public void onSuccess(Boolean value) {
+                        mSearchIndexDisp = null;
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        e.printStackTrace();
+                        mSearchIndexDisp = null;
+                    }
+                });
+    }
+
+    private void cancelSearchIndex() {
+        if (mSearchIndexDisp != null) {
+            mSearchIndexDisp.dispose();
+            mSearchIndexDisp = null;
+        }
+    }
+
+    private BookSearchIndex getSearchIndex() {
+        if (mSearchIndex == null) {
+            mSearchIndex = new BookSearchIndex(mCollBook.getId());
+        }
+        return mSearchIndex;
+    }
+
+    //搜索使用的章节文本，章节数据不存在时返回 null
+    private ChapterText getSearchText(TxtChapter chapter) throws Exception {
+        return hasChapterData(chapter) ? getChapterText(chapter) : null;
+    }
+
     /**
      * 翻到上一页
      */
@@ -338,6 +464,7 @@ public abstract class PageLoader {
      * 更新时间
      */
     public void updateTime() {
+        invalidateRender();
         if (!mPageView.isRunning()) {
             mPageView.drawCurPage(true);
         }
@@ -350,6 +477,7 @@ public abstract class PageLoader {
      */
     public void updateBattery(int level) {
         mBatteryLevel = level;
+        invalidateRender();
 
         if (!mPageView.isRunning()) {
             mPageView.drawCurPage(true);
@@ -363,6 +491,7 @@ public abstract class PageLoader {
      */
     public void setTipTextSize(int textSize) {
         mTipPaint.setTextSize(textSize);
+        invalidateRender();
 
         // 如果屏幕大小加载完成
         mPageView.drawCurPage(false);
@@ -384,25 +513,11 @@ public abstract class PageLoader {
         mTitlePaint.setTextSize(mTitleSize);
         // 存储文字大小
         mSettingManager.setTextSize(mTextSize);
-        // 取消缓存
-        mPrePageList = null;
-        mNextPageList = null;
-
-        // 如果当前已经显示数据
-        if (isChapterListPrepare && mStatus == STATUS_FINISH) {
-            // 重新计算当前页面
-            dealLoadPageList(mCurChapterPos);
-
-            // 防止在最后一页，通过修改字体，以至于页面数减少导致崩溃的问题
-            if (mCurPage.position >= mCurPageList.size()) {
-                mCurPage.position = mCurPageList.size() - 1;
-            }
-
-            // 重新获取指定页面
-            mCurPage = mCurPageList.get(mCurPage.position);
+        invalidateRender();
+        // 重新排版当前章节，排版完成之前继续显示旧的页面
+        if (!relayoutChapter()) {
+            mPageView.drawCurPage(false);
         }
-
-        mPageView.drawCurPage(false);
     }
 
     /**
@@ -447,6 +562,7 @@ public abstract class PageLoader {
         mTextPaint.setColor(mTextColor);
 
         mBgPaint.setColor(mBgColor);
+        invalidateRender();
 
         mPageView.drawCurPage(false);
     }
@@ -476,6 +592,14 @@ public abstract class PageLoader {
     public void setMargin(int marginWidth, int marginHeight) {
         mMarginWidth = marginWidth;
         mMarginHeight = marginHeight;
+        invalidateRender();
+
+        // 显示区域已经确定，重新计算内容显示位置的大小
+        if (mDisplayWidth != 0 && mDisplayHeight != 0) {
+            mVisibleWidth = mDisplayWidth - mMarginWidth * 2;
+            mVisibleHeight = mDisplayHeight - mMarginHeight * 2;
+            relayoutChapter();
+        }
 
         // 如果是滑动动画，则需要重新创建了
         if (mPageMode == PageMode.SCROLL) {
@@ -505,6 +629,10 @@ public abstract class PageLoader {
      * @return
      */
     public int getPageStatus() {
+        // 章节已经可以显示，但是剩余的页面仍在排版
+        if (mStatus == STATUS_FINISH && mPaginator != null) {
+            return STATUS_PAGING;
+        }
         return mStatus;
     }
 
@@ -542,10 +670,32 @@ public abstract class PageLoader {
     }
 
     public List<TxtPage> getNextPageList() {
-        if (mNextPageList == null) {
+        List<TxtPage> pages = mPageCache.get(mCurChapterPos + 1);
+        if (pages == null) {
             return new ArrayList<>();
         }
-        return mNextPageList;
+        return pages;
+    }
+
+    /**
+     * 设置预加载的章节范围
+     *
+     * @param behind:预加载当前章节之前的章节数
+     * @param ahead:预加载当前章节之后的章节数
+     */
+    public void setPreLoadWindow(int behind, int ahead) {
+        mPreLoadBehind = Math.max(behind, 0);
+        mPreLoadAhead = Math.max(ahead, 0);
+    }
+
+    /**
+     * 设置章节页面缓存的大小
+     *
+     * @param maxSize:缓存的最大字节数
+     */
+    public void setPageCacheSize(int maxSize) {
+        mPageCache.evictAll();
+        mPageCache = new TxtPageCache(maxSize);
     }
 
     /**
@@ -669,14 +819,16 @@ public abstract class PageLoader {
         if (mPreLoadDisp != null) {
             mPreLoadDisp.dispose();
         }
+        stopPaging();
+        cancelRelayout();
+        cancelSearchIndex();
+        mPageCache.evictAll();
+        mPrerenderer.clear();
 
         clearList(mChapterList);
-        clearList(mCurPageList);
-        clearList(mNextPageList);
 
         mChapterList = null;
         mCurPageList = null;
-        mNextPageList = null;
         mPageView = null;
         mCurPage = null;
     }
@@ -701,17 +853,42 @@ public abstract class PageLoader {
      * @param chapterPos:章节序号
      * @return
      */
-    private List<TxtPage> loadPageList(int chapterPos) throws Exception {
+    private List<TxtPage> loadPageList(int chapterPos, TxtLayoutParams params) throws Exception {
+        TxtPaginator paginator = createPaginator(chapterPos, params);
+        if (paginator == null) {
+            return null;
+        }
+        return paginator.layoutAll();
+    }
+
+    /**
+     * 创建章节的分页器
+     *
+     * @param chapterPos:章节序号
+     * @return 章节数据不存在时返回 null
+     */
+    private TxtPaginator createPaginator(int chapterPos, TxtLayoutParams params) throws Exception {
         // 获取章节
         TxtChapter chapter = mChapterList.get(chapterPos);
         // 判断章节是否存在
         if (!hasChapterData(chapter)) {
             return null;
         }
-        // 获取章节的文本流
-        BufferedReader reader = getChapterReader(chapter);
+        // 获取章节的文本
+        ChapterText chapterText = getChapterText(chapter);
+        if (chapterText == null) {
+            return null;
+        }
+        return new TxtPaginator(chapter, chapterText, params);
+    }
 
-        return loadPages(chapter, reader);
+    /**
+     * 获取当前排版参数的快照
+     */
+    private TxtLayoutParams getLayoutParams() {
+        return new TxtLayoutParams(mVisibleWidth, mVisibleHeight,
+                mTextInterval, mTitleInterval, mTextPara, mTitlePara,
+                mTextPaint, mTitlePaint);
     }
 
     /**
@@ -724,6 +901,19 @@ public abstract class PageLoader {
      */
     protected abstract BufferedReader getChapterReader(TxtChapter chapter) throws Exception;
 
+    /**
+     * 获取章节规范化后的文本，默认通过 {@link #getChapterReader(TxtChapter)} 读取
+     *
+     * @return 章节不存在时返回 null
+     */
+    ChapterText getChapterText(TxtChapter chapter) throws Exception {
+        BufferedReader reader = getChapterReader(chapter);
+        if (reader == null) {
+            return null;
+        }
+        return ChapterText.read(chapter, reader);
+    }
+
     /**
      * 章节数据是否存在
      */
@@ -732,9 +922,16 @@ public abstract class PageLoader {
     /***********************************default method***********************************************/
 
     void drawPage(Bitmap bitmap, boolean isUpdate) {
-        drawBackground(mPageView.getBgBitmap(), isUpdate);
+        // 优先使用预先绘制好的页面
+        if (isUpdate || !drawPrerenderedPage(bitmap)) {
+            drawBackground(mPageView.getBgBitmap(), isUpdate);
+            if (!isUpdate) {
+                drawContent(bitmap);
+            }
+        }
         if (!isUpdate) {
-            drawContent(bitmap);
+            // 预绘制上一页和下一页
+            prerenderPages();
         }
         //更新绘制
         mPageView.invalidate();
@@ -742,95 +939,108 @@ public abstract class PageLoader {
 
     private void drawBackground(Bitmap bitmap, boolean isUpdate) {
         Canvas canvas = new Canvas(bitmap);
-        int tipMarginHeight = ScreenUtils.INSTANCE.dpToPx(3);
-        if (!isUpdate) {
-            //绘制背景
-            canvas.drawColor(mBgColor);
-
-            if (!mChapterList.isEmpty()) {
-                //初始化标题的参数
-                //需要注意的是:绘制text的y的起始点是text的基准线的位置，而不是从text的头部的位置
-                float tipTop = tipMarginHeight - mTipPaint.getFontMetrics().top;
-                //根据状态不一样，数据不一样
-                if (mStatus != STATUS_FINISH) {
-                    if (isChapterListPrepare) {
-                        //todo 目前不清楚发生的情形,只能这样防止用户瞎逼操作导致数组越界
-                        if (mChapterList.size() > mCurChapterPos) {
-                            canvas.drawText(mChapterList.get(mCurChapterPos).getTitle()
-                                    , mMarginWidth, tipTop, mTipPaint);
-                        }
+        String title = null;
+        String pageNumber = null;
+        if (!mChapterList.isEmpty()) {
+            //根据状态不一样，数据不一样
+            if (mStatus != STATUS_FINISH) {
+                if (isChapterListPrepare) {
+                    //todo 目前不清楚发生的情形,只能这样防止用户瞎逼操作导致数组越界
+                    if (mChapterList.size() > mCurChapterPos) {
+                        title = mChapterList.get(mCurChapterPos).getTitle();
                     }
-                } else {
-                    canvas.drawText(mCurPage.title, mMarginWidth, tipTop, mTipPaint);
                 }
-
-                //绘制页码
-                // 底部的字显示的位置Y
-                float y = mDisplayHeight - mTipPaint.getFontMetrics().bottom - tipMarginHeight;
+            } else {
+                title = mCurPage.title;
                 // 只有finish的时候采用页码
-                if (mStatus == STATUS_FINISH) {
-                    String percent = (mCurPage.position + 1) + "/" + mCurPageList.size();
-                    canvas.drawText(percent, mMarginWidth, y, mTipPaint);
-                }
+                pageNumber = getPageNumber(mCurPage);
             }
-        } else {
-            //擦除区域
-            mBgPaint.setColor(mBgColor);
-            canvas.drawRect(mDisplayWidth >> 1, mDisplayHeight - mMarginHeight + ScreenUtils.INSTANCE.dpToPx(2), mDisplayWidth, mDisplayHeight, mBgPaint);
         }
+        getRenderer().drawBackground(canvas, title, pageNumber, isUpdate);
+    }
 
-        //绘制电池
-        int visibleRight = mDisplayWidth - mMarginWidth;
-        int visibleBottom = mDisplayHeight - tipMarginHeight;
-
-        int outFrameWidth = (int) mTipPaint.measureText("xxx");
-        int outFrameHeight = (int) mTipPaint.getTextSize();
-
-        int polarHeight = ScreenUtils.INSTANCE.dpToPx(6);
-        int polarWidth = ScreenUtils.INSTANCE.dpToPx(2);
-        int border = 1;
-        int innerMargin = 1;
+    private String getPageNumber(TxtPage page) {
+        return (page.position + 1) + "/" + mCurPageList.size();
+    }
 
-        //电极的制作
-        int polarLeft = visibleRight - polarWidth;
-        int polarTop = visibleBottom - (outFrameHeight + polarHeight) / 2;
-        Rect polar = new Rect(polarLeft, polarTop, visibleRight,
-                polarTop + polarHeight - ScreenUtils.INSTANCE.dpToPx(2));
+    /**
+     * 获取当前样式的页面绘制
+     */
+    private PageRenderer getRenderer() {
+        if (mRenderer == null) {
+            mRenderer = createRenderer();
+        }
+        return mRenderer;
+    }
 
-        mBatteryPaint.setStyle(Paint.Style.FILL);
-        canvas.drawRect(polar, mBatteryPaint);
+    private PageRenderer createRenderer() {
+        return new PageRenderer(mTipPaint, mBatteryPaint, mBgPaint, mTextPaint, mTitlePaint,
+                mDisplayWidth, mDisplayHeight, mMarginWidth, mMarginHeight,
+                mBgColor, mTextColor, mTextInterval, mTitleInterval, mTextPara, mTitlePara,
+                mBatteryLevel);
+    }
 
-        //外框的制作
-        int outFrameLeft = polarLeft - outFrameWidth;
-        int outFrameTop = visibleBottom - outFrameHeight;
-        int outFrameBottom = visibleBottom - ScreenUtils.INSTANCE.dpToPx(2);
-        Rect outFrame = new Rect(outFrameLeft, outFrameTop, polarLeft, outFrameBottom);
+    /**
+     * 样式发生变化 (颜色、字体、边距、电量、时间等)，之前绘制的页面不再可用
+     */
+    private void invalidateRender() {
+        mRenderer = null;
+        mRenderVersion++;
+    }
 
-        mBatteryPaint.setStyle(Paint.Style.STROKE);
-        mBatteryPaint.setStrokeWidth(border);
-        canvas.drawRect(outFrame, mBatteryPaint);
+    /**
+     * 使用预先绘制好的页面
+     *
+     * @return 是否存在可用的预绘制页面
+     */
+    private boolean drawPrerenderedPage(Bitmap bitmap) {
+        // 滚动模式下背景与内容不在同一张图上，不进行预绘制
+        if (mPageMode == PageMode.SCROLL || mStatus != STATUS_FINISH
+                || mCurPage == null || mCurPageList == null
+                || mPageView.getBgBitmap() != bitmap) {
+            return false;
+        }
 
-        //内框的制作
-        float innerWidth = (outFrame.width() - innerMargin * 2 - border) * (mBatteryLevel / 100.0f);
-        RectF innerFrame = new RectF(outFrameLeft + border + innerMargin, outFrameTop + border + innerMargin,
-                outFrameLeft + border + innerMargin + innerWidth, outFrameBottom - border - innerMargin);
+        Bitmap page = mPrerenderer.get(mCurPage, getPageNumber(mCurPage), mRenderVersion);
+        if (page == null) {
+            return false;
+        }
+        new Canvas(bitmap).drawBitmap(page, 0, 0, null);
+        return true;
+    }
 
-        mBatteryPaint.setStyle(Paint.Style.FILL);
-        canvas.drawRect(innerFrame, mBatteryPaint);
+    /**
+     * 在后台预先绘制当前页的上一页和下一页
+     */
+    private void prerenderPages() {
+        if (mPageMode == PageMode.SCROLL || mStatus != STATUS_FINISH
+                || mCurPage == null || mCurPageList == null) {
+            return;
+        }
 
-        //绘制当前时间
-        //底部的字显示的位置Y
-        float y = mDisplayHeight - mTipPaint.getFontMetrics().bottom - tipMarginHeight;
-        String time = DateUtli.INSTANCE.dateConvert(System.currentTimeMillis(), Constant.FORMAT_TIME);
-        float x = outFrameLeft - mTipPaint.measureText(time) - ScreenUtils.INSTANCE.dpToPx(4);
-        canvas.drawText(time, x, y, mTipPaint);
+        List<TxtPage> pages = new ArrayList<>(2);
+        List<String> pageNumbers = new ArrayList<>(2);
+        for (int pos : new int[]{mCurPage.position + 1, mCurPage.position - 1}) {
+            if (pos < 0 || pos >= mCurPageList.size()) {
+                continue;
+            }
+            TxtPage page = mCurPageList.get(pos);
+            // 图片页需要异步加载图片，不进行预绘制
+            if (!TextUtils.isEmpty(page.getPic())) {
+                continue;
+            }
+            pages.add(page);
+            pageNumbers.add(getPageNumber(page));
+        }
+        mPrerenderer.render(pages, pageNumbers, mRenderVersion, createRenderer(),
+                mDisplayWidth, mDisplayHeight);
     }
 
     private void drawContent(Bitmap bitmap) {
         Canvas canvas = new Canvas(bitmap);
 
         if (mPageMode == PageMode.SCROLL) {
-            canvas.drawColor(mBgColor);
+            getRenderer().drawContentBackground(canvas);
         }
 
         //绘制内容
@@ -859,68 +1069,16 @@ public abstract class PageLoader {
             }
 
             //将提示语句放到正中间
-            drawCenter(tip, canvas);
+            getRenderer().drawCenter(canvas, tip);
         } else {
-            float top;
-
-            if (mPageMode == PageMode.SCROLL) {
-                top = -mTextPaint.getFontMetrics().top;
-            } else {
-                top = mMarginHeight - mTextPaint.getFontMetrics().top;
-            }
-
-            //设置总距离
-            int interval = mTextInterval + (int) mTextPaint.getTextSize();
-            int para = mTextPara + (int) mTextPaint.getTextSize();
-            int titleInterval = mTitleInterval + (int) mTitlePaint.getTextSize();
-            int titlePara = mTitlePara + (int) mTextPaint.getTextSize();
-            String str;
-
-            //对标题进行绘制
-            for (int i = 0; i < mCurPage.titleLines; ++i) {
-                str = mCurPage.getLines().get(i);
-                //设置顶部间距
-                if (i == 0) {
-                    top += mTitlePara;
-                }
-
-                //计算文字显示的起始点
-                int start = (int) (mDisplayWidth - mTitlePaint.measureText(str)) / 2;
-                //进行绘制
-                mTitlePaint.setColor(mTextColor);
-                canvas.drawText(str, start, top, mTitlePaint);
-
-                //设置尾部间距
-                if (i == mCurPage.titleLines - 1) {
-                    top += titlePara;
-                } else {
-                    //行间距
-                    top += titleInterval;
-                }
-            }
-
-            //对内容进行绘制
-            for (int i = mCurPage.titleLines; i < mCurPage.lines.size(); ++i) {
-                str = mCurPage.getLines().get(i);
-                if (i == 0) {
-                    top = top + 15;
-                }
-
-                canvas.drawText(str, mMarginWidth, top, mTextPaint);
-
-                if (str.endsWith("\n")) {
-                    top += para;
-                } else {
-                    top += interval;
-                }
-            }
+            getRenderer().drawText(canvas, mCurPage, mPageMode == PageMode.SCROLL);
 
             if (!TextUtils.isEmpty(getCurPage().getPic())) {
                 Glide.with(mContext).asBitmap().load(getCurPage().getPic()).thumbnail(0.1f).into(new SimpleTarget<Bitmap>() {
                     @Override
                     public void onLoadStarted(@Nullable Drawable placeholder) {
                         canvas.save();
-                        drawCenter(mContext.getString(R.string.pic_loading), canvas);
+                        getRenderer().drawCenter(canvas, mContext.getString(R.string.pic_loading));
                         canvas.restore();
                     }
 
@@ -944,16 +1102,6 @@ public abstract class PageLoader {
         }
     }
 
-    //中心文字绘制
-    private void drawCenter(String tip, Canvas canvas) {
-        Paint.FontMetrics fontMetrics = mTextPaint.getFontMetrics();
-        float textHeight = fontMetrics.top - fontMetrics.bottom;
-        float textWidth = mTextPaint.measureText(tip);
-        float pivotX = (mDisplayWidth - textWidth) / 2;
-        float pivotY = (mDisplayHeight - textHeight) / 2;
-        canvas.drawText(tip, pivotX, pivotY, mTextPaint);
-    }
-
 
     //图片缩放
     private Bitmap scaleBitmap(Bitmap origin) {
@@ -977,8 +1125,11 @@ public abstract class PageLoader {
         mDisplayHeight = h;
 
         // 获取内容显示位置的大小
+        int visibleWidth = mVisibleWidth;
+        int visibleHeight = mVisibleHeight;
         mVisibleWidth = mDisplayWidth - mMarginWidth * 2;
         mVisibleHeight = mDisplayHeight - mMarginHeight * 2;
+        invalidateRender();
 
         // 重置 PageMode
         mPageView.setPageMode(mPageMode);
@@ -993,16 +1144,90 @@ public abstract class PageLoader {
                 openChapter();
             }
         } else {
-            // 如果章节已显示，那么就重新计算页面
-            if (mStatus == STATUS_FINISH) {
-                dealLoadPageList(mCurChapterPos);
-                // 重新设置文章指针的位置
-                mCurPage = getCurPage(mCurPage.position);
+            // 如果章节已显示，且显示区域发生了变化，那么就重新计算页面
+            if (visibleWidth != mVisibleWidth || visibleHeight != mVisibleHeight) {
+                relayoutChapter();
             }
             mPageView.drawCurPage(false);
         }
     }
 
+    /**
+     * 排版参数发生变化，在后台重新排版当前章节，并清空旧参数下的章节缓存。
+     * 新的页面排版完成之前，继续显示旧的页面；阅读位置以当前页第一行的文字位置为准。
+     *
+     * @return 是否开始了重新排版
+     */
+    private boolean relayoutChapter() {
+        // 取消缓存
+        clearPageCache();
+        // 取消还未完成的重新排版
+        cancelRelayout();
+
+        if (!isChapterListPrepare || !isChapterOpen
+                || mStatus != STATUS_FINISH || mCurPage == null) {
+            return false;
+        }
+
+        int chapterPos = mCurChapterPos;
+        int pagePos = mCurPage.position;
+        int textOffset = mCurPage.getTextOffset();
+        TxtLayoutParams params = getLayoutParams();
+        Single.create((SingleOnSubscribe<Pair<TxtPaginator, Integer>>) e -> {
+            TxtPaginator paginator = createPaginator(chapterPos, params);
+            if (paginator == null) {
+                throw new FileNotFoundException("chapter " + chapterPos + " not found");
+            }
+            // 找到原来的阅读位置所在的页面
+            int pos;
+            if (textOffset != -1) {
+                pos = paginator.layoutToOffset(textOffset);
+            } else {
+                pos = Math.min(paginator.layoutUntil(pagePos + 1), pagePos + 1) - 1;
+            }
+            e.onSuccess(new Pair<>(paginator, Math.max(pos, 0)));
+        }).compose(RxUtils::toSimpleSingle)
+                .subscribe(new SingleObserver<Pair<TxtPaginator, Integer>>() {
+                    @Override
+                    public void onSubscribe(Disposable d) {
+                        mRelayoutDisp = d;
+                    }
+
+                    @Override
+                    public void onSuccess(Pair<TxtPaginator, Integer> pair) {
+                        mRelayoutDisp = null;
+                        setCurPaginator(pair.first);
+                        chapterChangeCallback();
+                        mCurPage = getCurPage(pair.second);
+                        preLoadChapters();
+                        mPageView.drawCurPage(false);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        e.printStackTrace();
+                        mRelayoutDisp = null;
+                        // 后台排版失败，同步重新排版
+                        dealLoadPageList(chapterPos, pagePos + 1);
+                        if (mCurPageList != null) {
+                            mCurPage = getCurPage(pagePos);
+                        }
+                        mPageView.drawCurPage(false);
+                    }
+                });
+        return true;
+    }
+
+    /**
+     * 取消正在进行的重新排版
+     */
+    private void cancelRelayout() {
+        if (mRelayoutDisp != null) {
+            mRelayoutDisp.dispose();
+            mRelayoutDisp = null;
+        }
+    }
+
     /**
      * 翻阅上一页
      */
@@ -1046,22 +1271,25 @@ public abstract class PageLoader {
         // 加载上一章数据
         int prevChapter = mCurChapterPos - 1;
 
+        // 将当前章放入缓存
+        cachePageList(mCurChapterPos);
+
         mLastChapterPos = mCurChapterPos;
         mCurChapterPos = prevChapter;
 
-        // 当前章缓存为下一章
-        mNextPageList = mCurPageList;
-
         // 判断是否具有上一章缓存
-        if (mPrePageList != null) {
-            mCurPageList = mPrePageList;
-            mPrePageList = null;
+        List<TxtPage> pages = mPageCache.get(prevChapter);
+        if (pages != null) {
+            mCurPageList = pages;
+            mStatus = STATUS_FINISH;
 
             // 回调
             chapterChangeCallback();
         } else {
             dealLoadPageList(prevChapter);
         }
+        // 预加载前后的章节
+        preLoadChapters();
         return mCurPageList != null;
     }
 
@@ -1090,6 +1318,12 @@ public abstract class PageLoader {
                 mPageView.drawNextPage();
                 return true;
             }
+            // 排版出错时，本章后面的内容没有显示，提示错误而不是直接进入下一章
+            if (mCurPageList == mIncompletePageList) {
+                mIncompletePageList = null;
+                chapterError();
+                return false;
+            }
         }
 
         if (!hasNextChapter()) {
@@ -1113,10 +1347,18 @@ public abstract class PageLoader {
     }
 
     boolean parseCurChapter() {
-        // 解析数据
-        dealLoadPageList(mCurChapterPos);
-        // 预加载下一页面
-        preLoadNextChapter();
+        // 解析数据 (首次打开时需要同步排版到记录的页面)
+        int pageCount = isChapterOpen ? 1 : mBookRecord.getPagePos() + 1;
+        List<TxtPage> pages = mPageCache.get(mCurChapterPos);
+        if (pages != null) {
+            mCurPageList = pages;
+            mStatus = STATUS_FINISH;
+            chapterChangeCallback();
+        } else {
+            dealLoadPageList(mCurChapterPos, pageCount);
+        }
+        // 预加载前后的章节
+        preLoadChapters();
         return mCurPageList != null;
     }
 
@@ -1128,42 +1370,48 @@ public abstract class PageLoader {
     boolean parseNextChapter() {
         int nextChapter = mCurChapterPos + 1;
 
+        // 将当前章的页面列表放入缓存
+        cachePageList(mCurChapterPos);
+
         mLastChapterPos = mCurChapterPos;
         mCurChapterPos = nextChapter;
 
-        // 将当前章的页面列表，作为上一章缓存
-        mPrePageList = mCurPageList;
-
         // 是否下一章数据已经预加载了
-        if (mNextPageList != null) {
-            mCurPageList = mNextPageList;
-            mNextPageList = null;
+        List<TxtPage> pages = mPageCache.get(nextChapter);
+        if (pages != null) {
+            mCurPageList = pages;
+            mStatus = STATUS_FINISH;
             // 回调
             chapterChangeCallback();
         } else {
             // 处理页面解析
-            dealLoadPageList(nextChapter);
+            dealLoadPageList(nextChapter, 1);
         }
-        // 预加载下一页面
-        preLoadNextChapter();
+        // 预加载前后的章节
+        preLoadChapters();
         return mCurPageList != null;
     }
 
     private void dealLoadPageList(int chapterPos) {
+        dealLoadPageList(chapterPos, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 解析章节的页面列表
+     *
+     * @param chapterPos:章节序号
+     * @param pageCount:需要同步排版的页数，剩余的页面在后台继续排版
+     */
+    private void dealLoadPageList(int chapterPos, int pageCount) {
+        // 取消上一个章节的排版
+        stopPaging();
         try {
-            mCurPageList = loadPageList(chapterPos);
-            if (mCurPageList != null) {
-                if (mCurPageList.isEmpty()) {
-                    mStatus = STATUS_EMPTY;
-
-                    // 添加一个空数据
-                    TxtPage page = new TxtPage();
-                    page.lines = new ArrayList<>(1);
-                    mCurPageList.add(page);
-                } else {
-                    mStatus = STATUS_FINISH;
-                }
+            TxtPaginator paginator = createPaginator(chapterPos, getLayoutParams());
+            if (paginator != null) {
+                paginator.layoutUntil(Math.max(pageCount, 1));
+                setCurPaginator(paginator);
             } else {
+                mCurPageList = null;
                 mStatus = STATUS_LOADING;
             }
         } catch (Exception e) {
@@ -1176,55 +1424,236 @@ public abstract class PageLoader {
         chapterChangeCallback();
     }
 
+    /**
+     * 使用分页器已经排版的页面作为当前章节的页面列表
+     */
+    private void setCurPaginator(TxtPaginator paginator) {
+        stopPaging();
+        mCurPageList = new ArrayList<>();
+        paginator.copyPages(mCurPageList);
+
+        if (mCurPageList.isEmpty()) {
+            mStatus = STATUS_EMPTY;
+
+            // 添加一个空数据
+            TxtPage page = new TxtPage();
+            page.lineOffsets = new int[]{0};
+            mCurPageList.add(page);
+        } else {
+            mStatus = STATUS_FINISH;
+            // 剩余的页面交给后台排版
+            if (!paginator.isFinish()) {
+                startPaging(paginator);
+            }
+        }
+    }
+
+    /**
+     * 在后台继续排版当前章节剩余的页面
+     */
+    private void startPaging(TxtPaginator paginator) {
+        mPaginator = paginator;
+
+        Observable.create((ObservableOnSubscribe<Integer>) e -> {
+            while (!e.isDisposed() && !paginator.isFinish()) {
+                for (int i = 0; i < PAGING_BATCH_SIZE; ++i) {
+                    paginator.layoutUntil(paginator.getPageCount() + 1);
+                }
+                e.onNext(paginator.getPageCount());
+            }
+            e.onComplete();
+        }).compose(RxUtils::toSimpleSingle)
+                .subscribe(new Observer<Integer>() {
+                    @Override
+                    public void onSubscribe(Disposable d) {
+                        mPagingDisp = d;
+                    }
+
+                    @Override
+                    public void onNext(Integer count) {
+                        if (paginator == mPaginator) {
+                            syncPagingPages();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        //排版出错，保留已经排版的页面，但是记录为不完整
+                        if (paginator == mPaginator) {
+                            stopPaging();
+                            mIncompletePageList = mCurPageList;
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        if (paginator == mPaginator) {
+                            syncPagingPages();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * 将后台排版好的页面同步到当前章节的页面列表中
+     */
+    private void syncPagingPages() {
+        if (mPaginator == null || mCurPageList == null) {
+            return;
+        }
+
+        int count = mCurPageList.size();
+        mPaginator.copyPages(mCurPageList);
+
+        boolean isFinish = mPaginator.isFinish();
+        if (isFinish) {
+            stopPaging();
+        }
+
+        if (count != mCurPageList.size() && mPageChangeListener != null) {
+            mPageChangeListener.onPageCountChange(mCurPageList.size());
+        }
+
+        // 排版完成，刷新页码
+        if (isFinish && mPageMode != PageMode.SCROLL && !mPageView.isRunning()) {
+            mPageView.drawCurPage(false);
+        }
+    }
+
+    /**
+     * 停止当前章节的后台排版
+     *
+     * @return 当前章节的页面列表是否完整
+     */
+    private boolean stopPaging() {
+        if (mPagingDisp != null) {
+            mPagingDisp.dispose();
+            mPagingDisp = null;
+        }
+
+        if (mPaginator == null) {
+            return true;
+        }
+
+        TxtPaginator paginator = mPaginator;
+        mPaginator = null;
+        if (mCurPageList != null) {
+            paginator.copyPages(mCurPageList);
+        }
+        boolean isFinish = paginator.isFinish();
+        paginator.release();
+        return isFinish;
+    }
+
+    /**
+     * 将当前章节的页面列表放入缓存。排版未完成或者排版出错的列表不进行缓存。
+     */
+    private void cachePageList(int chapterPos) {
+        if (stopPaging() && mCurPageList != null && mCurPageList != mIncompletePageList
+                && mStatus == STATUS_FINISH) {
+            mPageCache.put(chapterPos, mCurPageList);
+        }
+    }
+
+    /**
+     * 清空章节页面缓存 (排版参数发生变化时，旧的缓存已经不可用)
+     */
+    private void clearPageCache() {
+        if (mPreLoadDisp != null) {
+            mPreLoadDisp.dispose();
+        }
+        mPageCache.evictAll();
+    }
+
+    /**
+     * 当前章节仍在排版时，同步排版到指定的页
+     */
+    private void ensurePage(int pos) {
+        if (mPaginator != null && mCurPageList != null && pos >= mCurPageList.size()) {
+            mPaginator.layoutUntil(pos + 1);
+            syncPagingPages();
+        }
+    }
+
     private void chapterChangeCallback() {
 
         if (mPageChangeListener != null) {
             mPageChangeListener.onChapterChange(mCurChapterPos);
-            pics.clear();
             mPageChangeListener.onPageCountChange(mCurPageList != null ? mCurPageList.size() : 0);
         }
     }
 
-    // 预加载下一章
-    private void preLoadNextChapter() {
-        int nextChapter = mCurChapterPos + 1;
-
-        // 如果不存在下一章，且下一章没有数据，则不进行加载。
-        if (!hasNextChapter()
-                || !hasChapterData(mChapterList.get(nextChapter))) {
-            return;
-        }
-
+    // 预加载当前章节前后的章节
+    private void preLoadChapters() {
         //如果之前正在加载则取消
         if (mPreLoadDisp != null) {
             mPreLoadDisp.dispose();
         }
 
+        // 先加载之后的章节，再加载之前的章节。已经缓存或者没有数据的章节不进行加载。
+        List<Integer> chapters = new ArrayList<>();
+        for (int i = 1; i <= mPreLoadAhead; ++i) {
+            addPreLoadChapter(chapters, mCurChapterPos + i);
+        }
+        for (int i = 1; i <= mPreLoadBehind; ++i) {
+            addPreLoadChapter(chapters, mCurChapterPos - i);
+        }
+        if (chapters.isEmpty()) {
+            return;
+        }
+
         //调用异步进行预加载加载
-        Single.create((SingleOnSubscribe<List<TxtPage>>) e -> e.onSuccess(loadPageList(nextChapter))).compose(RxUtils::toSimpleSingle)
-                .subscribe(new SingleObserver<List<TxtPage>>() {
+        TxtLayoutParams params = getLayoutParams();
+        Observable.create((ObservableOnSubscribe<Pair<Integer, List<TxtPage>>>) e -> {
+            for (Integer chapterPos : chapters) {
+                if (e.isDisposed()) {
+                    break;
+                }
+                List<TxtPage> pages = loadPageList(chapterPos, params);
+                if (pages != null) {
+                    e.onNext(new Pair<>(chapterPos, pages));
+                }
+            }
+            e.onComplete();
+        }).compose(RxUtils::toSimpleSingle)
+                .subscribe(new Observer<Pair<Integer, List<TxtPage>>>() {
                     @Override
                     public void onSubscribe(Disposable d) {
                         mPreLoadDisp = d;
                     }
 
                     @Override
-                    public void onSuccess(List<TxtPage> pages) {
-                        mNextPageList = pages;
+                    public void onNext(Pair<Integer, List<TxtPage>> pair) {
+                        mPageCache.put(pair.first, pair.second);
                     }
 
                     @Override
                     public void onError(Throwable e) {
                         //无视错误
                     }
+
+                    @Override
+                    public void onComplete() {
+                    }
                 });
     }
 
+    private void addPreLoadChapter(List<Integer> chapters, int chapterPos) {
+        if (chapterPos < 0 || chapterPos >= mChapterList.size()
+                || chapterPos == mCurChapterPos
+                || mPageCache.get(chapterPos) != null
+                || !hasChapterData(mChapterList.get(chapterPos))) {
+            return;
+        }
+        chapters.add(chapterPos);
+    }
+
     // 取消翻页
     void pageCancel() {
         if (mCurPage.position == 0 && mCurChapterPos > mLastChapterPos) { // 加载到下一章取消了
-            if (mPrePageList != null) {
-                cancelNextChapter();
+            List<TxtPage> pages = mPageCache.get(mLastChapterPos);
+            if (pages != null) {
+                cancelNextChapter(pages);
             } else {
                 if (parsePrevChapter()) {
                     mCurPage = getPrevLastPage();
@@ -1236,8 +1665,9 @@ public abstract class PageLoader {
                 || (mCurPage.position == mCurPageList.size() - 1
                 && mCurChapterPos < mLastChapterPos)) {  // 加载上一章取消了
 
-            if (mNextPageList != null) {
-                cancelPreChapter();
+            List<TxtPage> pages = mPageCache.get(mLastChapterPos);
+            if (pages != null) {
+                cancelPreChapter(pages);
             } else {
                 if (parseNextChapter()) {
                     mCurPage = mCurPageList.get(0);
@@ -1251,14 +1681,15 @@ public abstract class PageLoader {
         }
     }
 
-    private void cancelNextChapter() {
+    private void cancelNextChapter(List<TxtPage> pages) {
+        cachePageList(mCurChapterPos);
+
         int temp = mLastChapterPos;
         mLastChapterPos = mCurChapterPos;
         mCurChapterPos = temp;
 
-        mNextPageList = mCurPageList;
-        mCurPageList = mPrePageList;
-        mPrePageList = null;
+        mCurPageList = pages;
+        mStatus = STATUS_FINISH;
 
         chapterChangeCallback();
 
@@ -1266,15 +1697,16 @@ public abstract class PageLoader {
         mCancelPage = null;
     }
 
-    private void cancelPreChapter() {
+    private void cancelPreChapter(List<TxtPage> pages) {
+        cachePageList(mCurChapterPos);
+
         // 重置位置点
         int temp = mLastChapterPos;
         mLastChapterPos = mCurChapterPos;
         mCurChapterPos = temp;
         // 重置页面列表
-        mPrePageList = mCurPageList;
-        mCurPageList = mNextPageList;
-        mNextPageList = null;
+        mCurPageList = pages;
+        mStatus = STATUS_FINISH;
 
         chapterChangeCallback();
 
@@ -1282,165 +1714,11 @@ public abstract class PageLoader {
         mCancelPage = null;
     }
 
-    /**
-     * 将章节数据，解析成页面列表
-     * chapter：章节信息
-     * br：章节的文本流
-     */
-    private List<String> pics = new ArrayList<>();
-
-    private List<TxtPage> loadPages(TxtChapter chapter, BufferedReader br) {
-
-        //生成的页面
-        List<TxtPage> pages = new ArrayList<>();
-        //使用流的方式加载
-        List<String> lines = new ArrayList<>();
-        int rHeight = mVisibleHeight;
-        int titleLinesCount = 0;
-        boolean showTitle = true; // 是否展示标题
-        String paragraph = chapter.getTitle();//默认展示标题
-        String title = StringUtils.INSTANCE.convertCC(chapter.getTitle());
-        String half;
-        try {
-            while (showTitle || (paragraph = br.readLine()) != null) {
-                half = paragraph;
-                paragraph = StringUtils.INSTANCE.convertCC(paragraph);
-                // 重置段落
-                if (!showTitle) {
-                    paragraph = paragraph.replaceAll("\\s", "");
-                    // 如果只有换行符，那么就不执行
-                    if (paragraph.equals("")) continue;
-                    paragraph = StringUtils.INSTANCE.halfToFull("  " + paragraph + "\n");
-                } else {
-                    //设置 title 的顶部间距
-                    rHeight -= mTitlePara;
-                }
-
-                int wordCount;
-                String subStr;
-                while (paragraph.length() > 0) {
-                    //当前空间，是否容得下一行文字
-                    if (showTitle) {
-                        rHeight -= mTitlePaint.getTextSize();
-                    } else {
-                        rHeight -= mTextPaint.getTextSize();
-                    }
-
-                    // 一页已经填充满了，创建 TextPage
-                    if (rHeight <= 0) {
-                        // 创建Page
-                        TxtPage page = new TxtPage();
-                        page.position = pages.size();
-                        page.title = title;
-                        page.lines = new ArrayList<>(lines);
-                        page.titleLines = titleLinesCount;
-                        pages.add(page);
-                        // 重置Lines
-                        lines.clear();
-                        rHeight = mVisibleHeight;
-                        titleLinesCount = 0;
-                        continue;
-                    }
-
-                    //测量一行占用的字节数
-                    if (showTitle) {
-                        wordCount = mTitlePaint.breakText(paragraph,
-                                true, mVisibleWidth, null);
-                    } else {
-                        wordCount = mTextPaint.breakText(paragraph,
-                                true, mVisibleWidth, null);
-                    }
-
-                    subStr = paragraph.substring(0, wordCount);
-                    if (!subStr.equals("\n")) {
-                        //将一行字节，存储到lines中
-                        lines.add(subStr);
-
-                        //设置段落间距
-                        if (showTitle) {
-                            titleLinesCount += 1;
-                            rHeight -= mTitleInterval;
-                        } else {
-                            rHeight -= mTextInterval;
-                        }
-                    }
-                    //裁剪
-                    paragraph = paragraph.substring(wordCount);
-                }
-
-                //增加段落的间距
-                if (!showTitle && lines.size() != 0) {
-                    rHeight = rHeight - mTextPara + mTextInterval;
-                }
-
-                if (showTitle) {
-                    rHeight = rHeight - mTitlePara + mTitleInterval;
-                    showTitle = false;
-                }
-
-                pics.addAll(getImgs(half));
-            }
-            if (lines.size() != 0) {
-                //创建Page
-                TxtPage page = new TxtPage();
-                page.position = pages.size();
-                page.title = title;
-                page.lines = new ArrayList<>(lines);
-                page.titleLines = titleLinesCount;
-                pages.add(page);
-                //重置Lines
-                lines.clear();
-            }
-
-            if (pics.size() > 0) {
-                for (int i = 0; i < pics.size(); i++) {
-                    TxtPage page = new TxtPage();
-                    page.position = pages.size();
-                    page.title = title;
-                    page.lines = new ArrayList<>();
-                    page.titleLines = 0;
-                    page.setPic(pics.get(i));
-                    pages.add(page);
-                    // 重置Lines
-                    lines.clear();
-                }
-            }
-
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            IOUtils.INSTANCE.close(br);
-        }
-        return pages;
-    }
-
-
-    private List<String> getImgs(String content) {
-        String img;
-        Pattern p_image;
-        Matcher m_image;
-        List<String> images = new ArrayList<>();
-        String regEx_img = "(<img.*src\\s*=\\s*(.*?)[^>]*?>)";
-        p_image = Pattern.compile(regEx_img, Pattern.CASE_INSENSITIVE);
-        m_image = p_image.matcher(content);
-        while (m_image.find()) {
-            img = m_image.group();
-            Matcher m = Pattern.compile("src\\s*=\\s*\"?(.*?)(\"|>|\\s+)").matcher(img);
-            while (m.find()) {
-                String tempSelected = m.group(1);
-                images.add(tempSelected);
-            }
-        }
-
-        return images;
-    }
-
     /**
      * @return :获取初始显示的页面
      */
     private TxtPage getCurPage(int pos) {
+        ensurePage(pos);
         if (mPageChangeListener != null) {
             mPageChangeListener.onPageChange(pos);
         }
@@ -1469,6 +1747,7 @@ public abstract class PageLoader {
      */
     private TxtPage getNextPage() {
         int pos = mCurPage.position + 1;
+        ensurePage(pos);
         if (pos >= mCurPageList.size()) {
             return null;
         }
@@ -1500,6 +1779,11 @@ public abstract class PageLoader {
             return false;
         }
 
+        // 正在重新排版，等待排版完成
+        if (mRelayoutDisp != null) {
+            return false;
+        }
+
         if (mStatus == STATUS_PARSE_ERROR
                 || mStatus == STATUS_PARING) {
             return false;
@@ -0,0 +1,181 @@
+package com.novel.read.widget.page;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.novel.read.utlis.RxUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Created by zlj
+ * 页面预绘制：在后台线程中将即将显示的页面 (上一页、下一页) 绘制到图片上，
+ * 翻页时直接将绘制好的图片复制到翻页动画的图片上，不需要在翻页开始时绘制文字。
+ * <p>
+ * 绘制好的图片以页面、页数和样式版本作为校验，样式、电量、时间发生变化时版本号会增加，旧的图片不再使用。
+ * 不再使用的图片放回图片池中复用。
+ */
+final class PagePrerenderer {
+    //图片池中最多保留的图片数
+    private static final int MAX_POOL_SIZE = 2;
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private final List<Bitmap> mBitmapPool = new ArrayList<>();
+    private Disposable mRenderDisp;
+
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * 获取预先绘制好的页面
+     *
+     * @return 不存在或者已经失效时返回 null
+     */
+    Bitmap get(TxtPage page, String pageNumber, int version) {
+        for (Entry entry : mEntries) {
+            if (entry.isMatch(page, pageNumber, version)) {
+                return entry.bitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在后台预先绘制页面，之前绘制好但是不在 pages 中的页面会被回收
+     *
+     * @param pages:需要预绘制的页面
+     * @param pageNumbers:页面对应的页码
+     */
+    void render(List<TxtPage> pages, List<String> pageNumbers, int version,
+                PageRenderer renderer, int width, int height) {
+        cancel();
+
+        // 图片大小发生变化，之前的图片不能再使用
+        if (width != mWidth || height != mHeight) {
+            clear();
+            mWidth = width;
+            mHeight = height;
+        }
+
+        // 保留仍然需要的页面，回收其他的页面
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            int index = pages.indexOf(entry.page);
+            if (index != -1 && entry.isMatch(entry.page, pageNumbers.get(index), version)) {
+                entries.add(entry);
+            } else {
+                recycle(entry.bitmap);
+            }
+        }
+        mEntries.clear();
+        mEntries.addAll(entries);
+
+        // 需要绘制的页面
+        List<Entry> targets = new ArrayList<>();
+        for (int i = 0; i < pages.size(); ++i) {
+            TxtPage page = pages.get(i);
+            if (get(page, pageNumbers.get(i), version) == null) {
+                targets.add(new Entry(page, pageNumbers.get(i), version, obtain()));
+            }
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        Single.create((SingleOnSubscribe<List<Entry>>) e -> {
+            for (Entry entry : targets) {
+                if (e.isDisposed()) {
+                    return;
+                }
+                Canvas canvas = new Canvas(entry.bitmap);
+                renderer.drawBackground(canvas, entry.page.getTitle(), entry.pageNumber, false);
+                renderer.drawText(canvas, entry.page, false);
+            }
+            e.onSuccess(targets);
+        }).compose(RxUtils::toSimpleSingle)
+                .subscribe(new SingleObserver<List<Entry>>() {
+                    @Override
+                    public void onSubscribe(Disposable d) {
+                        mRenderDisp = d;
+                    }
+
+                    @Override
+                    public void onSuccess(List<Entry> result) {
+                        mRenderDisp = null;
+                        mEntries.addAll(result);
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        mRenderDisp = null;
+                        e.printStackTrace();
+                    }
+                });
+    }
+
+    /**
+     * 取消正在进行的预绘制。正在绘制的图片不放回图片池，防止后台线程仍在使用。
+     */
+    void cancel() {
+        if (mRenderDisp != null) {
+            mRenderDisp.dispose();
+            mRenderDisp = null;
+        }
+    }
+
+    /**
+     * 回收所有的图片
+     */
+    void clear() {
+        cancel();
+        for (Entry entry : mEntries) {
+            entry.bitmap.recycle();
+        }
+        mEntries.clear();
+        for (Bitmap bitmap : mBitmapPool) {
+            bitmap.recycle();
+        }
+        mBitmapPool.clear();
+    }
+
+    private Bitmap obtain() {
+        if (!mBitmapPool.isEmpty()) {
+            return mBitmapPool.remove(mBitmapPool.size() - 1);
+        }
+        // 与翻页动画的图片格式保持一致
+        return Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.RGB_565);
+    }
+
+    private void recycle(Bitmap bitmap) {
+        if (mBitmapPool.size() < MAX_POOL_SIZE) {
+            mBitmapPool.add(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private static class Entry {
+        final TxtPage page;
+        final String pageNumber;
+        final int version;
+        final Bitmap bitmap;
+
+        Entry(TxtPage page, String pageNumber, int version, Bitmap bitmap) {
+            this.page = page;
+            this.pageNumber = pageNumber;
+            this.version = version;
+            this.bitmap = bitmap;
+        }
+
+        boolean isMatch(TxtPage page, String pageNumber, int version) {
+            return this.page == page && this.version == version
+                    && this.pageNumber.equals(pageNumber);
+        }
+    }
+}
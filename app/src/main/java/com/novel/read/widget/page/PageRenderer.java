@@ -0,0 +1,223 @@
+package com.novel.read.widget.page;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.text.TextPaint;
+
+import com.novel.read.constants.Constant;
+import com.novel.read.utlis.DateUtli;
+import com.novel.read.utlis.ScreenUtils;
+
+/**
+ * Created by zlj
+ * 页面绘制：负责将页面的背景、标题、页码、电池、时间以及正文绘制到画布上。
+ * <p>
+ * 创建时复制一份当前的样式 (画笔、颜色、边距、电量、时间)，之后不再改变，
+ * 所以可以在后台线程中使用它预先绘制页面。样式发生变化时需要重新创建。
+ */
+final class PageRenderer {
+    private final Paint mTipPaint;
+    private final Paint mBatteryPaint;
+    private final Paint mBgPaint;
+    private final TextPaint mTextPaint;
+    private final Paint mTitlePaint;
+
+    private final int mDisplayWidth;
+    private final int mDisplayHeight;
+    private final int mMarginWidth;
+    private final int mMarginHeight;
+    private final int mBgColor;
+    private final int mTextInterval;
+    private final int mTitleInterval;
+    private final int mTextPara;
+    private final int mTitlePara;
+    private final int mBatteryLevel;
+    private final String mTime;
+
+    PageRenderer(Paint tipPaint, Paint batteryPaint, Paint bgPaint, TextPaint textPaint, Paint titlePaint,
+                 int displayWidth, int displayHeight, int marginWidth, int marginHeight,
+                 int bgColor, int textColor, int textInterval, int titleInterval, int textPara, int titlePara,
+                 int batteryLevel) {
+        mTipPaint = new Paint(tipPaint);
+        mBatteryPaint = new Paint(batteryPaint);
+        mBgPaint = new Paint(bgPaint);
+        mBgPaint.setColor(bgColor);
+        mTextPaint = new TextPaint(textPaint);
+        mTitlePaint = new TextPaint(titlePaint);
+        mTitlePaint.setColor(textColor);
+
+        mDisplayWidth = displayWidth;
+        mDisplayHeight = displayHeight;
+        mMarginWidth = marginWidth;
+        mMarginHeight = marginHeight;
+        mBgColor = bgColor;
+        mTextInterval = textInterval;
+        mTitleInterval = titleInterval;
+        mTextPara = textPara;
+        mTitlePara = titlePara;
+        mBatteryLevel = batteryLevel;
+        mTime = DateUtli.INSTANCE.dateConvert(System.currentTimeMillis(), Constant.FORMAT_TIME);
+    }
+
+    /**
+     * 绘制背景、顶部的章节名、底部的页码、电池和时间
+     *
+     * @param title:章节名，为 null 时不绘制
+     * @param pageNumber:页码，为 null 时不绘制
+     * @param isUpdate:是否只更新电池和时间
+     */
+    void drawBackground(Canvas canvas, String title, String pageNumber, boolean isUpdate) {
+        int tipMarginHeight = ScreenUtils.INSTANCE.dpToPx(3);
+        if (!isUpdate) {
+            //绘制背景
+            canvas.drawColor(mBgColor);
+
+            //初始化标题的参数
+            //需要注意的是:绘制text的y的起始点是text的基准线的位置，而不是从text的头部的位置
+            float tipTop = tipMarginHeight - mTipPaint.getFontMetrics().top;
+            if (title != null) {
+                canvas.drawText(title, mMarginWidth, tipTop, mTipPaint);
+            }
+
+            //绘制页码
+            // 底部的字显示的位置Y
+            float y = mDisplayHeight - mTipPaint.getFontMetrics().bottom - tipMarginHeight;
+            if (pageNumber != null) {
+                canvas.drawText(pageNumber, mMarginWidth, y, mTipPaint);
+            }
+        } else {
+            //擦除区域
+            canvas.drawRect(mDisplayWidth >> 1, mDisplayHeight - mMarginHeight + ScreenUtils.INSTANCE.dpToPx(2), mDisplayWidth, mDisplayHeight, mBgPaint);
+        }
+
+        //绘制电池
+        int visibleRight = mDisplayWidth - mMarginWidth;
+        int visibleBottom = mDisplayHeight - tipMarginHeight;
+
+        int outFrameWidth = (int) mTipPaint.measureText("xxx");
+        int outFrameHeight = (int) mTipPaint.getTextSize();
+
+        int polarHeight = ScreenUtils.INSTANCE.dpToPx(6);
+        int polarWidth = ScreenUtils.INSTANCE.dpToPx(2);
+        int border = 1;
+        int innerMargin = 1;
+
+        //电极的制作
+        int polarLeft = visibleRight - polarWidth;
+        int polarTop = visibleBottom - (outFrameHeight + polarHeight) / 2;
+        Rect polar = new Rect(polarLeft, polarTop, visibleRight,
+                polarTop + polarHeight - ScreenUtils.INSTANCE.dpToPx(2));
+
+        mBatteryPaint.setStyle(Paint.Style.FILL);
+        canvas.drawRect(polar, mBatteryPaint);
+
+        //外框的制作
+        int outFrameLeft = polarLeft - outFrameWidth;
+        int outFrameTop = visibleBottom - outFrameHeight;
+        int outFrameBottom = visibleBottom - ScreenUtils.INSTANCE.dpToPx(2);
+        Rect outFrame = new Rect(outFrameLeft, outFrameTop, polarLeft, outFrameBottom);
+
+        mBatteryPaint.setStyle(Paint.Style.STROKE);
+        mBatteryPaint.setStrokeWidth(border);
+        canvas.drawRect(outFrame, mBatteryPaint);
+
+        //内框的制作
+        float innerWidth = (outFrame.width() - innerMargin * 2 - border) * (mBatteryLevel / 100.0f);
+        RectF innerFrame = new RectF(outFrameLeft + border + innerMargin, outFrameTop + border + innerMargin,
+                outFrameLeft + border + innerMargin + innerWidth, outFrameBottom - border - innerMargin);
+
+        mBatteryPaint.setStyle(Paint.Style.FILL);
+        canvas.drawRect(innerFrame, mBatteryPaint);
+
+        //绘制当前时间
+        //底部的字显示的位置Y
+        float y = mDisplayHeight - mTipPaint.getFontMetrics().bottom - tipMarginHeight;
+        float x = outFrameLeft - mTipPaint.measureText(mTime) - ScreenUtils.INSTANCE.dpToPx(4);
+        canvas.drawText(mTime, x, y, mTipPaint);
+    }
+
+    /**
+     * 绘制正文的背景 (滚动模式下正文与背景不在同一张图上)
+     */
+    void drawContentBackground(Canvas canvas) {
+        canvas.drawColor(mBgColor);
+    }
+
+    /**
+     * 绘制页面的正文
+     *
+     * @param isScroll:是否是滚动模式
+     */
+    void drawText(Canvas canvas, TxtPage page, boolean isScroll) {
+        float top;
+
+        if (isScroll) {
+            top = -mTextPaint.getFontMetrics().top;
+        } else {
+            top = mMarginHeight - mTextPaint.getFontMetrics().top;
+        }
+
+        //设置总距离
+        int interval = mTextInterval + (int) mTextPaint.getTextSize();
+        int para = mTextPara + (int) mTextPaint.getTextSize();
+        int titleInterval = mTitleInterval + (int) mTitlePaint.getTextSize();
+        int titlePara = mTitlePara + (int) mTextPaint.getTextSize();
+        char[] text = page.text;
+        int titleLines = page.getTitleLines();
+        int lineCount = page.getLineCount();
+        int lineStart;
+        int lineEnd;
+
+        //对标题进行绘制
+        for (int i = 0; i < titleLines; ++i) {
+            lineStart = page.getLineStart(i);
+            lineEnd = page.getLineEnd(i);
+            //设置顶部间距
+            if (i == 0) {
+                top += mTitlePara;
+            }
+
+            //计算文字显示的起始点
+            int start = (int) (mDisplayWidth - mTitlePaint.measureText(text, lineStart, lineEnd - lineStart)) / 2;
+            //进行绘制
+            canvas.drawText(text, lineStart, lineEnd - lineStart, start, top, mTitlePaint);
+
+            //设置尾部间距
+            if (i == titleLines - 1) {
+                top += titlePara;
+            } else {
+                //行间距
+                top += titleInterval;
+            }
+        }
+
+        //对内容进行绘制
+        for (int i = titleLines; i < lineCount; ++i) {
+            lineStart = page.getLineStart(i);
+            lineEnd = page.getLineEnd(i);
+            if (i == 0) {
+                top = top + 15;
+            }
+
+            canvas.drawText(text, lineStart, lineEnd - lineStart, mMarginWidth, top, mTextPaint);
+
+            if (text[lineEnd - 1] == '\n') {
+                top += para;
+            } else {
+                top += interval;
+            }
+        }
+    }
+
+    //中心文字绘制
+    void drawCenter(Canvas canvas, String tip) {
+        Paint.FontMetrics fontMetrics = mTextPaint.getFontMetrics();
+        float textHeight = fontMetrics.top - fontMetrics.bottom;
+        float textWidth = mTextPaint.measureText(tip);
+        float pivotX = (mDisplayWidth - textWidth) / 2;
+        float pivotY = (mDisplayHeight - textHeight) / 2;
+        canvas.drawText(tip, pivotX, pivotY, mTextPaint);
+    }
+}
@@ -10,6 +10,7 @@ import android.view.View;
 import android.view.ViewConfiguration;
 
 import com.novel.read.model.db.CollBookBean;
+import com.novel.read.utlis.FileUtils;
 import com.novel.read.widget.page.anim.CoverPageAnim;
 import com.novel.read.widget.page.anim.HorizonPageAnim;
 import com.novel.read.widget.page.anim.NonePageAnim;
@@ -336,7 +337,10 @@ public class PageView extends View {
             return mPageLoader;
         }
         // 根据书籍类型，获取具体的加载器
-        if (collBook.isLocal()) {
+        if (collBook.isLocal() && collBook.getCover() != null
+                && collBook.getCover().toLowerCase().endsWith(FileUtils.SUFFIX_EPUB)) {
+            mPageLoader = new EpubPageLoader(this, collBook);
+        } else if (collBook.isLocal()) {
             mPageLoader = new LocalPageLoader(this, collBook);
         } else {
             mPageLoader = new NetPageLoader(this, collBook);
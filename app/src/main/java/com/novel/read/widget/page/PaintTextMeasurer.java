@@ -0,0 +1,71 @@
+package com.novel.read.widget.page;
+
+import android.graphics.Paint;
+import android.util.LruCache;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created by zlj
+ * 基于 Paint 的文字测量，缓存每个字符的宽度。
+ * 中文字符的宽度基本一致，一章之中不同的字符也只有几千个，缓存之后绝大部分字符不需要再调用 Paint 进行测量。
+ * 相同画笔参数的测量共用同一份宽度缓存，可以在多个线程中同时排版。
+ */
+final class PaintTextMeasurer implements TextMeasurer {
+    private static final int BLOCK_SIZE = 256;
+    private static final int BLOCK_COUNT = 0x10000 / BLOCK_SIZE;
+    //画笔参数 -> 字符宽度缓存
+    private static final LruCache<String, WidthTable> sWidthCaches = new LruCache<>(4);
+
+    private final Paint mPaint;
+    private final WidthTable mWidths;
+
+    PaintTextMeasurer(Paint paint) {
+        mPaint = paint;
+
+        String key = TxtPageIndex.paintKey(paint);
+        synchronized (sWidthCaches) {
+            WidthTable widths = sWidthCaches.get(key);
+            if (widths == null) {
+                widths = new WidthTable();
+                sWidthCaches.put(key, widths);
+            }
+            mWidths = widths;
+        }
+    }
+
+    @Override
+    public float getWidth(char[] text, int index, int count) {
+        if (count != 1) {
+            return mPaint.measureText(text, index, count);
+        }
+
+        char c = text[index];
+        float[] block = mWidths.blocks.get(c / BLOCK_SIZE);
+        float width = block == null ? 0 : block[c % BLOCK_SIZE];
+        if (width == 0) {
+            width = mPaint.measureText(text, index, 1);
+            mWidths.put(c, width);
+        }
+        return width;
+    }
+
+    /**
+     * 字符宽度缓存，按照字符的高位分块，使用到时才创建。为 0 表示未测量。
+     * <p>
+     * 已经发布的块不再修改，添加宽度时复制一份再替换，读取不需要加锁
+     */
+    private static final class WidthTable {
+        final AtomicReferenceArray<float[]> blocks = new AtomicReferenceArray<>(BLOCK_COUNT);
+
+        synchronized void put(char c, float width) {
+            float[] block = blocks.get(c / BLOCK_SIZE);
+            if (block != null && block[c % BLOCK_SIZE] != 0) {
+                return;
+            }
+            float[] copy = block == null ? new float[BLOCK_SIZE] : block.clone();
+            copy[c % BLOCK_SIZE] = width;
+            blocks.set(c / BLOCK_SIZE, copy);
+        }
+    }
+}
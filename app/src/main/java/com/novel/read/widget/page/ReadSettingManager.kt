@@ -4,6 +4,7 @@ package com.novel.read.widget.page
 import com.novel.read.utlis.DialogUtils
 import com.novel.read.utlis.ScreenUtils
 import com.novel.read.utlis.SpUtil
+import com.novel.read.utlis.StringUtils
 
 class ReadSettingManager private constructor() {
 
@@ -50,7 +51,10 @@ class ReadSettingManager private constructor() {
 
     var convertType: Int
         get() = SpUtil.getIntValue(SHARED_READ_CONVERT_TYPE, 1)
-        set(convertType) = SpUtil.setIntValue(SHARED_READ_CONVERT_TYPE, convertType)
+        set(convertType) {
+            SpUtil.setIntValue(SHARED_READ_CONVERT_TYPE, convertType)
+            StringUtils.convertType = convertType
+        }
 
     fun setAutoBrightness(isAuto: Boolean) {
         SpUtil.setBooleanValue(SHARED_READ_IS_BRIGHTNESS_AUTO, isAuto)
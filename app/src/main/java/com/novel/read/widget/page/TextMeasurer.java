@@ -0,0 +1,14 @@
+package com.novel.read.widget.page;
+
+/**
+ * Created by zlj
+ * 文字宽度的测量接口。
+ * 排版只通过该接口获取文字宽度，不直接依赖 Paint，方便在 JVM 上对断行进行测试。
+ */
+interface TextMeasurer {
+
+    /**
+     * 测量 text 中从 index 开始的 count 个字符的宽度
+     */
+    float getWidth(char[] text, int index, int count);
+}
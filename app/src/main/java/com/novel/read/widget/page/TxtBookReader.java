@@ -0,0 +1,81 @@
+package com.novel.read.widget.page;
+
+import com.novel.read.utlis.Charset;
+import com.novel.read.utlis.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Created by zlj
+ * 本地书籍的章节读取。
+ * <p>
+ * 每本书只打开一次文件并映射到内存，读取章节时将章节的字节区间直接解码到复用的 CharBuffer 中，
+ * 再交给 {@link ChapterText} 规范化，不需要为每个章节打开文件、创建 byte[] 和 Reader。
+ */
+final class TxtBookReader {
+    private final RandomAccessFile mBookStream;
+    private final MappedByteBuffer mBuffer;
+    private final CharsetDecoder mDecoder;
+    //复用的解码缓冲区
+    private CharBuffer mCharBuffer;
+
+    TxtBookReader(File file, Charset charset) throws IOException {
+        mBookStream = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mBookStream.getChannel();
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            IOUtils.INSTANCE.close(mBookStream);
+            throw e;
+        }
+        mDecoder = java.nio.charset.Charset.forName(charset.getCode()).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 读取章节并进行规范化
+     */
+    synchronized ChapterText read(TxtChapter chapter) {
+        ByteBuffer in = getRange(chapter);
+        int capacity = (int) (in.remaining() * mDecoder.maxCharsPerByte()) + 1;
+        if (mCharBuffer == null || mCharBuffer.capacity() < capacity) {
+            mCharBuffer = CharBuffer.allocate(capacity);
+        }
+        mCharBuffer.clear();
+        mDecoder.reset();
+        mDecoder.decode(in, mCharBuffer, true);
+        mDecoder.flush(mCharBuffer);
+        return ChapterText.read(chapter, mCharBuffer.array(), mCharBuffer.position());
+    }
+
+    /**
+     * 读取章节的原始字节
+     */
+    byte[] readBytes(TxtChapter chapter) {
+        ByteBuffer in = getRange(chapter);
+        byte[] content = new byte[in.remaining()];
+        in.get(content);
+        return content;
+    }
+
+    private ByteBuffer getRange(TxtChapter chapter) {
+        ByteBuffer in = mBuffer.duplicate();
+        int end = (int) Math.min(chapter.end, in.capacity());
+        int start = (int) Math.max(0, Math.min(chapter.start, end));
+        in.limit(end).position(start);
+        return in;
+    }
+
+    void close() {
+        IOUtils.INSTANCE.close(mBookStream);
+    }
+}
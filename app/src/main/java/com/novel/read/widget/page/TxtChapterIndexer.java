@@ -0,0 +1,618 @@
+package com.novel.read.widget.page;
+
+import com.novel.read.utlis.Charset;
+import com.novel.read.utlis.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by zlj
+ * 本地 TXT 文件的分章。
+ * <p>
+ * 通过 FileChannel.map 将文件映射到内存，按字节查找换行符对文件进行分行，
+ * 只有长度可能是章节名的行才会被解码并进行正则匹配，章节的位置直接使用行在文件中的字节偏移，
+ * 不需要将整个文件解码成字符串，也不需要重新编码计算字节长度。
+ * <p>
+ * 文件较大时，按换行符将文件分成多段，在多个线程中分别查找章节名，再按顺序合并后创建章节，
+ * 结果与单线程查找完全相同。
+ * <p>
+ * 分章时会记录文件的长度和校验值。文件只是在结尾追加了内容 (连载的小说重新下载) 时，
+ * 只需要从原来的最后一章开始查找章节名，前面的章节保持不变。
+ */
+final class TxtChapterIndexer {
+    //检查章节名类型时，文件开头采样的长度
+    private static final int CHECK_LENGTH = 128 * 1024;
+    //检查章节名类型时，文件其余部分的采样个数以及每个采样的长度
+    private static final int SAMPLE_COUNT = 4;
+    private static final int SAMPLE_LENGTH = 16 * 1024;
+    //采样中至少需要匹配的章节名个数
+    private static final int MIN_TITLE_COUNT = 2;
+    //章节的平均长度小于该值时，匹配到的多半不是章节名 (例如编号的列表)
+    private static final int MIN_AVERAGE_GAP = 1024;
+    //没有章节名时，虚拟分章的块大小
+    private static final int BLOCK_SIZE = 512 * 1024;
+    //没有标题的时候，每个章节的最大长度
+    private static final int MAX_LENGTH_WITH_NO_CHAPTER = 10 * 1024;
+    //小于该长度的章节会被移除
+    private static final int MIN_CHAPTER_LENGTH = 30;
+    //章节名的最大字符数 (CHAPTER_PATTERNS 中能匹配的最长的行)
+    private static final int MAX_TITLE_CHARS = 50;
+    //超过该大小的文件使用多线程查找章节名
+    private static final int PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+    //多线程查找时，每一段的最小长度
+    private static final int MIN_SEGMENT_SIZE = 2 * 1024 * 1024;
+    //换行符
+    private static final byte BLANK = Charset.Companion.getBLANK();
+
+    //正则表达式章节匹配模式
+    // "(第)([0-9零一二两三四五六七八九十百千万壹贰叁肆伍陆柒捌玖拾佰仟]{1,10})([章节回集卷])(.*)"
+    private static final Pattern[] CHAPTER_PATTERNS = new Pattern[]{
+            Pattern.compile("^(.{0,8})(\u7b2c)([0-9\u96f6\u4e00\u4e8c\u4e24\u4e09\u56db\u4e94\u516d\u4e03\u516b\u4e5d\u5341\u767e\u5343\u4e07\u58f9\u8d30\u53c1\u8086\u4f0d\u9646\u67d2\u634c\u7396\u62fe\u4f70\u4edf]{1,10})([\u7ae0\u8282\u56de\u96c6\u5377])(.{0,30})$"),
+            Pattern.compile("^(\\s{0,4})([\\(\u3010\u300a]?(\u5377)?)([0-9\u96f6\u4e00\u4e8c\u4e24\u4e09\u56db\u4e94\u516d\u4e03\u516b\u4e5d\u5341\u767e\u5343\u4e07\u58f9\u8d30\u53c1\u8086\u4f0d\u9646\u67d2\u634c\u7396\u62fe\u4f70\u4edf]{1,10})([\\.:\uff1a\u0020\f\t])(.{0,30})$"),
+            Pattern.compile("^(\\s{0,4})([\\(\uff08\u3010\u300a])(.{0,30})([\\)\uff09\u3011\u300b])(\\s{0,2})$"),
+            Pattern.compile("^(\\s{0,4})(\u6b63\u6587)(.{0,20})$"),
+            Pattern.compile("^(.{0,4})(Chapter|chapter)(\\s{0,4})([0-9]{1,4})(.{0,30})$")};
+    //所有章节名合并后的正则表达式，用于一次过滤出可能是章节名的行
+    private static final Pattern COMBINED_PATTERN = combine(CHAPTER_PATTERNS);
+
+    private final File mFile;
+    private final Charset mCharset;
+    //每个字符单元的字节数 (UTF-16 为 2)
+    private final int mUnitSize;
+    //换行符 0x0a 在字符单元中的位置
+    private final int mNewLineIndex;
+    //章节名的最大字节数
+    private final int mMaxTitleBytes;
+    //查找章节名的线程数
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+    //分章的文件长度以及校验值
+    private long mIndexedLength;
+    private long mIndexedHash;
+
+    TxtChapterIndexer(File file, Charset charset) {
+        mFile = file;
+        mCharset = charset;
+        switch (charset) {
+            case UTF16LE:
+                mUnitSize = 2;
+                mNewLineIndex = 0;
+                break;
+            case UTF16BE:
+                mUnitSize = 2;
+                mNewLineIndex = 1;
+                break;
+            default:
+                mUnitSize = 1;
+                mNewLineIndex = 0;
+                break;
+        }
+        //GB18030 的四字节序列也可能只表示一个字符
+        int maxCharBytes = charset == Charset.GB18030 ? 4 : charset == Charset.UTF8 ? 3 : 2;
+        mMaxTitleBytes = MAX_TITLE_CHARS * maxCharBytes;
+    }
+
+    /**
+     * 设置查找章节名的线程数，为 1 时只在当前线程中查找
+     */
+    void setParallelism(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return 分章的文件长度
+     */
+    long getIndexedLength() {
+        return mIndexedLength;
+    }
+
+    /**
+     * @return 分章的文件内容 (以及编码) 的校验值
+     */
+    long getIndexedHash() {
+        return mIndexedHash;
+    }
+
+    /**
+     * 对文件进行分章
+     */
+    List<TxtChapter> index() throws IOException {
+        return index(null, 0, 0);
+    }
+
+    /**
+     * 对追加了内容的文件进行分章，只查找原来的最后一章以及之后的内容
+     *
+     * @param chapters:上次分章的结果
+     * @param indexedLength:上次分章的文件长度
+     * @param indexedHash:上次分章的校验值
+     * @return 文件不是在结尾追加了内容，或者原来的章节会发生变化时返回 null，需要重新分章
+     */
+    List<TxtChapter> indexAppended(List<TxtChapter> chapters, long indexedLength, long indexedHash) throws IOException {
+        if (chapters == null || chapters.isEmpty() || indexedLength <= 0) {
+            return null;
+        }
+        return index(chapters, indexedLength, indexedHash);
+    }
+
+    private List<TxtChapter> index(List<TxtChapter> chapters, long indexedLength, long indexedHash) throws IOException {
+        RandomAccessFile bookStream = null;
+        try {
+            bookStream = new RandomAccessFile(mFile, "r");
+            FileChannel channel = bookStream.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (chapters != null) {
+                return indexAppended(buffer, chapters, (int) indexedLength, indexedHash);
+            }
+            List<TxtChapter> result = index(buffer);
+            mIndexedLength = buffer.limit();
+            mIndexedHash = checksum(buffer, newChecksum(), 0, buffer.limit()).getValue();
+            return result;
+        } finally {
+            IOUtils.INSTANCE.close(bookStream);
+        }
+    }
+
+    private List<TxtChapter> indexAppended(ByteBuffer buffer, List<TxtChapter> chapters,
+                                           int indexedLength, long indexedHash) {
+        int length = buffer.limit();
+        if (indexedLength >= length) {
+            return null;
+        }
+        //原来的内容是否发生了变化
+        CRC32 checksum = checksum(buffer, newChecksum(), 0, indexedLength);
+        if (checksum.getValue() != indexedHash) {
+            return null;
+        }
+        //章节名类型需要与上次分章时相同
+        Pattern pattern = checkChapterType(buffer);
+        if (pattern == null) {
+            return null;
+        }
+        ByteBuffer prefix = buffer.duplicate();
+        prefix.limit(indexedLength);
+        if (checkChapterType(prefix) != pattern) {
+            return null;
+        }
+
+        //从原来的最后一章开始查找，它的章节名必须保持不变
+        TxtChapter lastChapter = chapters.get(chapters.size() - 1);
+        List<TitleLine> titles = new ArrayList<>();
+        scanTitles(buffer, (int) lastChapter.start, length, pattern, titles, Integer.MAX_VALUE);
+        if (titles.isEmpty() || titles.get(0).offset != lastChapter.start
+                || !titles.get(0).title.equals(lastChapter.title)) {
+            return null;
+        }
+
+        List<TxtChapter> result = new ArrayList<>(chapters.subList(0, chapters.size() - 1));
+        appendChapters(result, titles, length);
+        //原来的最后一章内容太少被移除时，之前保存的章节列表不再有效，需要重新分章
+        if (result.size() < chapters.size()) {
+            return null;
+        }
+        TxtChapter appendFrom = result.get(chapters.size() - 1);
+        if (appendFrom.start != lastChapter.start || !appendFrom.title.equals(lastChapter.title)) {
+            return null;
+        }
+        mIndexedLength = length;
+        mIndexedHash = checksum(buffer, checksum, indexedLength, length).getValue();
+        return result;
+    }
+
+    private CRC32 newChecksum() {
+        CRC32 checksum = new CRC32();
+        //编码发生变化时也需要重新分章
+        byte[] code = mCharset.getCode().getBytes();
+        checksum.update(code, 0, code.length);
+        return checksum;
+    }
+
+    private static CRC32 checksum(ByteBuffer buffer, CRC32 checksum, int start, int end) {
+        ByteBuffer in = buffer.duplicate();
+        in.limit(end).position(start);
+        byte[] bytes = new byte[64 * 1024];
+        while (in.hasRemaining()) {
+            int count = Math.min(bytes.length, in.remaining());
+            in.get(bytes, 0, count);
+            checksum.update(bytes, 0, count);
+        }
+        return checksum;
+    }
+
+    private List<TxtChapter> index(ByteBuffer buffer) throws IOException {
+        //寻找匹配文章标题的正则表达式，判断是否存在章节名
+        Pattern pattern = checkChapterType(buffer);
+        if (pattern != null) {
+            List<TitleLine> titles;
+            if (mParallelism > 1 && buffer.limit() > PARALLEL_THRESHOLD) {
+                titles = scanTitlesParallel(buffer, pattern);
+            } else {
+                titles = new ArrayList<>();
+                scanTitles(buffer, 0, buffer.limit(), pattern, titles, Integer.MAX_VALUE);
+            }
+            if (!titles.isEmpty()) {
+                return buildChapters(titles, buffer.limit());
+            }
+        }
+        //进行本地虚拟分章
+        return splitChapters(buffer);
+    }
+
+    /**
+     * 判断文件中使用的章节名类型的正则表达式
+     * <p>
+     * 对文件的开头以及均匀分布的几个区域进行采样，每一行只用合并后的正则表达式匹配一次，
+     * 再统计每种章节名的匹配数以及间隔的规律程度，选出最可能的章节名类型。
+     *
+     * @return 不存在章节名时返回 null
+     */
+    Pattern checkChapterType(ByteBuffer buffer) {
+        int length = buffer.limit();
+        //采样的区域，都从行的起始位置开始
+        List<int[]> regions = new ArrayList<>(SAMPLE_COUNT + 1);
+        int headEnd = Math.min(length, CHECK_LENGTH);
+        regions.add(new int[]{0, headEnd});
+        int lastEnd = headEnd;
+        for (int i = 1; i <= SAMPLE_COUNT && length - lastEnd > SAMPLE_LENGTH; ++i) {
+            int from = (int) (headEnd + (long) (length - headEnd - SAMPLE_LENGTH) * i / SAMPLE_COUNT);
+            from = Math.max(from - from % mUnitSize, lastEnd);
+            int start = Math.min(findLineEnd(buffer, from, length) + mUnitSize, length);
+            int end = Math.min(start + SAMPLE_LENGTH, length);
+            if (start < end) {
+                regions.add(new int[]{start, end});
+                lastEnd = end;
+            }
+        }
+
+        TitleStats[] stats = new TitleStats[CHAPTER_PATTERNS.length];
+        for (int i = 0; i < stats.length; ++i) {
+            stats[i] = new TitleStats();
+        }
+        List<TitleLine> titles = new ArrayList<>();
+        Matcher[] matchers = new Matcher[CHAPTER_PATTERNS.length];
+        for (int i = 0; i < matchers.length; ++i) {
+            matchers[i] = CHAPTER_PATTERNS[i].matcher("");
+        }
+        for (int[] region : regions) {
+            titles.clear();
+            scanTitles(buffer, region[0], region[1], COMBINED_PATTERN, titles, Integer.MAX_VALUE);
+            for (int i = 0; i < matchers.length; ++i) {
+                stats[i].startRegion(region[0] == 0);
+                for (TitleLine title : titles) {
+                    if (matchers[i].reset(title.title).matches()) {
+                        stats[i].add(title.offset);
+                    }
+                }
+            }
+        }
+
+        //整个文件都被采样时，只有一个章节名也认为存在章节
+        int minCount = length <= headEnd ? 1 : MIN_TITLE_COUNT;
+        Pattern best = null;
+        float bestScore = 0;
+        for (int i = 0; i < stats.length; ++i) {
+            if (stats[i].count < minCount) {
+                continue;
+            }
+            float score = stats[i].getScore();
+            if (score > bestScore) {
+                best = CHAPTER_PATTERNS[i];
+                bestScore = score;
+            }
+        }
+        //章节很长时开头只有一个章节名，其他采样中也没有，这时只要开头有章节名也认为存在章节
+        if (best == null) {
+            for (int i = 0; i < stats.length; ++i) {
+                if (stats[i].headCount > 0) {
+                    return CHAPTER_PATTERNS[i];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 将文件按换行符分成多段，在多个线程中查找章节名
+     *
+     * @return 按顺序合并后的章节名
+     */
+    private List<TitleLine> scanTitlesParallel(ByteBuffer buffer, Pattern pattern) throws IOException {
+        int length = buffer.limit();
+        int segmentCount = (int) Math.min(mParallelism * 2L, Math.max(1, length / MIN_SEGMENT_SIZE));
+        int segmentSize = length / segmentCount;
+
+        //每一段的起始位置都是行的起始位置
+        List<int[]> segments = new ArrayList<>(segmentCount);
+        int start = 0;
+        for (int i = 1; i <= segmentCount && start < length; ++i) {
+            int end = length;
+            if (i < segmentCount) {
+                int from = Math.max(start, i * segmentSize);
+                //与字符单元对齐
+                from -= from % mUnitSize;
+                end = Math.min(findLineEnd(buffer, from, length) + mUnitSize, length);
+            }
+            segments.add(new int[]{start, end});
+            start = end;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mParallelism, segments.size()));
+        List<Future<List<TitleLine>>> futures = new ArrayList<>(segments.size());
+        try {
+            for (final int[] segment : segments) {
+                futures.add(executor.submit(new Callable<List<TitleLine>>() {
+                    @Override
+                    public List<TitleLine> call() {
+                        List<TitleLine> titles = new ArrayList<>();
+                        scanTitles(buffer, segment[0], segment[1], pattern, titles, Integer.MAX_VALUE);
+                        return titles;
+                    }
+                }));
+            }
+
+            //按顺序合并
+            List<TitleLine> titles = new ArrayList<>();
+            for (Future<List<TitleLine>> future : futures) {
+                titles.addAll(future.get());
+            }
+            return titles;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            //分章被取消时，停止其他的线程
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 查找 [start, end) 中匹配章节名的行，start 需要是行的起始位置
+     *
+     * @param titles:匹配到的行按顺序添加到 titles 中
+     * @param maxCount:最多查找的行数
+     */
+    void scanTitles(ByteBuffer buffer, int start, int end, Pattern pattern,
+                    List<TitleLine> titles, int maxCount) {
+        CharsetDecoder decoder = java.nio.charset.Charset.forName(mCharset.getCode()).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer line = buffer.duplicate();
+        CharBuffer chars = CharBuffer.allocate(mMaxTitleBytes);
+        Matcher matcher = pattern.matcher("");
+
+        int lineStart = start;
+        while (lineStart < end && titles.size() < maxCount) {
+            //分章被取消
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            int lineEnd = findLineEnd(buffer, lineStart, end);
+            //只有长度可能是章节名的行才进行解码
+            if (lineEnd - lineStart <= mMaxTitleBytes) {
+                line.limit(lineEnd).position(lineStart);
+                chars.clear();
+                decoder.reset();
+                decoder.decode(line, chars, true);
+                decoder.flush(chars);
+                chars.flip();
+                //去除行尾的 \r
+                if (chars.limit() > 0 && chars.get(chars.limit() - 1) == '\r') {
+                    chars.limit(chars.limit() - 1);
+                }
+                if (matcher.reset(chars).matches()) {
+                    titles.add(new TitleLine(lineStart, chars.toString()));
+                }
+            }
+            lineStart = Math.min(lineEnd + mUnitSize, end);
+        }
+    }
+
+    /**
+     * @return [start, end) 中第一个换行符的位置，没有换行符时返回 end
+     */
+    int findLineEnd(ByteBuffer buffer, int start, int end) {
+        if (mUnitSize == 1) {
+            for (int i = start; i < end; ++i) {
+                if (buffer.get(i) == BLANK) {
+                    return i;
+                }
+            }
+            return end;
+        }
+        int other = 1 - mNewLineIndex;
+        for (int i = start; i + 1 < end; i += 2) {
+            if (buffer.get(i + mNewLineIndex) == BLANK && buffer.get(i + other) == 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 根据章节名所在的行创建章节：第一个章节名之前的内容作为序章，移除内容太少的章节
+     */
+    static List<TxtChapter> buildChapters(List<TitleLine> titles, long length) {
+        List<TxtChapter> chapters = new ArrayList<>(titles.size() + 1);
+        appendChapters(chapters, titles, length);
+        return chapters;
+    }
+
+    /**
+     * 在 chapters 之后继续添加章节，chapters 为空时才会添加序章
+     */
+    private static void appendChapters(List<TxtChapter> chapters, List<TitleLine> titles, long length) {
+        TxtChapter lastChapter = chapters.isEmpty() ? null : chapters.get(chapters.size() - 1);
+        for (TitleLine title : titles) {
+            if (lastChapter == null) {
+                //第一个章节名前面的内容作为序章
+                if (title.offset > 0) {
+                    TxtChapter preChapter = new TxtChapter();
+                    preChapter.title = "序章";
+                    preChapter.start = 0;
+                    preChapter.end = title.offset;
+                    //如果序章大小大于30才添加进去
+                    if (preChapter.end - preChapter.start > MIN_CHAPTER_LENGTH) {
+                        chapters.add(preChapter);
+                    }
+                }
+            } else {
+                lastChapter.end = title.offset;
+                //如果章节内容太小，则移除
+                if (lastChapter.end - lastChapter.start < MIN_CHAPTER_LENGTH) {
+                    chapters.remove(chapters.size() - 1);
+                }
+            }
+
+            //创建当前章节
+            TxtChapter curChapter = new TxtChapter();
+            curChapter.title = title.title;
+            curChapter.start = title.offset;
+            chapters.add(curChapter);
+            lastChapter = curChapter;
+        }
+        //设置最后一章的结尾
+        if (lastChapter != null) {
+            lastChapter.end = length;
+        }
+    }
+
+    /**
+     * 不存在章节名时，按照块进行虚拟分章
+     */
+    private List<TxtChapter> splitChapters(ByteBuffer buffer) {
+        List<TxtChapter> chapters = new ArrayList<>();
+        int fileLength = buffer.limit();
+        int blockPos = 0;
+        for (int curOffset = 0; curOffset < fileLength; curOffset += BLOCK_SIZE) {
+            ++blockPos;
+            int length = Math.min(BLOCK_SIZE, fileLength - curOffset);
+            //章节在block中的偏移量
+            int chapterOffset = 0;
+            //当前剩余可分配的长度
+            int strLength = length;
+            //分章的位置
+            int chapterPos = 0;
+
+            while (strLength > 0) {
+                ++chapterPos;
+                TxtChapter chapter = new TxtChapter();
+                chapter.title = "第" + blockPos + "章" + "(" + chapterPos + ")";
+                chapter.start = curOffset + chapterOffset + 1;
+                //是否长度超过一章
+                if (strLength > MAX_LENGTH_WITH_NO_CHAPTER) {
+                    //寻找换行符作为终止点
+                    int from = Math.min(chapterOffset + MAX_LENGTH_WITH_NO_CHAPTER, length);
+                    int end = findLineEnd(buffer, curOffset + from, curOffset + length) - curOffset;
+                    chapter.end = curOffset + end;
+                    //减去已经被分配的长度
+                    strLength = strLength - (end - chapterOffset);
+                    //设置偏移的位置
+                    chapterOffset = end;
+                } else {
+                    chapter.end = curOffset + length;
+                    strLength = 0;
+                }
+                chapters.add(chapter);
+            }
+        }
+        return chapters;
+    }
+
+    private static Pattern combine(Pattern[] patterns) {
+        StringBuilder builder = new StringBuilder("^(?:");
+        for (int i = 0; i < patterns.length; ++i) {
+            String pattern = patterns[i].pattern();
+            if (i > 0) {
+                builder.append('|');
+            }
+            //去掉每个表达式的 ^ 和 $
+            builder.append(pattern, 1, pattern.length() - 1);
+        }
+        return Pattern.compile(builder.append(")$").toString());
+    }
+
+    /**
+     * 一种章节名在采样中的匹配情况
+     */
+    private static final class TitleStats {
+        int count;
+        //文件开头的匹配数
+        int headCount;
+        //同一采样区域中相邻章节名的间隔
+        private int mLastOffset = -1;
+        private boolean isHead;
+        private int mGapCount;
+        private double mGapSum;
+        private double mGapSquareSum;
+
+        void startRegion(boolean head) {
+            mLastOffset = -1;
+            isHead = head;
+        }
+
+        void add(int offset) {
+            ++count;
+            if (isHead) {
+                ++headCount;
+            }
+            if (mLastOffset != -1) {
+                double gap = offset - mLastOffset;
+                ++mGapCount;
+                mGapSum += gap;
+                mGapSquareSum += gap * gap;
+            }
+            mLastOffset = offset;
+        }
+
+        /**
+         * 匹配数越多、间隔越均匀，分数越高
+         */
+        float getScore() {
+            if (mGapCount == 0) {
+                return count * 0.5f;
+            }
+            double mean = mGapSum / mGapCount;
+            double variance = Math.max(0, mGapSquareSum / mGapCount - mean * mean);
+            //间隔的变异系数
+            double cv = Math.sqrt(variance) / mean;
+            double score = count / (1 + cv);
+            if (mean < MIN_AVERAGE_GAP) {
+                score *= mean / MIN_AVERAGE_GAP;
+            }
+            return (float) score;
+        }
+    }
+
+    /**
+     * 匹配章节名的行
+     */
+    static final class TitleLine {
+        //行在文件中的字节偏移
+        final int offset;
+        final String title;
+
+        TitleLine(int offset, String title) {
+            this.offset = offset;
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.novel.read.widget.page;
+
+import android.graphics.Paint;
+import android.text.TextPaint;
+
+/**
+ * Created by zlj
+ * 排版参数的快照。
+ * 排版可能在后台线程执行，所以画笔需要复制一份，防止 UI 线程修改字体大小时影响正在进行的排版。
+ */
+final class TxtLayoutParams {
+    //书籍绘制区域的宽高
+    final int visibleWidth;
+    final int visibleHeight;
+    //行间距
+    final int textInterval;
+    final int titleInterval;
+    //段落距离(基于行间距的额外距离)
+    final int textPara;
+    final int titlePara;
+    //内容和标题的画笔(副本)
+    final TextPaint textPaint;
+    final TextPaint titlePaint;
+
+    TxtLayoutParams(int visibleWidth, int visibleHeight,
+                    int textInterval, int titleInterval, int textPara, int titlePara,
+                    Paint textPaint, Paint titlePaint) {
+        this.visibleWidth = visibleWidth;
+        this.visibleHeight = visibleHeight;
+        this.textInterval = textInterval;
+        this.titleInterval = titleInterval;
+        this.textPara = textPara;
+        this.titlePara = titlePara;
+        this.textPaint = new TextPaint(textPaint);
+        this.titlePaint = new TextPaint(titlePaint);
+    }
+}
@@ -0,0 +1,88 @@
+package com.novel.read.widget.page;
+
+/**
+ * Created by zlj
+ * 中文断行：按字符累加宽度计算一行能显示的字符数，不创建子字符串。
+ * <p>
+ * 断行时遵循中文的避头尾规则：标点 (如 "，。」") 不出现在行首，前括号、前引号不出现在行尾。
+ * 不满足规则时，将本行末尾的字符移到下一行 (最多移动 {@link #MAX_KINSOKU_SHIFT} 个)。
+ */
+final class TxtLineBreaker {
+    //不能出现在行首的字符
+    private static final String LINE_START_FORBIDDEN = "，。、；：？！．…—～·）》」』】〕〉”’｝］％";
+    //不能出现在行尾的字符
+    private static final String LINE_END_FORBIDDEN = "（《「『【〔〈“‘｛［";
+    //为满足避头尾规则，最多向下一行移动的字符数
+    private static final int MAX_KINSOKU_SHIFT = 2;
+
+    private final TextMeasurer mMeasurer;
+
+    TxtLineBreaker(TextMeasurer measurer) {
+        mMeasurer = measurer;
+    }
+
+    /**
+     * 计算 text 中从 start 开始的一行的结束位置
+     *
+     * @param end:段落的结束位置
+     * @param maxWidth:一行的最大宽度
+     * @return 一行的结束位置 (不包含)，至少包含一个字符
+     */
+    int breakLine(char[] text, int start, int end, float maxWidth) {
+        float width = 0;
+        int i = start;
+        while (i < end) {
+            // 换行符不占宽度
+            if (text[i] == '\n') {
+                i++;
+                continue;
+            }
+
+            int count = charCount(text, i, end);
+            float charWidth = mMeasurer.getWidth(text, i, count);
+            if (width + charWidth > maxWidth) {
+                break;
+            }
+            width += charWidth;
+            i += count;
+        }
+
+        // 整段都能放下
+        if (i >= end) {
+            return end;
+        }
+        // 一个字符都放不下时，也至少显示一个字符
+        if (i == start) {
+            return start + charCount(text, start, end);
+        }
+
+        // 避头尾
+        int breakPos = i;
+        for (int shift = 0; shift < MAX_KINSOKU_SHIFT && breakPos - 1 > start; ++shift) {
+            if (!isForbiddenBreak(text, breakPos)) {
+                break;
+            }
+            breakPos--;
+            // 不拆分代理对
+            if (Character.isLowSurrogate(text[breakPos]) && breakPos - 1 > start) {
+                breakPos--;
+            }
+        }
+        // 移动之后仍然不满足规则，则保持原来的位置
+        return isForbiddenBreak(text, breakPos) ? i : breakPos;
+    }
+
+    //在 pos 之前断行是否违反避头尾规则
+    private static boolean isForbiddenBreak(char[] text, int pos) {
+        return LINE_START_FORBIDDEN.indexOf(text[pos]) != -1
+                || LINE_END_FORBIDDEN.indexOf(text[pos - 1]) != -1;
+    }
+
+    private static int charCount(char[] text, int index, int end) {
+        if (Character.isHighSurrogate(text[index]) && index + 1 < end
+                && Character.isLowSurrogate(text[index + 1])) {
+            return 2;
+        }
+        return 1;
+    }
+}
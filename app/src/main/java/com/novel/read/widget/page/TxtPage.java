@@ -6,8 +6,10 @@ import java.util.List;
 public class TxtPage {
     int position;
     String title;
-    int titleLines; //当前 lines 中为 title 的行数。
-    List<String> lines;
+    //章节规范化后的文本，同一章节的所有页面共用
+    char[] text;
+    //当前页每一行在 text 中的位置，格式为：[标题行数, 行1开始, 行1结束, 行2开始, 行2结束 ...]
+    int[] lineOffsets;
     private String pic;
 
     public int getPosition() {
@@ -18,11 +20,33 @@ public class TxtPage {
         return title == null ? "" : title;
     }
 
+    //当前 lines 中为 title 的行数。
+    int getTitleLines() {
+        return lineOffsets == null ? 0 : lineOffsets[0];
+    }
+
+    int getLineCount() {
+        return lineOffsets == null ? 0 : lineOffsets.length / 2;
+    }
+
+    int getLineStart(int line) {
+        return lineOffsets[line * 2 + 1];
+    }
+
+    int getLineEnd(int line) {
+        return lineOffsets[line * 2 + 2];
+    }
 
+    //当前页第一行在章节文本中的位置，没有文字时返回 -1
+    int getTextOffset() {
+        return getLineCount() == 0 ? -1 : getLineStart(0);
+    }
 
     public List<String> getLines() {
-        if (lines == null) {
-            return new ArrayList<>();
+        int count = getLineCount();
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add(new String(text, getLineStart(i), getLineEnd(i) - getLineStart(i)));
         }
         return lines;
     }
@@ -0,0 +1,44 @@
+package com.novel.read.widget.page;
+
+import android.util.LruCache;
+
+import java.util.List;
+
+/**
+ * Created by zlj
+ * 章节页面列表的缓存，以章节序号作为 key。
+ * 按照页面列表占用的内存大小进行 LRU 淘汰。
+ */
+class TxtPageCache extends LruCache<Integer, List<TxtPage>> {
+    //默认的缓存大小
+    private static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    TxtPageCache() {
+        this((int) Math.min(DEFAULT_MAX_SIZE, Runtime.getRuntime().maxMemory() / 32));
+    }
+
+    /**
+     * @param maxSize:缓存的最大字节数
+     */
+    TxtPageCache(int maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    protected int sizeOf(Integer key, List<TxtPage> pages) {
+        // 估算页面列表占用的内存，同一章节的页面共用同一份文本
+        int size = 16;
+        char[] text = null;
+        for (TxtPage page : pages) {
+            size += 32;
+            if (page.lineOffsets != null) {
+                size += 16 + page.lineOffsets.length * 4;
+            }
+            if (page.text != null && page.text != text) {
+                text = page.text;
+                size += 16 + text.length * 2;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,198 @@
+package com.novel.read.widget.page;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import com.novel.read.constants.Constant;
+import com.novel.read.utlis.FileUtils;
+import com.novel.read.utlis.IOUtils;
+import com.novel.read.utlis.MD5Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by zlj
+ * 分页索引：将章节的排版结果(每一行在章节文本中的偏移)保存到磁盘上。
+ * <p>
+ * 索引以章节内容的 hash 和排版参数作为校验，二者任意一个发生变化 (修改字体大小、边距、显示区域等)
+ * 都会导致索引失效，重新排版后覆盖旧的索引。
+ * <p>
+ * 每一页的索引格式为：[标题行数, 行1开始, 行1结束, 行2开始, 行2结束 ...]
+ */
+final class TxtPageIndex {
+    private static final int MAGIC = 0x5A4C4A49;
+    private static final int VERSION = 2;
+    private static final String SUFFIX_INDEX = ".idx";
+    private static final String SUFFIX_TMP = ".tmp";
+
+    private TxtPageIndex() {
+    }
+
+    /**
+     * 生成排版参数的签名
+     */
+    static String layoutKey(TxtLayoutParams params) {
+        return params.visibleWidth + "," + params.visibleHeight
+                + "," + params.textInterval + "," + params.titleInterval
+                + "," + params.textPara + "," + params.titlePara
+                + "," + paintKey(params.textPaint) + "," + paintKey(params.titlePaint);
+    }
+
+    /**
+     * 生成画笔参数的签名
+     */
+    static String paintKey(Paint paint) {
+        return paint.getTextSize() + ":" + paint.getTextScaleX()
+                + ":" + typefaceKey(paint.getTypeface())
+                + ":" + paint.isFakeBoldText();
+    }
+
+    /**
+     * 字体的签名：系统字体使用固定的名字，索引在重新启动后仍然有效；
+     * 其他字体 (例如从文件创建的字体) 使用对象的 hash，只在本次运行中有效
+     */
+    private static String typefaceKey(Typeface typeface) {
+        if (typeface == null) {
+            return "-1";
+        }
+        String name;
+        if (typeface.equals(Typeface.DEFAULT)) {
+            name = "default";
+        } else if (typeface.equals(Typeface.DEFAULT_BOLD)) {
+            name = "default_bold";
+        } else if (typeface.equals(Typeface.SANS_SERIF)) {
+            name = "sans_serif";
+        } else if (typeface.equals(Typeface.SERIF)) {
+            name = "serif";
+        } else if (typeface.equals(Typeface.MONOSPACE)) {
+            name = "monospace";
+        } else {
+            name = Integer.toHexString(typeface.hashCode());
+        }
+        return name + "/" + typeface.getStyle();
+    }
+
+    /**
+     * 计算章节文本的 hash (FNV-1a 64位)
+     */
+    static long hash(char[] text) {
+        return hash(text, 0, text.length);
+    }
+
+    static long hash(char[] text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; ++i) {
+            hash ^= text[i];
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static File getIndexFile(TxtChapter chapter) {
+        return new File(Constant.PAGE_INDEX_PATH + chapter.getBookId()
+                + File.separator + MD5Utils.INSTANCE.strToMd5By16(chapter.getTitle()) + SUFFIX_INDEX);
+    }
+
+    /**
+     * 读取章节的分页索引
+     *
+     * @return 索引不存在或者已经失效时返回 null
+     */
+    static List<int[]> load(TxtChapter chapter, String layoutKey, long hash, int length) {
+        if (chapter.getBookId() == null) {
+            return null;
+        }
+        File file = getIndexFile(chapter);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !layoutKey.equals(in.readUTF())
+                    || in.readLong() != hash || in.readInt() != length) {
+                return null;
+            }
+
+            int pageCount = in.readInt();
+            List<int[]> pages = new ArrayList<>(pageCount);
+            for (int i = 0; i < pageCount; ++i) {
+                int size = in.readInt();
+                if (size <= 0 || size % 2 == 0) {
+                    return null;
+                }
+                int[] page = new int[size];
+                for (int j = 0; j < page.length; ++j) {
+                    page[j] = in.readInt();
+                }
+                // 校验偏移是否越界
+                for (int j = 1; j < page.length; ++j) {
+                    if (page[j] < 0 || page[j] > length) {
+                        return null;
+                    }
+                }
+                pages.add(page);
+            }
+            return pages;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IOUtils.INSTANCE.close(in);
+        }
+    }
+
+    /**
+     * 保存章节的分页索引：先写入临时文件，完成后再替换，中断时不会留下不完整的索引。
+     * 同一章节可能同时被多个排版保存，共用一个临时文件，需要同步
+     */
+    static synchronized void save(TxtChapter chapter, String layoutKey, long hash, int length, List<int[]> pages) {
+        if (chapter.getBookId() == null) {
+            return;
+        }
+        File file = getIndexFile(chapter);
+        FileUtils.getFolder(file.getParent());
+        File tmp = new File(file.getPath() + SUFFIX_TMP);
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(layoutKey);
+            out.writeLong(hash);
+            out.writeInt(length);
+            out.writeInt(pages.size());
+            for (int[] page : pages) {
+                out.writeInt(page.length);
+                for (int value : page) {
+                    out.writeInt(value);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed: " + tmp);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // 写入失败，删除不完整的临时文件，原来的索引不受影响
+            IOUtils.INSTANCE.close(out);
+            out = null;
+            tmp.delete();
+        } finally {
+            IOUtils.INSTANCE.close(out);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.novel.read.widget.page;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by zlj
+ * 章节分页器：将章节的文本按页进行排版。
+ * <p>
+ * 章节文本在创建前一次性读取并规范化 (见 {@link ChapterText})，排版只针对规范化后的文本进行。
+ * 与一次性排版整章不同，分页器每次只排版需要的页数，剩余的部分可以交给后台线程继续排版。
+ * 排版完成后会将分页结果保存到 {@link TxtPageIndex} 中，再次打开同样排版参数的章节时直接使用索引，不再重新排版。
+ * 所有的排版方法都是同步的，UI 线程与后台线程可以同时使用同一个分页器。
+ */
+class TxtPaginator {
+    private final TxtChapter mChapter;
+    private final TxtLayoutParams mParams;
+    //内容和标题的断行
+    private final TxtLineBreaker mTextBreaker;
+    private final TxtLineBreaker mTitleBreaker;
+    //章节标题
+    private final String mTitle;
+
+    //规范化后的章节文本
+    private final ChapterText mChapterText;
+    //规范化后的文本，第一个段落为标题。同一章节的所有页面共用这一份文本
+    private final char[] mText;
+
+    //分页索引的校验信息
+    private final String mLayoutKey;
+    private final long mHash;
+
+    //已经排版完成的页面
+    private final List<TxtPage> mPages = new ArrayList<>();
+    //已经排版完成的页面的索引
+    private final List<int[]> mPageIndex = new ArrayList<>();
+    //章节中的图片，排在文字页面之后
+    private final List<String> mPics;
+    private int mPicPos;
+
+    //当前正在排版的段落
+    private int mParaPos;
+    //当前排版到的位置
+    private int mOffset;
+    //当前段落的结束位置
+    private int mParaEnd;
+    //当前段落是否还在排版
+    private boolean isInParagraph;
+    //是否正在排版标题
+    private boolean isShowTitle = true;
+    //当前页剩余的高度
+    private int mRemainHeight;
+    //当前页已经排版的行，[开始, 结束, 开始, 结束...]
+    private int[] mLineOffsets = new int[64];
+    private int mLineCount;
+    //当前页中标题的行数
+    private int mTitleLines;
+    //文本是否已经排版完毕
+    private boolean isTextFinish;
+    //是否排版完成
+    private boolean isFinish;
+
+    TxtPaginator(TxtChapter chapter, ChapterText chapterText, TxtLayoutParams params) {
+        mChapter = chapter;
+        mParams = params;
+        mTextBreaker = new TxtLineBreaker(new PaintTextMeasurer(params.textPaint));
+        mTitleBreaker = new TxtLineBreaker(new PaintTextMeasurer(params.titlePaint));
+        mRemainHeight = params.visibleHeight;
+
+        mChapterText = chapterText;
+        mTitle = mChapterText.title;
+        mText = mChapterText.text;
+        mPics = mChapterText.pics;
+
+        mLayoutKey = TxtPageIndex.layoutKey(params);
+        mHash = TxtPageIndex.hash(mText);
+        // 存在可用的索引，则直接生成页面
+        List<int[]> index = TxtPageIndex.load(chapter, mLayoutKey, mHash, mText.length);
+        if (index != null) {
+            for (int[] offsets : index) {
+                addPage(offsets);
+            }
+            addPicPages();
+            isTextFinish = true;
+            isFinish = true;
+        }
+    }
+
+    /**
+     * 排版，直到页面数量达到 count 或者章节排版完成
+     *
+     * @return 已经排版完成的页面数量
+     */
+    synchronized int layoutUntil(int count) {
+        while (!isFinish && mPages.size() < count) {
+            if (!layoutPage()) {
+                isFinish = true;
+                // 完整排版的章节，保存分页索引
+                if (!mChapterText.isReadError) {
+                    TxtPageIndex.save(mChapter, mLayoutKey, mHash, mText.length, mPageIndex);
+                }
+            }
+        }
+        return mPages.size();
+    }
+
+    /**
+     * 排版，直到包含文本位置 offset 的页面排版完成
+     *
+     * @return 包含 offset 的页面序号
+     */
+    synchronized int layoutToOffset(int offset) {
+        while (!isFinish && getLastTextEnd() <= offset) {
+            layoutUntil(mPages.size() + 1);
+        }
+        for (int i = mPages.size() - 1; i >= 0; --i) {
+            int start = mPages.get(i).getTextOffset();
+            if (start != -1 && start <= offset) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    //已经排版的最后一行文字的结束位置
+    private int getLastTextEnd() {
+        for (int i = mPages.size() - 1; i >= 0; --i) {
+            TxtPage page = mPages.get(i);
+            if (page.getLineCount() != 0) {
+                return page.getLineEnd(page.getLineCount() - 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 排版整个章节
+     */
+    synchronized List<TxtPage> layoutAll() {
+        layoutUntil(Integer.MAX_VALUE);
+        return new ArrayList<>(mPages);
+    }
+
+    /**
+     * 将 dest 中还没有的页面追加进去
+     */
+    synchronized void copyPages(List<TxtPage> dest) {
+        for (int i = dest.size(); i < mPages.size(); ++i) {
+            dest.add(mPages.get(i));
+        }
+    }
+
+    synchronized int getPageCount() {
+        return mPages.size();
+    }
+
+    synchronized boolean isFinish() {
+        return isFinish;
+    }
+
+    /**
+     * 放弃剩余的排版
+     */
+    synchronized void release() {
+        isFinish = true;
+    }
+
+    /**
+     * 排版下一页
+     *
+     * @return 是否还存在页面
+     */
+    private boolean layoutPage() {
+        while (!isTextFinish) {
+            if (!isInParagraph && !nextParagraph()) {
+                isTextFinish = true;
+                break;
+            }
+            if (layoutParagraph()) {
+                return true;
+            }
+        }
+
+        //最后一页文字
+        if (mLineCount != 0) {
+            createPage();
+            return true;
+        }
+
+        //文字之后是图片页
+        if (mPicPos < mPics.size()) {
+            addPicPage(mPics.get(mPicPos++));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 开始排版下一个段落
+     *
+     * @return 是否还存在段落
+     */
+    private boolean nextParagraph() {
+        if (mParaPos >= mChapterText.paraCount) {
+            return false;
+        }
+        if (isShowTitle) {
+            //设置 title 的顶部间距
+            mRemainHeight -= mParams.titlePara;
+        }
+        mParaEnd = mChapterText.paraEnds[mParaPos++];
+        isInParagraph = true;
+        return true;
+    }
+
+    /**
+     * 排版当前段落，直到段落结束或者一页已经填充满
+     *
+     * @return 一页填充满时返回 true
+     */
+    private boolean layoutParagraph() {
+        int wordCount;
+        while (mOffset < mParaEnd) {
+            //当前空间，是否容得下一行文字
+            if (isShowTitle) {
+                mRemainHeight -= mParams.titlePaint.getTextSize();
+            } else {
+                mRemainHeight -= mParams.textPaint.getTextSize();
+            }
+
+            // 一页已经填充满了，创建 TextPage
+            if (mRemainHeight <= 0) {
+                createPage();
+                return true;
+            }
+
+            //测量一行占用的字节数
+            if (isShowTitle) {
+                wordCount = mTitleBreaker.breakLine(mText, mOffset, mParaEnd,
+                        mParams.visibleWidth) - mOffset;
+            } else {
+                wordCount = mTextBreaker.breakLine(mText, mOffset, mParaEnd,
+                        mParams.visibleWidth) - mOffset;
+            }
+
+            if (wordCount != 1 || mText[mOffset] != '\n') {
+                //将一行的位置，存储到lines中
+                addLine(mOffset, mOffset + wordCount);
+
+                //设置段落间距
+                if (isShowTitle) {
+                    mTitleLines += 1;
+                    mRemainHeight -= mParams.titleInterval;
+                } else {
+                    mRemainHeight -= mParams.textInterval;
+                }
+            }
+            //裁剪
+            mOffset += wordCount;
+        }
+
+        //增加段落的间距
+        if (!isShowTitle && mLineCount != 0) {
+            mRemainHeight = mRemainHeight - mParams.textPara + mParams.textInterval;
+        }
+
+        if (isShowTitle) {
+            mRemainHeight = mRemainHeight - mParams.titlePara + mParams.titleInterval;
+            isShowTitle = false;
+        }
+        isInParagraph = false;
+        return false;
+    }
+
+    private void addLine(int start, int end) {
+        if (mLineCount * 2 == mLineOffsets.length) {
+            mLineOffsets = Arrays.copyOf(mLineOffsets, mLineOffsets.length * 2);
+        }
+        mLineOffsets[mLineCount * 2] = start;
+        mLineOffsets[mLineCount * 2 + 1] = end;
+        mLineCount++;
+    }
+
+    private void createPage() {
+        int[] offsets = new int[mLineCount * 2 + 1];
+        offsets[0] = mTitleLines;
+        System.arraycopy(mLineOffsets, 0, offsets, 1, mLineCount * 2);
+        addPage(offsets);
+        // 重置Lines
+        mLineCount = 0;
+        mRemainHeight = mParams.visibleHeight;
+        mTitleLines = 0;
+    }
+
+    /**
+     * 根据页面索引生成页面
+     */
+    private void addPage(int[] offsets) {
+        TxtPage page = new TxtPage();
+        page.position = mPages.size();
+        page.title = mTitle;
+        page.text = mText;
+        page.lineOffsets = offsets;
+        mPages.add(page);
+        mPageIndex.add(offsets);
+    }
+
+    private void addPicPages() {
+        while (mPicPos < mPics.size()) {
+            addPicPage(mPics.get(mPicPos++));
+        }
+    }
+
+    private void addPicPage(String pic) {
+        TxtPage page = new TxtPage();
+        page.position = mPages.size();
+        page.title = mTitle;
+        page.lineOffsets = new int[]{0};
+        page.setPic(pic);
+        mPages.add(page);
+    }
+}
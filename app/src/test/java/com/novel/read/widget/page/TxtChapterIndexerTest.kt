@@ -0,0 +1,129 @@
+package com.novel.read.widget.page
+
+import com.novel.read.utlis.Charset
+import org.junit.AfterClass
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * 本地 TXT 分章：大文件和长章节的分章结果，多线程查找与单线程查找的结果一致，以及追加内容后的分章
+ */
+class TxtChapterIndexerTest {
+
+    @Test
+    fun index_largeFile() {
+        val chapters = TxtChapterIndexer(sFile, Charset.UTF8).index()
+
+        assertEquals(sChapterCount, chapters.size)
+        assertEquals("第1章 风起", chapters[0].title)
+        assertEquals(sFile.length(), chapters[chapters.size - 1].end)
+    }
+
+    @Test
+    fun index_parallelSameAsSingleThread() {
+        val parallel = TxtChapterIndexer(sFile, Charset.UTF8)
+        parallel.setParallelism(4)
+        val single = TxtChapterIndexer(sFile, Charset.UTF8)
+        single.setParallelism(1)
+
+        val expected = single.index()
+        val actual = parallel.index()
+        assertEquals(expected.size, actual.size)
+        for (i in expected.indices) {
+            assertEquals(expected[i].title, actual[i].title)
+            assertEquals(expected[i].start, actual[i].start)
+            assertEquals(expected[i].end, actual[i].end)
+        }
+    }
+
+    @Test
+    fun index_longChapters() {
+        // 每章约 200KB，文件开头和其他采样中都只有一个章节名
+        val file = File.createTempFile("long", ".txt")
+        try {
+            val body = "　　他抬头看了看天色，远处的山峦在暮色中渐渐模糊。\n"
+            val builder = StringBuilder()
+            for (i in 1..5) {
+                builder.append("第").append(i).append("章 长夜\n")
+                for (j in 0 until 2800) {
+                    builder.append(body)
+                }
+            }
+            file.writeText(builder.toString(), Charsets.UTF_8)
+
+            val chapters = TxtChapterIndexer(file, Charset.UTF8).index()
+            assertEquals(5, chapters.size)
+            assertEquals("第1章 长夜", chapters[0].title)
+            assertEquals("第5章 长夜", chapters[4].title)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun indexAppended_lastChapterRemoved() {
+        val file = File.createTempFile("appended", ".txt")
+        try {
+            val body = "　　他抬头看了看天色，远处的山峦在暮色中渐渐模糊。\n"
+            // 原来的最后一章只有章节名
+            file.writeText("第1章 风起\n${body}${body}第2章 尾声\n", Charsets.UTF_8)
+            val indexer = TxtChapterIndexer(file, Charset.UTF8)
+            val chapters = indexer.index()
+            assertEquals("第2章 尾声", chapters[chapters.size - 1].title)
+
+            // 追加之后原来的最后一章内容太少，会被移除，需要重新分章
+            file.appendText("第3章 新章\n${body}${body}", Charsets.UTF_8)
+            assertNull(indexer.indexAppended(chapters, indexer.indexedLength, indexer.indexedHash))
+
+            // 原来的最后一章仍然保留时，只对追加的部分分章
+            val full = indexer.index()
+            file.appendText("第4章 再续\n${body}${body}", Charsets.UTF_8)
+            val appended = indexer.indexAppended(full, indexer.indexedLength, indexer.indexedHash)
+            assertNotNull(appended)
+            assertEquals(full.size + 1, appended!!.size)
+            assertEquals("第4章 再续", appended[appended.size - 1].title)
+        } finally {
+            file.delete()
+        }
+    }
+
+    companion object {
+        private const val FILE_SIZE = 50L * 1024 * 1024
+        //每章的段落数，每章约 8KB
+        private const val PARAGRAPH_COUNT = 64
+
+        private lateinit var sFile: File
+        private var sChapterCount = 0
+
+        @BeforeClass
+        @JvmStatic
+        fun setUpClass() {
+            sFile = File.createTempFile("indexer", ".txt")
+            val paragraph = "　　他抬头看了看天色，远处的山峦在暮色中渐渐模糊，风从林间吹过，带来一阵草木的清香。\n"
+                .toByteArray(Charsets.UTF_8)
+            BufferedOutputStream(FileOutputStream(sFile), 1024 * 1024).use { out ->
+                var length = 0L
+                while (length < FILE_SIZE) {
+                    ++sChapterCount
+                    val title = "第${sChapterCount}章 风起\n".toByteArray(Charsets.UTF_8)
+                    out.write(title)
+                    length += title.size
+                    for (i in 0 until PARAGRAPH_COUNT) {
+                        out.write(paragraph)
+                        length += paragraph.size
+                    }
+                }
+            }
+        }
+
+        @AfterClass
+        @JvmStatic
+        fun tearDownClass() {
+            sFile.delete()
+        }
+    }
+}
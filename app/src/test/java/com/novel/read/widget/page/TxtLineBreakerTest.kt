@@ -0,0 +1,95 @@
+package com.novel.read.widget.page
+
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * 中文断行：避头尾、代理对以及超出宽度的字符
+ */
+class TxtLineBreakerTest {
+
+    private val mMeasurer = FixedWidthMeasurer()
+    private val mBreaker = TxtLineBreaker(mMeasurer)
+
+    private fun breakLine(text: String, maxWidth: Float, start: Int = 0): Int {
+        val chars = text.toCharArray()
+        return mBreaker.breakLine(chars, start, chars.size, maxWidth)
+    }
+
+    @Test
+    fun breakLine_fitsWidth() {
+        assertEquals(5, breakLine("一二三四五六七", 5f))
+        assertEquals(7, breakLine("一二三四五六七", 5f, 5))
+    }
+
+    @Test
+    fun breakLine_wholeParagraph() {
+        assertEquals(3, breakLine("一二三", 5f))
+    }
+
+    @Test
+    fun breakLine_newLineHasNoWidth() {
+        assertEquals(6, breakLine("一二\n三四五六", 5f))
+    }
+
+    @Test
+    fun breakLine_punctuationNotAtLineStart() {
+        // "，" 不出现在行首，"五" 和 "，" 一起移到下一行
+        assertEquals(4, breakLine("一二三四五，六", 5f))
+    }
+
+    @Test
+    fun breakLine_openQuoteNotAtLineEnd() {
+        assertEquals(4, breakLine("一二三四「五六", 5f))
+    }
+
+    @Test
+    fun breakLine_shiftTwice() {
+        // 移动一个字符后 "「" 在行尾，再移动一个字符
+        assertEquals(3, breakLine("一二三「四」五", 5f))
+    }
+
+    @Test
+    fun breakLine_shiftLimit() {
+        // 超过最多移动的字符数时保持原来的位置
+        assertEquals(5, breakLine("一二，，，，六", 5f))
+    }
+
+    @Test
+    fun breakLine_surrogatePairNotSplit() {
+        val emoji = String(Character.toChars(0x1F600))
+        // 代理对按一个字符测量
+        assertEquals(6, breakLine("一二三四${emoji}五", 5f))
+        assertTrue(mMeasurer.counts.contains(2))
+        assertEquals(4, breakLine("一二三四${emoji}五", 4.5f))
+        // 避头尾时代理对一起移到下一行
+        assertEquals(3, breakLine("一二三$emoji，", 4f))
+    }
+
+    @Test
+    fun breakLine_charWiderThanLine() {
+        // 一个字符都放不下时，至少显示一个字符
+        assertEquals(1, breakLine("一二", 0.5f))
+        val emoji = String(Character.toChars(0x1F600))
+        assertEquals(2, breakLine("${emoji}一", 0.5f))
+        assertEquals(2, breakLine("一二宽三", 3f))
+        assertEquals(3, breakLine("一二宽三", 3f, 2))
+    }
+
+    /**
+     * 固定宽度的测量：每个字符 (代理对算一个字符) 宽度为 1，"宽" 的宽度为 10
+     */
+    private class FixedWidthMeasurer : TextMeasurer {
+        //每次测量的字符单元数
+        val counts = ArrayList<Int>()
+
+        override fun getWidth(text: CharArray, index: Int, count: Int): Float {
+            counts.add(count)
+            return if (count == 1 && text[index] == '宽') WIDE else 1f
+        }
+    }
+
+    companion object {
+        private const val WIDE = 10f
+    }
+}